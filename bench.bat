@@ -0,0 +1,13 @@
+@echo off
+
+@echo bench invoked
+
+rem Builds the JMH benchmarks in bench\ and runs them with the gc profiler for allocation rates.
+rem Extra arguments go to JMH, for example:  bench CellBench -p sKind=int,str   or   bench AreaBench.writeArea -p nRows=10000
+
+call mvn -q -f bench\pom.xml package
+if errorlevel 1 goto :EOF
+
+set javaexe=%java_home%\bin\java.exe
+
+%javaexe% -jar bench\target\benchmarks.jar -prof gc -rf json -rff run\out\bench.json %*
@@ -0,0 +1,124 @@
+// AreaBench - JMH benchmarks of writing and closing a large Area
+
+// Copyright (c) 2019 Rexcel Systems Inc, All Rights Reserved.
+
+/*
+ @license
+ Copyright (c) 2019 by Steve Pritchard of Rexcel Systems Inc.
+ This file is made available under the terms of the Creative Commons Attribution-ShareAlike 3.0 license
+ http://creativecommons.org/licenses/by-sa/3.0/.
+ Contact: public.pritchard@gmail.com
+*/
+
+package com.psec.excel;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+  <code>writeArea</code> and <code>close</code> of a sales report of 10k to 1M rows with each create method.
+  <p>
+  Each invocation starts from a new Workbook built in an untimed setup, so these are single shot timings.
+  The 1M row runs need the heap given in the Fork annotation, the default engine needs the most.
+  <p>
+  The gc profiler's <code>alloc.rate.norm</code> of a single shot includes the setup, so the bytes allocated by the
+  timed call alone are reported as the <code>allocBytes</code> counter.
+*/
+
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g"})
+@State(Scope.Thread)
+public class AreaBench {
+  @Param({"10000","100000","1000000"})
+  public int nRows;
+
+  @Param({"create","direct","streaming"})
+  public String sEngine;
+
+  WriteExcel createWorkbook() throws Exception {
+    switch (sEngine) {
+      case "create":    return WriteExcel.create(new WriteExcel());
+      case "direct":    return WriteExcel.createDirect(new WriteExcel());
+      case "streaming": return WriteExcel.createStreaming(new WriteExcel(),1000);
+      default:          throw new IllegalArgumentException("Unknown engine "+sEngine);
+    }
+  }
+
+  /** Bytes allocated by the thread during the timed call. */
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  @State(Scope.Thread)
+  public static class Alloc {
+    public long allocBytes;
+
+    static final com.sun.management.ThreadMXBean oTMX = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+    static long allocated() {
+      return oTMX.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+  }
+
+  /** State of the writeArea benchmark, the rows are buffered in the Area. */
+  @State(Scope.Thread)
+  public static class Buffered {
+    WriteExcel      oWE;
+    WriteExcel.Area oA;
+
+    @Setup(Level.Invocation)
+    public void setup(AreaBench oB) throws Exception {
+      oWE = oB.createWorkbook();
+      oA = BenchData.salesArea(oWE,"sample-sales",oB.nRows);
+    }
+
+    // streaming Workbooks hold temporary files until closed
+    @TearDown(Level.Invocation)
+    public void tearDown() throws Exception {
+      oWE.close(new BenchData.Sink());
+    }
+  }
+
+  /** State of the close benchmark, the Area is already written. */
+  @State(Scope.Thread)
+  public static class Written {
+    WriteExcel oWE;
+
+    @Setup(Level.Invocation)
+    public void setup(AreaBench oB) throws Exception {
+      oWE = oB.createWorkbook();
+      BenchData.salesArea(oWE,"sample-sales",oB.nRows).writeArea().colWidth(-1,3);
+    }
+  }
+
+  @Benchmark
+  public WriteExcel.Area writeArea(Buffered oS,Alloc oAl) throws Exception {
+    long nStart = Alloc.allocated();
+    WriteExcel.Area oA = oS.oA.writeArea();
+    oAl.allocBytes += Alloc.allocated() - nStart;
+    return oA;
+  }
+
+  @Benchmark
+  public long close(Written oW,Alloc oAl) throws Exception {
+    long nStart = Alloc.allocated();
+    BenchData.Sink oSink = new BenchData.Sink();
+    oW.oWE.close(oSink);
+    oAl.allocBytes += Alloc.allocated() - nStart;
+    return oSink.nBytes;
+  }
+}
@@ -0,0 +1,104 @@
+// BenchData - Synthetic report data for the benchmarks
+
+// Copyright (c) 2019 Rexcel Systems Inc, All Rights Reserved.
+
+/*
+ @license
+ Copyright (c) 2019 by Steve Pritchard of Rexcel Systems Inc.
+ This file is made available under the terms of the Creative Commons Attribution-ShareAlike 3.0 license
+ http://creativecommons.org/licenses/by-sa/3.0/.
+ Contact: public.pritchard@gmail.com
+*/
+
+package com.psec.excel;
+import java.io.OutputStream;
+
+/**
+  Rows shaped like those of <code>DemoExcel.writeSalesSheet</code> and <code>writeFormatsSheet</code>.
+  <p>
+  A pool of rows is built once and its arrays are added over and over, so the garbage measured by the gc profiler is
+  that of WriteExcel and not of making the data.
+*/
+
+class BenchData {
+  static final String[] sMonths = "January/February/March/April/May/June/July/August/September/October/November/December".split("/");
+  static final int POOL = 1200;
+
+  /** Cell texts by kind, as in the formats sheet. */
+  static String cellText(String sKind) {
+    switch (sKind) {
+      case "int":     return "456";
+      case "num":     return "-3.01";
+      case "nm4":     return "12.1234";
+      case "str":     return "negative nums";
+      case "blank":   return "";
+      case "anon":    return "{:BG(0,248,0)}11.1";
+      case "named":   return "{#TOT}10.10";
+      case "special": return "@@-45.10";
+      case "merged":  return "{2.hdrSect} No Formatting";
+      default:        throw new IllegalArgumentException("Unknown cell kind "+sKind);
+    }
+  }
+
+  /** Style strings as given to addStyleDefn. */
+  static String styleText(String sKind) {
+    switch (sKind) {
+      case "bg":      return "BG(lavender)";
+      case "hdr":     return "bC BG(lavender)";
+      case "title":   return "b16C";
+      case "rgb":     return "BG(0,192,0)";
+      case "font":    return "biFG(red)FF(Arial)R";
+      default:        throw new IllegalArgumentException("Unknown style kind "+sKind);
+    }
+  }
+
+  private static String[][] sSales;
+  private static boolean[]  bQtr;
+
+  private static synchronized void makeSales() {
+    if (sSales != null) return;
+    sSales = new String[POOL][];
+    bQtr = new boolean[POOL];
+    int nQtrSales = 0;
+    double dQtrRev = 0.0;
+    for(int i=0; i<POOL; i++) {
+      if (i % 4 == 3) {
+        sSales[i] = String.format("{:Rb}Q%d/%d/%.2f/%.2f",(i / 4) % 4 + 1,nQtrSales,dQtrRev / Math.max(1,nQtrSales),dQtrRev).split("/");
+        bQtr[i] = true;
+        nQtrSales = 0;
+        dQtrRev = 0.0;
+      } else {
+        int nSales = 10 + (i * 37) % 90 - ((i % 17 == 0)?120:0);
+        double dPrice = 9.0 + (i % 150) / 10.0 + 0.01 * (i % 13);
+        sSales[i] = String.format("{:R}%s/%d/%.2f/%.2f",sMonths[i % 12],nSales,dPrice,dPrice * nSales).split("/");
+        nQtrSales += nSales;
+        dQtrRev += dPrice * nSales;
+      }
+    }
+  }
+
+  /** Creates a sales Area on sSheet with nRows rows buffered, ready for writeArea. */
+  static WriteExcel.Area salesArea(WriteExcel oWE,String sSheet,int nRows) throws Exception {
+    makeSales();
+    WriteExcel.Area oA = oWE.createArea(sSheet,1,1)
+      .header("Index/{3.#title}Sample Sales Report")
+      .header("")
+      .header("Month/Unit Sales/Avg. Price/Revenue","#hdrBlue");
+    for(int i=0; i<nRows; i++) {
+      int ix = i % POOL;
+      if (bQtr[ix]) {
+        oA.addRow(sSales[ix],"#qtr");
+      } else {
+        oA.addRow(sSales[ix],(ix % 12) + 1);
+      }
+    }
+    return oA;
+  }
+
+  /** Swallows the Workbook written by close. */
+  static class Sink extends OutputStream {
+    long nBytes;
+    @Override public void write(int b) {nBytes++;}
+    @Override public void write(byte[] b,int off,int len) {nBytes += len;}
+  }
+}
@@ -0,0 +1,140 @@
+// CellBench - JMH benchmarks of writing one cell
+
+// Copyright (c) 2019 Rexcel Systems Inc, All Rights Reserved.
+
+/*
+ @license
+ Copyright (c) 2019 by Steve Pritchard of Rexcel Systems Inc.
+ This file is made available under the terms of the Creative Commons Attribution-ShareAlike 3.0 license
+ http://creativecommons.org/licenses/by-sa/3.0/.
+ Contact: public.pritchard@gmail.com
+*/
+
+package com.psec.excel;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+  The per cell steps of an Area: <code>setCellContent</code> and <code>classifyCell</code> by kind of value,
+  <code>chooseStyle</code> with and without a row format and <code>parseStyleAttrs</code>.
+*/
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CellBench {
+
+  /** A Workbook with the Row the cells are written to, a new one every 256 cells. */
+  @State(Scope.Thread)
+  public static class Cells {
+    @Param({"int","num","nm4","str","blank","anon","named","special","merged"})
+    public String sKind;
+
+    WriteExcel oWE;
+    Sheet      oSheet;
+    Row        oRow;
+    String     sData;
+    int        nCol;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+      oWE = WriteExcel.create(new WriteExcel());
+      oWE.addStyleDefn("hdrSect","bC BG(lavender)");
+      oWE.createArea("bench");
+      oSheet = oWE.oWB.createSheet("bench");
+      oRow = oSheet.createRow(0);
+      sData = BenchData.cellText(sKind);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+      oWE.close(new BenchData.Sink());
+    }
+  }
+
+  /** A classified cell and the row format it is styled with. */
+  @State(Scope.Thread)
+  public static class Styles {
+    @Param({"int","str","anon","named"})
+    public String sKind;
+
+    @Param({"none","#qtr","#odd"})
+    public String sRowFmt;
+
+    WriteExcel oWE;
+    Object     oSF;
+    String     sFmt;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+      oWE = WriteExcel.create(new WriteExcel());
+      oWE.createArea("bench");
+      oSF = oWE.benchClassify(BenchData.cellText(sKind));
+      sFmt = sRowFmt.equals("none")?null:sRowFmt;
+    }
+  }
+
+  /** A style string of the kinds found in reports. */
+  @State(Scope.Thread)
+  public static class StyleStrs {
+    @Param({"bg","hdr","title","rgb","font"})
+    public String sKind;
+
+    WriteExcel oWE;
+    String     sStyStr;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+      oWE = WriteExcel.create(new WriteExcel());
+      oWE.createArea("bench");
+      sStyStr = BenchData.styleText(sKind);
+    }
+  }
+
+  @Benchmark
+  public Row setCellContent(Cells oS) throws Exception {
+    Row oRow = oS.oRow;
+    oS.oWE.benchSetCell(oRow,oS.nCol,oS.sData,null);
+    oS.nCol = (oS.nCol + 1) & 255;
+    if (oS.nCol == 0) {   // the filled row is dropped so the Sheet stays small
+      int nRow = (oRow.getRowNum() + 1) & 0xFFFFF;
+      oS.oSheet.removeRow(oRow);
+      oS.oRow = oS.oSheet.createRow(nRow);
+    }
+    return oRow;
+  }
+
+  @Benchmark
+  public void classifyCell(Cells oS,Blackhole oBH) throws Exception {
+    oBH.consume(oS.oWE.benchClassify(oS.sData));
+  }
+
+  @Benchmark
+  public CellStyle chooseStyle(Styles oS) throws Exception {
+    return oS.oWE.benchChooseStyle(oS.oSF,oS.sFmt);
+  }
+
+  @Benchmark
+  public Object parseStyleAttrs(StyleStrs oS) throws Exception {
+    return oS.oWE.benchParseStyle(oS.sStyStr);
+  }
+}
@@ -0,0 +1,72 @@
+// CloneBench - JMH benchmarks of addExternalSheet
+
+// Copyright (c) 2019 Rexcel Systems Inc, All Rights Reserved.
+
+/*
+ @license
+ Copyright (c) 2019 by Steve Pritchard of Rexcel Systems Inc.
+ This file is made available under the terms of the Creative Commons Attribution-ShareAlike 3.0 license
+ http://creativecommons.org/licenses/by-sa/3.0/.
+ Contact: public.pritchard@gmail.com
+*/
+
+package com.psec.excel;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+  <code>addExternalSheet</code> cloning a sales Sheet of another Workbook, read back from the bytes WriteExcel wrote
+  so its styles are those of a real file.
+*/
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+@State(Scope.Thread)
+public class CloneBench {
+  @Param({"1000","10000","100000"})
+  public int nRows;
+
+  XSSFWorkbook oSrcWB;
+  Sheet        oSrc;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    WriteExcel oWE = WriteExcel.create(new WriteExcel());
+    BenchData.salesArea(oWE,"sample-sales",nRows).writeArea().colWidth(-1,3).addDataFilterLine();
+    ByteBuffer oBB = oWE.toByteBuffer();
+    oSrcWB = new XSSFWorkbook(new ByteArrayInputStream(oBB.array(),0,oBB.limit()));
+    oSrc = oSrcWB.getSheet("sample-sales");
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    oSrcWB.close();
+  }
+
+  @Benchmark
+  public WriteExcel addExternalSheet() throws Exception {
+    WriteExcel oWE = WriteExcel.create(new WriteExcel());
+    oWE.addExternalSheet("cloned",oSrc,null);
+    return oWE;
+  }
+}
@@ -0,0 +1,92 @@
+// Fixtures - Workbooks read by the read path benchmarks
+
+// Copyright (c) 2019 Rexcel Systems Inc, All Rights Reserved.
+
+/*
+ @license
+ Copyright (c) 2019 by Steve Pritchard of Rexcel Systems Inc.
+ This file is made available under the terms of the Creative Commons Attribution-ShareAlike 3.0 license
+ http://creativecommons.org/licenses/by-sa/3.0/.
+ Contact: public.pritchard@gmail.com
+*/
+
+package com.psec.excel;
+import java.io.File;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+
+/**
+  Writes the fixture Workbooks with WriteExcel, run by the build for each size in <code>bench.fixture.rows</code>.
+  <p>
+  <code>read-&lt;rows&gt;.xlsx</code> has a <i>sales</i> Sheet with a header row and then rows of three regions of
+  month, units, price and revenue, so readers can map one to three ColMap sets, and a small <i>cells</i> Sheet of
+  string, number and formula cells.  The benchmarks find the files in the <code>bench.fixtures</code> directory,
+  bench/target/fixtures by default, and write a missing one before they start.
+*/
+
+public class Fixtures {
+  static final String SALES = "sales";
+  static final String CELLS = "cells";
+  static final int    CELL_ROWS = 1000;
+
+  public static void main(String[] args) throws Exception {
+    File oDir = new File(args[0]);
+    for(String sRows:args[1].split(",")) {
+      int nRows = Integer.parseInt(sRows.trim());
+      File oF = file(oDir,nRows);
+      if (oF.isFile()) continue;
+      long nStart = System.nanoTime();
+      write(oF,nRows);
+      System.out.println(String.format("Fixture %s %d rows %d bytes in %d ms",oF,nRows,oF.length(),(System.nanoTime() - nStart) / 1000000));
+    }
+  }
+
+  /** The fixture of nRows, written first when it does not exist. */
+  static synchronized String path(int nRows) throws Exception {
+    String sDir = System.getProperty("bench.fixtures");
+    if (sDir == null) sDir = new File("bench").isDirectory()?"bench/target/fixtures":"target/fixtures";
+    File oF = file(new File(sDir),nRows);
+    if (!oF.isFile()) write(oF,nRows);
+    return oF.getPath();
+  }
+
+  private static File file(File oDir,int nRows) {
+    return new File(oDir,"read-"+nRows+".xlsx");
+  }
+
+  private static void write(File oF,int nRows) throws Exception {
+    oF.getParentFile().mkdirs();
+    File oTmp = new File(oF.getPath()+".tmp");
+    WriteExcel oWE = WriteExcel.createDirect(new WriteExcel(),oTmp.getPath());
+    WriteExcel.Area oA = oWE.createArea(SALES,0,0)
+      .header("Month/Units/Price/Revenue/Month/Units/Price/Revenue/Month/Units/Price/Revenue");
+    String[][] sPool = new String[BenchData.POOL][];
+    for(int i=0; i<BenchData.POOL; i++) {
+      String[] sRow = sPool[i] = new String[12];
+      for(int r=0; r<3; r++) {
+        int nUnits = 10 + (i * 37 + r * 11) % 90 - ((i % 17 == r)?120:0);
+        double dPrice = 9.0 + ((i + r * 7) % 150) / 10.0 + 0.01 * (i % 13);
+        sRow[r*4]   = BenchData.sMonths[(i + r) % 12];
+        sRow[r*4+1] = ""+nUnits;
+        sRow[r*4+2] = String.format("%.2f",dPrice);
+        sRow[r*4+3] = String.format("%.2f",dPrice * nUnits);
+      }
+    }
+    for(int i=0; i<nRows; i++) oA.addRow(sPool[i % BenchData.POOL],(i % 12) + 1);
+    oA.writeArea();
+
+    // formulas are not written by Areas
+    Sheet oS = oWE.oWB.createSheet(CELLS);
+    for(int i=0; i<CELL_ROWS; i++) {
+      Row oRow = oS.createRow(i);
+      oRow.createCell(0).setCellValue("Item "+i);
+      oRow.createCell(1).setCellValue(i % 90 + 10);
+      oRow.createCell(2).setCellValue(9.0 + (i % 150) / 10.0);
+      oRow.createCell(3).setCellFormula("B"+(i+1)+"*C"+(i+1));
+    }
+    oWE.close();
+    if (oF.exists()) oF.delete();
+    if (!oTmp.renameTo(oF)) throw new Exception("Cannot rename "+oTmp+" to "+oF);
+  }
+}
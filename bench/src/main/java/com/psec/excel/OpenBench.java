@@ -0,0 +1,57 @@
+// OpenBench - JMH benchmark of ReadExcelFile.openFile
+
+// Copyright (c) 2019 Rexcel Systems Inc, All Rights Reserved.
+
+/*
+ @license
+ Copyright (c) 2019 by Steve Pritchard of Rexcel Systems Inc.
+ This file is made available under the terms of the Creative Commons Attribution-ShareAlike 3.0 license
+ http://creativecommons.org/licenses/by-sa/3.0/.
+ Contact: public.pritchard@gmail.com
+*/
+
+package com.psec.excel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+  <code>openFile</code> and <code>closeFile</code> of the fixtures, from 1k to 1M rows.
+*/
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g"})
+@State(Scope.Thread)
+public class OpenBench {
+  @Param({"1000","10000","100000","1000000"})
+  public int nRows;
+
+  String sFile;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    sFile = Fixtures.path(nRows);
+  }
+
+  @Benchmark
+  public ReadExcelFile openFile() throws Exception {
+    ReadExcelFile oREF = new ReadExcelFile();
+    oREF.openFile(sFile);
+    oREF.closeFile();
+    return oREF;
+  }
+}
@@ -0,0 +1,73 @@
+// ReadBench - JMH benchmarks of reading a whole Sheet
+
+// Copyright (c) 2019 Rexcel Systems Inc, All Rights Reserved.
+
+/*
+ @license
+ Copyright (c) 2019 by Steve Pritchard of Rexcel Systems Inc.
+ This file is made available under the terms of the Creative Commons Attribution-ShareAlike 3.0 license
+ http://creativecommons.org/licenses/by-sa/3.0/.
+ Contact: public.pritchard@gmail.com
+*/
+
+package com.psec.excel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+  <code>readExcelSmart</code> with one to three ColMap sets per row and <code>readSheetAsStrMatrix</code> of the
+  <i>sales</i> Sheet of an open fixture.
+*/
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g"})
+@State(Scope.Thread)
+public class ReadBench {
+  @Param({"1000","10000","100000","1000000"})
+  public int nRows;
+
+  @Param({"1","2","3"})
+  public int nSets;
+
+  ReadExcelFile oREF;
+  Class<?>      oRecCls;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    oREF = new ReadExcelFile();
+    oREF.openFile(Fixtures.path(nRows));
+    oRecCls = ReadRecords.sales(nSets);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    oREF.closeFile();
+  }
+
+  @Benchmark
+  public ReadExcelRecord[] readExcelSmart() throws Exception {
+    return oREF.readExcelSmart(Fixtures.SALES,oRecCls,1,true);
+  }
+
+  /** Reads 4 columns per ColMap set. */
+  @Benchmark
+  public String[][] readSheetAsStrMatrix() throws Exception {
+    return oREF.readSheetAsStrMatrix(Fixtures.SALES,1,nRows+1,nSets*4-1);
+  }
+}
@@ -0,0 +1,70 @@
+// ReadRecords - ReadExcelRecord classes used by the read path benchmarks
+
+// Copyright (c) 2019 Rexcel Systems Inc, All Rights Reserved.
+
+/*
+ @license
+ Copyright (c) 2019 by Steve Pritchard of Rexcel Systems Inc.
+ This file is made available under the terms of the Creative Commons Attribution-ShareAlike 3.0 license
+ http://creativecommons.org/licenses/by-sa/3.0/.
+ Contact: public.pritchard@gmail.com
+*/
+
+package com.psec.excel;
+
+/**
+  Records mapping one, two or three regions of the fixture <i>sales</i> Sheet, and one with a field of each type
+  for <code>processRow</code>.  Reflection requires them to be public.
+*/
+
+public class ReadRecords {
+
+  public static class Sales1 extends ReadExcelRecord {
+    public String[] getColMap() {
+      return new String[]{"0=sMonth;1=nUnits;2=dPrice;3=dRevenue"};
+    }
+    public String sMonth;
+    public long   nUnits;
+    public double dPrice;
+    public double dRevenue;
+
+    @Override
+    public boolean canAccept() throws Exception {
+      return dRevenue > 0;
+    }
+  }
+
+  public static class Sales2 extends Sales1 {
+    public String[] getColMap() {
+      return new String[]{"0=sMonth;1=nUnits;2=dPrice;3=dRevenue","4=sMonth;5=nUnits;6=dPrice;7=dRevenue"};
+    }
+  }
+
+  public static class Sales3 extends Sales1 {
+    public String[] getColMap() {
+      return new String[]{"0=sMonth;1=nUnits;2=dPrice;3=dRevenue","4=sMonth;5=nUnits;6=dPrice;7=dRevenue","8=sMonth;9=nUnits;10=dPrice;11=dRevenue"};
+    }
+  }
+
+  /** Column 0 of the cells Sheet is a string, 1 a number. */
+  public static class Fields extends ReadExcelRecord {
+    public String[] getColMap() {
+      return new String[]{"0=sStr"};
+    }
+    public String sStr;
+    public double dNum;
+    public long   nLng;
+    public int    nInt;
+    public Object oObj;
+    public String sMismatch;  // a number set into a String fails and is ignored
+  }
+
+  static Class<?> sales(int nSets) {
+    switch (nSets) {
+      case 1:  return Sales1.class;
+      case 2:  return Sales2.class;
+      case 3:  return Sales3.class;
+      default: throw new IllegalArgumentException("No record with "+nSets+" ColMap sets");
+    }
+  }
+}
@@ -0,0 +1,125 @@
+// RowBench - JMH benchmarks of reading one row or cell
+
+// Copyright (c) 2019 Rexcel Systems Inc, All Rights Reserved.
+
+/*
+ @license
+ Copyright (c) 2019 by Steve Pritchard of Rexcel Systems Inc.
+ This file is made available under the terms of the Creative Commons Attribution-ShareAlike 3.0 license
+ http://creativecommons.org/licenses/by-sa/3.0/.
+ Contact: public.pritchard@gmail.com
+*/
+
+package com.psec.excel;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+  <code>processRow</code> filling one field of each type by reflection and <code>readCell</code> of STRING,
+  NUMERIC and FORMULA cells, on the <i>cells</i> Sheet of the smallest fixture.  A FORMULA cell is evaluated and
+  formatted with a new DataFormatter each time.
+*/
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowBench {
+
+  /** The open fixture and its cells Sheet. */
+  @State(Scope.Thread)
+  public static class Cells {
+    ReadExcelFile oREF;
+    Row[]         oRows;
+    int           nAt;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+      oREF = new ReadExcelFile();
+      oREF.openFile(Fixtures.path(1000));
+      Sheet oS = oREF.getSheet(Fixtures.CELLS);
+      oRows = new Row[Fixtures.CELL_ROWS];
+      for(int i=0; i<oRows.length; i++) oRows[i] = oS.getRow(i);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+      oREF.closeFile();
+    }
+
+    Row next() {
+      Row oRow = oRows[nAt];
+      if (++nAt == oRows.length) nAt = 0;
+      return oRow;
+    }
+  }
+
+  /** A ColMap of one field of ReadRecords.Fields and the column it reads. */
+  @State(Scope.Thread)
+  public static class Fields {
+    @Param({"String","double","long","int","Object","mismatch"})
+    public String sType;
+
+    ReadExcelFile.ColMap[]     oCMs;
+    ArrayList<ReadExcelRecord> oLst = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+      String sFld;
+      switch (sType) {
+        case "String":   sFld = "sStr";      break;
+        case "double":   sFld = "dNum";      break;
+        case "long":     sFld = "nLng";      break;
+        case "int":      sFld = "nInt";      break;
+        case "Object":   sFld = "oObj";      break;
+        case "mismatch": sFld = "sMismatch"; break;
+        default:         throw new IllegalArgumentException("Unknown field type "+sType);
+      }
+      int nCol = sType.equals("String")?0:1;
+      oCMs = new ReadExcelFile.ColMap[]{new ReadExcelFile.ColMap(nCol,sFld,ReadRecords.Fields.class.getField(sFld))};
+    }
+  }
+
+  /** The column of a cell type. */
+  @State(Scope.Thread)
+  public static class Types {
+    @Param({"STRING","NUMERIC","FORMULA"})
+    public String sType;
+
+    int nCol;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      nCol = sType.equals("STRING")?0:sType.equals("NUMERIC")?1:3;
+    }
+  }
+
+  @Benchmark
+  public int processRow(Cells oC,Fields oF) throws Exception {
+    oF.oLst.clear();
+    oC.oREF.processRow(oF.oLst,1,oC.next(),oF.oCMs,ReadRecords.Fields.class);
+    return oF.oLst.size();
+  }
+
+  @Benchmark
+  public Object readCell(Cells oC,Types oT) throws Exception {
+    return oC.oREF.readCell(oC.next(),oT.nCol,false);
+  }
+}
@@ -0,0 +1,203 @@
+// ColumnStore - Column by column storage of the buffered rows of a columnar Area
+
+// Copyright (c) 2019 Rexcel Systems Inc, All Rights Reserved.
+
+/*
+ @license
+ Copyright (c) 2019 by Steve Pritchard of Rexcel Systems Inc.
+ This file is made available under the terms of the Creative Commons Attribution-ShareAlike 3.0 license
+ http://creativecommons.org/licenses/by-sa/3.0/.
+ Contact: public.pritchard@gmail.com
+*/
+
+package com.psec.excel;
+import java.util.Arrays;
+
+/**
+  Holds the rows of a {@link WriteExcel.Area#columnar columnar} Area as <code>long</code> codes column by column instead of a
+  <code>String[]</code> per row.  A column is a list of chunks of 4096 rows so it grows without copying the rows already held.
+  <p>
+  Each value is a code.  Plain decimal numbers such as <code>-12</code> or <code>3.50</code> are held in the code as the
+  digits and the count of decimals, so the same text is made again when the cell is written and it is classified as before.
+  Every other string, including those with a format specifier prefix, is held once in a dictionary and the code is its id,
+  so a column repeating a few values costs 8 bytes a row.  Id 0 is <code>null</code>.
+  <p>
+  The number of columns of each row is kept so rows shorter than others write and size as they do when held as arrays.
+*/
+
+class ColumnStore {
+  private static final int NUM_TAG = 0x1F;       // low bits of a code, 0 for a dictionary id else decimals + 1
+  private static final int CHUNK_BITS = 12;
+  private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+  private long[][][] nCols  = new long[0][][];   // by column and chunk, a code per row
+  private int[]      nLens  = new int[64];       // columns of each row
+  private int        nRows;
+
+  private String[]   sDict  = new String[64];    // by id
+  private int[]      nData  = new int[64];       // length of the data after any prefix, by id
+  private int        nDict  = 1;
+  private int[]      nSlots = new int[128];      // id by hash slot, 0 when free
+  private long       nDictBytes;                 // heap taken by the dictionary strings
+
+  int size() {
+    return nRows;
+  }
+
+  /** The number of columns of nRow. */
+  int getLength(int nRow) {
+    return nLens[nRow];
+  }
+
+  /** Estimated heap taken by the rows. */
+  long getBytes() {
+    return (long)nCols.length*nRows*8 + (long)nRows*4 + nDictBytes;
+  }
+
+  /** The code of nCol in nRow, which must have more than nCol columns. */
+  long getCode(int nRow,int nCol) {
+    return nCols[nCol][nRow >>> CHUNK_BITS][nRow & CHUNK_MASK];
+  }
+
+  /** Adds a copy of sRow. */
+  void add(String[] sRow) {
+    if (nRows == nLens.length) nLens = Arrays.copyOf(nLens,nRows*2);
+    if (sRow.length > nCols.length) {
+      int nOld = nCols.length;
+      nCols = Arrays.copyOf(nCols,sRow.length);
+      for(int i=nOld; i<sRow.length; i++) nCols[i] = new long[4][];
+    }
+    int nChunk = nRows >>> CHUNK_BITS;
+    for(int i=0; i<sRow.length; i++) {
+      long[][] nChunks = nCols[i];
+      if (nChunk >= nChunks.length) nChunks = nCols[i] = Arrays.copyOf(nChunks,nChunk*2);
+      if (nChunks[nChunk] == null) nChunks[nChunk] = new long[CHUNK_MASK+1];
+      nChunks[nChunk][nRows & CHUNK_MASK] = encode(sRow[i]);
+    }
+    nLens[nRows] = sRow.length;
+    nRows++;
+  }
+
+  String get(int nRow,int nCol) {
+    return decode(getCode(nRow,nCol));
+  }
+
+  void set(int nRow,int nCol,String sText) {
+    nCols[nCol][nRow >>> CHUNK_BITS][nRow & CHUNK_MASK] = encode(sText);
+  }
+
+  /** A new array holding the values of nRow. */
+  String[] getRow(int nRow) {
+    String[] sRow = new String[nLens[nRow]];
+    for(int i=0; i<sRow.length; i++) sRow[i] = get(nRow,i);
+    return sRow;
+  }
+
+  /** Drops the rows and the dictionary, the chunks are kept for the next rows. */
+  void clear() {
+    nRows = 0;
+    Arrays.fill(sDict,null);
+    nDict = 1;
+    nDictBytes = 0;
+    Arrays.fill(nSlots,0);
+  }
+
+  /** Length of the text of nCode, 0 for null. */
+  int getTextLength(long nCode) {
+    if ((nCode & NUM_TAG) == 0) {
+      String s = sDict[(int)(nCode >>> 5)];
+      return (s == null)?0:s.length();
+    }
+    int nDecs = (int)(nCode & NUM_TAG) - 1;
+    long m = nCode >> 5;
+    int nDigits = 1;
+    for(long n=Math.abs(m); n >= 10; n /= 10) nDigits++;
+    return Math.max(nDigits,nDecs+1) + ((nDecs > 0)?1:0) + ((m < 0)?1:0);
+  }
+
+  /** Length of the text of nCode after a {...} prefix, as used for the column width. */
+  int getDataLength(long nCode) {
+    if ((nCode & NUM_TAG) == 0) return nData[(int)(nCode >>> 5)];
+    return getTextLength(nCode);
+  }
+
+  private long encode(String s) {
+    if (s == null) return 0;
+    long nCode = toNumber(s);
+    if (nCode != 0) return nCode;
+    return (long)intern(s) << 5;
+  }
+
+  private String decode(long nCode) {
+    if ((nCode & NUM_TAG) == 0) return sDict[(int)(nCode >>> 5)];
+    int nDecs = (int)(nCode & NUM_TAG) - 1;
+    long m = nCode >> 5;
+    if (nDecs == 0) return Long.toString(m);
+    String sDigits = Long.toString(Math.abs(m));
+    StringBuilder oSB = new StringBuilder(sDigits.length()+nDecs+2);
+    if (m < 0) oSB.append('-');
+    for(int i=sDigits.length(); i<=nDecs; i++) oSB.append('0');
+    oSB.append(sDigits);
+    oSB.insert(oSB.length()-nDecs,'.');
+    return oSB.toString();
+  }
+
+  // the code of a decimal number that is made again with the same text, 0 for any other string
+  private static long toNumber(String s) {
+    int nLen = s.length();
+    if ((nLen == 0) || (nLen > 19)) return 0;
+    int nStart = (s.charAt(0) == '-')?1:0;
+    long m = 0;
+    int nDigits = 0;
+    int nDecs = -1;
+    for(int i=nStart; i<nLen; i++) {
+      char c = s.charAt(i);
+      if ((c >= '0') && (c <= '9')) {
+        m = m*10 + (c - '0');
+        nDigits++;
+        if (nDecs >= 0) nDecs++;
+      } else if ((c == '.') && (nDecs < 0) && (i > nStart) && (i < nLen-1)) {
+        nDecs = 0;
+      } else {
+        return 0;
+      }
+    }
+    if ((nDigits == 0) || (nDigits > 17)) return 0;
+    if (nDecs < 0) nDecs = 0;
+    if ((nDigits - nDecs > 1) && (s.charAt(nStart) == '0')) return 0;   // leading zeros are not kept
+    if ((nStart == 1) && (m == 0)) return 0;                             // nor the sign of -0
+    if (nStart == 1) m = -m;
+    return (m << 5) | (nDecs + 1);
+  }
+
+  private int intern(String s) {
+    int nHash = s.hashCode();
+    int nMask = nSlots.length - 1;
+    int ix = (nHash ^ (nHash >>> 16)) & nMask;
+    for(int nId; (nId = nSlots[ix]) != 0; ix = (ix + 1) & nMask) {
+      if (sDict[nId].equals(s)) return nId;
+    }
+    if (nDict == sDict.length) {
+      sDict = Arrays.copyOf(sDict,nDict*2);
+      nData = Arrays.copyOf(nData,nDict*2);
+    }
+    int nId = nDict++;
+    sDict[nId] = s;
+    nData[nId] = s.startsWith("{")?s.length()-s.lastIndexOf('}')-1:s.length();
+    nDictBytes += 60 + 2*s.length();
+    nSlots[ix] = nId;
+    if (nDict*4 > nSlots.length*3) rehash();
+    return nId;
+  }
+
+  private void rehash() {
+    nSlots = new int[nSlots.length*2];
+    int nMask = nSlots.length - 1;
+    for(int nId=1; nId<nDict; nId++) {
+      int nHash = sDict[nId].hashCode();
+      int ix = (nHash ^ (nHash >>> 16)) & nMask;
+      while(nSlots[ix] != 0) ix = (ix + 1) & nMask;
+      nSlots[ix] = nId;
+    }
+  }
+}
@@ -0,0 +1,564 @@
+// DirectEngine - Writes Area cells straight into the SpreadsheetML sheet parts
+
+// Copyright (c) 2019 Rexcel Systems Inc, All Rights Reserved.
+
+/*
+ @license
+ Copyright (c) 2019 by Steve Pritchard of Rexcel Systems Inc.
+ This file is made available under the terms of the Creative Commons Attribution-ShareAlike 3.0 license
+ http://creativecommons.org/licenses/by-sa/3.0/.
+ Contact: public.pritchard@gmail.com
+*/
+
+package com.psec.excel;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.RichTextString;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.model.SharedStringsTable;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+/**
+  Holds the Area cells of a {@link WriteExcel#createDirect createDirect} Workbook outside of POI.
+  <p>
+  Each row is kept as a few primitive arrays (column, type, number, string id, style index) rather than
+  a POI <code>Row</code> with one <code>Cell</code> object per value, and the rows are written
+  as <code>&lt;row&gt;</code> elements into the <code>&lt;sheetData&gt;</code> of the sheet parts when the
+  Workbook is closed. Everything else (styles, merges, comments, links, formulas, templates) is still written by POI.
+  <p>
+  A row that is needed by another WriteExcel method is handed back to POI with {@link WriteExcel#getRow getRow}
+  before it is used, so POI never holds the same row as the engine.
+*/
+
+class DirectEngine {
+  static final byte T_NUM   = 1;
+  static final byte T_STR   = 2;
+  static final byte T_BLANK = 3;
+  static final byte T_INLINE = 4;
+
+  /** Cells of one buffered row in ascending column order.
+  */
+  static class DRow {
+    DSheet   oDS;
+    int      nRow;
+    int      nCells;
+    int[]    nCols   = new int[8];
+    byte[]   nTypes  = new byte[8];
+    double[] dNums   = new double[8];
+    int[]    nStrs   = new int[8];     // number in the shared or inline StringStore
+    int[]    nStyles = new int[8];     // workbook CellStyle index, -1 for none
+
+    void putNumber(int nCol,double dVal,CellStyle oSty) {
+      int ix = slot(nCol);
+      nTypes[ix] = T_NUM;
+      dNums[ix] = dVal;
+      nStyles[ix] = (oSty == null)?-1:oSty.getIndex();
+    }
+
+    void putString(int nCol,String sVal,CellStyle oSty) {
+      int ix = slot(nCol);
+      if (sVal == null) {  // as POI setCellValue((String)null)
+        nTypes[ix] = T_BLANK;
+      } else if (oDS.isInline(nCol)) {
+        nTypes[ix] = T_INLINE;
+        nStrs[ix] = oDS.oDE.oInline.add(sVal);
+      } else {
+        nTypes[ix] = T_STR;
+        nStrs[ix] = oDS.share(nCol,sVal);
+      }
+      nStyles[ix] = (oSty == null)?-1:oSty.getIndex();
+    }
+
+    /** Same meaning as <code>Row.getLastCellNum</code>, the last column plus 1 or -1 when empty.
+    */
+    int getLastCellNum() {
+      return (nCells == 0)?-1:nCols[nCells-1]+1;
+    }
+
+    String getString(int ix) {
+      return (nTypes[ix] == T_INLINE)?oDS.oDE.oInline.get(nStrs[ix]):oDS.oDE.oShared.get(nStrs[ix]);
+    }
+
+    private int find(int nCol) {
+      return Arrays.binarySearch(nCols,0,nCells,nCol);
+    }
+
+    // a column written twice replaces the earlier cell, as Row.createCell does
+    private int slot(int nCol) {
+      if ((nCells == 0) || (nCol > nCols[nCells-1])) {
+        if (nCells == nCols.length) grow();
+        nCols[nCells] = nCol;
+        return nCells++;
+      }
+      int ix = find(nCol);
+      if (ix >= 0) return ix;
+      ix = -ix - 1;
+      if (nCells == nCols.length) grow();
+      int n = nCells - ix;
+      System.arraycopy(nCols,ix,nCols,ix+1,n);
+      System.arraycopy(nTypes,ix,nTypes,ix+1,n);
+      System.arraycopy(dNums,ix,dNums,ix+1,n);
+      System.arraycopy(nStrs,ix,nStrs,ix+1,n);
+      System.arraycopy(nStyles,ix,nStyles,ix+1,n);
+      nCols[ix] = nCol;
+      nCells++;
+      return ix;
+    }
+
+    private void grow() {
+      int n = nCols.length * 2;
+      nCols   = Arrays.copyOf(nCols,n);
+      nTypes  = Arrays.copyOf(nTypes,n);
+      dNums   = Arrays.copyOf(dNums,n);
+      nStrs   = Arrays.copyOf(nStrs,n);
+      nStyles = Arrays.copyOf(nStyles,n);
+    }
+  }
+
+  /** Buffered rows and strings of one Sheet.  Only the thread building the Sheet touches it.
+  */
+  static class DSheet {
+    DirectEngine oDE;
+    Sheet     oS;
+    DRow[]    oRows = new DRow[64];  // by row number
+    int       nRows;
+    int       nLastRow = -1;
+    int       nStrRefs;              // shared string cells, the sst count
+    // by column: shared string cells and how many of them were new strings, inline once too many are new
+    int[]     nColStrs = new int[16];
+    int[]     nColNew  = new int[16];
+    boolean[] bColInline = new boolean[16];
+
+    boolean isInline(int nCol) {
+      return (nCol < bColInline.length) && bColInline[nCol];
+    }
+
+    int share(int nCol,String sVal) {
+      nStrRefs++;
+      int nId = oDE.oShared.add(sVal);
+      if (nCol >= nColStrs.length) {
+        int n = Math.max(nCol+1,nColStrs.length*2);
+        nColStrs = Arrays.copyOf(nColStrs,n);
+        nColNew = Arrays.copyOf(nColNew,n);
+        bColInline = Arrays.copyOf(bColInline,n);
+      }
+      if (nColStrs[nCol] < oDE.nInlineSample) {
+        nColStrs[nCol]++;
+        if (nId < 0) nColNew[nCol]++;
+        if ((nColStrs[nCol] == oDE.nInlineSample) && (nColNew[nCol] > oDE.dInlineRatio*oDE.nInlineSample)) bColInline[nCol] = true;
+      }
+      return (nId < 0)?~nId:nId;
+    }
+
+    DRow getRow(int nRow,boolean bCreate) {
+      if (nRow < oRows.length) {
+        DRow oDR = oRows[nRow];
+        if ((oDR != null) || !bCreate) return oDR;
+      } else {
+        if (!bCreate) return null;
+        oRows = Arrays.copyOf(oRows,Math.max(nRow+1,oRows.length*2));
+      }
+      DRow oDR = new DRow();
+      oDR.oDS = this;
+      oDR.nRow = nRow;
+      oRows[nRow] = oDR;
+      nRows++;
+      if (nRow > nLastRow) nLastRow = nRow;
+      return oDR;
+    }
+
+    DRow takeRow(int nRow) {
+      if (nRow >= oRows.length) return null;
+      DRow oDR = oRows[nRow];
+      if (oDR != null) {
+        oRows[nRow] = null;
+        nRows--;
+        for(int i=0; i<oDR.nCells; i++) {
+          if (oDR.nTypes[i] == T_STR) nStrRefs--;
+        }
+        while((nLastRow >= 0) && (oRows[nLastRow] == null)) nLastRow--;
+      }
+      return oDR;
+    }
+  }
+
+  private ConcurrentHashMap<Sheet,DSheet> oSheets = new ConcurrentHashMap<Sheet,DSheet>();
+  StringStore oShared = new StringStore(true);
+  StringStore oInline = new StringStore(false);
+  double      dInlineRatio = 0.75;   // see WriteExcel.setInlineThreshold
+  int         nInlineSample = 1024;
+
+  /**
+    Gets the buffered row to write Area cells into, <code>null</code> when POI already holds the row
+    so the caller must use the POI <code>Row</code>.
+  */
+  DRow getAreaRow(Sheet oS,int nRow) {
+    if (oS.getRow(nRow) != null) return null;
+    DSheet oDS = oSheets.get(oS);
+    if (oDS == null) {
+      oDS = new DSheet();
+      oDS.oDE = this;
+      oDS.oS = oS;
+      oSheets.put(oS,oDS);
+    }
+    return oDS.getRow(nRow,true);
+  }
+
+  /** Removes and returns the buffered row, <code>null</code> if there is none. */
+  DRow takeRow(Sheet oS,int nRow) {
+    DSheet oDS = oSheets.get(oS);
+    if ((oDS == null) || (oDS.nRows == 0)) return null;
+    return oDS.takeRow(nRow);
+  }
+
+  /** The highest buffered row number of the Sheet or -1. */
+  int getLastRowNum(Sheet oS) {
+    DSheet oDS = oSheets.get(oS);
+    return (oDS == null)?-1:oDS.nLastRow;
+  }
+
+  /** The Sheets that have buffered rows. */
+  ArrayList<Sheet> getSheets() {
+    ArrayList<Sheet> oList = new ArrayList<Sheet>();
+    for(DSheet oDS:oSheets.values()) {
+      if (oDS.nRows > 0) oList.add(oDS.oS);
+    }
+    return oList;
+  }
+
+  // ---------------------- Output ------------------------
+
+  /**
+    Writes the Workbook into oPZ.  POI saves the package as usual and oPZ has the buffered rows merged into each
+    sheet's <code>&lt;sheetData&gt;</code> and their strings appended to the shared string table as it compresses those parts.
+  */
+  void write(XSSFWorkbook oWB,PartZipper oPZ) throws Exception {
+    final HashMap<String,DSheet> oParts = new HashMap<String,DSheet>();
+    for(DSheet oDS:oSheets.values()) {
+      if ((oDS.nRows == 0) || (oWB.getSheetIndex(oDS.oS) < 0)) continue;  // nothing left or sheet removed
+      oParts.put(zipName(((XSSFSheet)oDS.oS).getPackagePart().getPartName().getName()),oDS);
+    }
+    SharedStringsTable oSST = oWB.getSharedStringSource();
+    final String sSSTPart = zipName(oSST.getPackagePart().getPartName().getName());
+
+    // our strings follow POI's, those POI already has use its index instead
+    int nBase = oSST.getUniqueCount();
+    ArrayList<long[]> oDups = new ArrayList<long[]>();
+    for(int i=0; i<nBase; i++) {
+      RichTextString oRTS = oSST.getItemAt(i);
+      if (oRTS.numFormattingRuns() > 0) continue;
+      int nId = oShared.find(oRTS.getString());
+      if (nId >= 0) oDups.add(new long[]{nId,i});
+    }
+    oDups.sort((a,b) -> Long.compare(a[0],b[0]));
+    final SSTMap oMap = new SSTMap(nBase,oDups);
+    int nSheetRefs = 0;
+    for(DSheet oDS:oParts.values()) nSheetRefs += oDS.nStrRefs;
+    final int nRefs = nSheetRefs;
+    final boolean bSST = oShared.size() > oMap.nDupIds.length;
+
+    oPZ.setRewriter(new PartZipper.Rewriter() {
+      public boolean wants(String sName) {
+        return oParts.containsKey(sName) || (bSST && sName.equals(sSSTPart));
+      }
+      public void rewrite(String sName,byte[] oRaw,int nLen,OutputStream oOut) throws Exception {
+        String sXml = new String(oRaw,0,nLen,StandardCharsets.UTF_8);
+        DSheet oDS = oParts.get(sName);
+        if (oDS != null) {
+          writeSheet(oDS,oMap,sXml,oOut);
+        } else {
+          writeSST(sXml,oMap,nRefs,oOut);
+        }
+      }
+    });
+    oWB.write(oPZ);
+  }
+
+  /** Releases the strings once the Workbook has been written. */
+  void free() {
+    oShared.free();
+    oInline.free();
+  }
+
+  /** Maps shared string numbers to sst indexes, skipping those POI already has.
+  */
+  private static class SSTMap {
+    int   nBase;
+    int[] nDupIds;   // ascending
+    int[] nDupIxs;
+    SSTMap(int nBase,ArrayList<long[]> oDups) {
+      this.nBase = nBase;
+      int n = 0;
+      nDupIds = new int[oDups.size()];
+      nDupIxs = new int[oDups.size()];
+      for(long[] oDup:oDups) {
+        if ((n > 0) && (nDupIds[n-1] == oDup[0])) continue;  // the template had the string twice
+        nDupIds[n] = (int)oDup[0];
+        nDupIxs[n++] = (int)oDup[1];
+      }
+      nDupIds = Arrays.copyOf(nDupIds,n);
+      nDupIxs = Arrays.copyOf(nDupIxs,n);
+    }
+    int index(int nId) {
+      if (nDupIds.length == 0) return nBase + nId;
+      int ix = Arrays.binarySearch(nDupIds,nId);
+      if (ix >= 0) return nDupIxs[ix];
+      return nBase + nId + ix + 1;  // less the duplicates below nId
+    }
+    boolean isDup(int nId) {
+      return (nDupIds.length > 0) && (Arrays.binarySearch(nDupIds,nId) >= 0);
+    }
+  }
+
+  private static String zipName(String sPartName) {
+    return sPartName.startsWith("/")?sPartName.substring(1):sPartName;
+  }
+
+  private void writeSST(String sXml,SSTMap oMap,int nRefs,OutputStream oOut) throws Exception {
+    int nStart = sXml.indexOf("<sst");
+    int nEnd = (nStart < 0)?-1:sXml.indexOf('>',nStart);
+    if (nEnd < 0) throw new Exception("sharedStrings part has no sst element");
+    boolean bEmpty = sXml.charAt(nEnd-1) == '/';
+    String sTag = sXml.substring(nStart,bEmpty?nEnd-1:nEnd);
+    int nCount = attrInt(sTag,"count");
+    int nUnique = attrInt(sTag,"uniqueCount");
+    int nNew = oShared.size() - oMap.nDupIds.length;
+    sTag = setAttr(setAttr(sTag,"count",""+(nCount+nRefs)),"uniqueCount",""+(nUnique+nNew));
+    Writer oW = new OutputStreamWriter(oOut,StandardCharsets.UTF_8);
+    oW.write(sXml,0,nStart);
+    oW.write(sTag);
+    oW.write('>');
+    int nRest;
+    if (bEmpty) {
+      nRest = nEnd+1;
+    } else {
+      nRest = sXml.lastIndexOf("</");
+      oW.write(sXml,nEnd+1,nRest-nEnd-1);
+    }
+    for(int nId=0,nMax=oShared.size(); nId<nMax; nId++) {
+      if (oMap.isDup(nId)) continue;
+      oW.write("<si><t xml:space=\"preserve\">");
+      oShared.write(oW,nId);
+      oW.write("</t></si>");
+    }
+    if (bEmpty) {
+      String sPfx = sTag.substring(1,sTag.indexOf(' ') < 0?sTag.length():sTag.indexOf(' '));
+      oW.write("</"+sPfx+">");
+    }
+    oW.write(sXml,nRest,sXml.length()-nRest);
+    oW.flush();
+  }
+
+  private static int attrInt(String sTag,String sAttr) {
+    int ix = sTag.indexOf(" "+sAttr+"=\"");
+    if (ix < 0) return 0;
+    ix += sAttr.length()+3;
+    return Integer.parseInt(sTag.substring(ix,sTag.indexOf('"',ix)));
+  }
+
+  private static String setAttr(String sTag,String sAttr,String sVal) {
+    int ix = sTag.indexOf(" "+sAttr+"=\"");
+    if (ix < 0) return sTag+" "+sAttr+"=\""+sVal+"\"";
+    ix += sAttr.length()+3;
+    return sTag.substring(0,ix)+sVal+sTag.substring(sTag.indexOf('"',ix));
+  }
+
+  /*
+    POI's rows stay as they are, the buffered rows are slotted in between them by row number.
+  */
+  private void writeSheet(DSheet oDS,SSTMap oMap,String sXml,OutputStream oOut) throws Exception {
+    String sSheet = oDS.oS.getSheetName();
+    int nStart = sXml.indexOf("<sheetData");
+    int nOpenEnd = (nStart < 0)?-1:sXml.indexOf('>',nStart);
+    if (nOpenEnd < 0) throw new Exception("sheet "+sSheet+" part has no sheetData");
+    int nRowsAt,nRowsEnd,nAfter;
+    if (sXml.charAt(nOpenEnd-1) == '/') {
+      nRowsAt = nRowsEnd = nAfter = nOpenEnd+1;
+    } else {
+      nRowsAt = nOpenEnd+1;
+      nRowsEnd = sXml.indexOf("</sheetData>",nRowsAt);
+      nAfter = nRowsEnd + "</sheetData>".length();
+    }
+    Writer oW = new OutputStreamWriter(oOut,StandardCharsets.UTF_8);
+    oW.write(fixDimension(oDS,sXml.substring(0,nStart)));
+    oW.write("<sheetData>");
+    char[] oCB = new char[32];
+    int nPos = nRowsAt;
+    for(int nRow=0; nRow <= oDS.nLastRow; nRow++) {
+      DRow oDR = oDS.oRows[nRow];
+      if (oDR == null) continue;
+      // POI rows before this one
+      while(nPos < nRowsEnd) {
+        int nRowEnd = poiRowEnd(sXml,nPos);
+        int nPoiRow = poiRowNum(sXml,nPos);
+        if (nPoiRow > nRow+1) break;
+        if (nPoiRow == nRow+1) throw new Exception("row "+nRow+" of sheet "+sSheet+" is held by POI and the engine");
+        oW.write(sXml,nPos,nRowEnd-nPos);
+        nPos = nRowEnd;
+      }
+      writeRow(oW,oDR,oMap,oCB);
+    }
+    oW.write(sXml,nPos,nRowsEnd-nPos);
+    oW.write("</sheetData>");
+    oW.write(sXml,nAfter,sXml.length()-nAfter);
+    oW.flush();
+  }
+
+  private static int poiRowEnd(String sXml,int nPos) {
+    int nGt = sXml.indexOf('>',nPos);
+    if (sXml.charAt(nGt-1) == '/') return nGt+1;
+    return sXml.indexOf("</row>",nGt) + "</row>".length();
+  }
+
+  private static int poiRowNum(String sXml,int nPos) {
+    int ix = sXml.indexOf(" r=\"",nPos) + 4;
+    return Integer.parseInt(sXml.substring(ix,sXml.indexOf('"',ix)));
+  }
+
+  // the ref must cover the buffered cells as well as POI's
+  private String fixDimension(DSheet oDS,String sHead) {
+    int ix = sHead.indexOf("<dimension ref=\"");
+    if (ix < 0) return sHead;
+    ix += "<dimension ref=\"".length();
+    int nEnd = sHead.indexOf('"',ix);
+    int nMinRow = Integer.MAX_VALUE, nMaxRow = -1, nMinCol = Integer.MAX_VALUE, nMaxCol = -1;
+    for(Row oRow:oDS.oS) {
+      if (oRow.getFirstCellNum() < 0) continue;
+      nMinRow = Math.min(nMinRow,oRow.getRowNum());
+      nMaxRow = Math.max(nMaxRow,oRow.getRowNum());
+      nMinCol = Math.min(nMinCol,oRow.getFirstCellNum());
+      nMaxCol = Math.max(nMaxCol,oRow.getLastCellNum()-1);
+    }
+    for(int nRow=0; nRow <= oDS.nLastRow; nRow++) {
+      DRow oDR = oDS.oRows[nRow];
+      if ((oDR == null) || (oDR.nCells == 0)) continue;
+      nMinRow = Math.min(nMinRow,nRow);
+      nMaxRow = Math.max(nMaxRow,nRow);
+      nMinCol = Math.min(nMinCol,oDR.nCols[0]);
+      nMaxCol = Math.max(nMaxCol,oDR.nCols[oDR.nCells-1]);
+    }
+    if (nMaxRow < 0) return sHead;
+    String sRef = colName(nMinCol)+(nMinRow+1)+":"+colName(nMaxCol)+(nMaxRow+1);
+    return sHead.substring(0,ix)+sRef+sHead.substring(nEnd);
+  }
+
+  private static String colName(int nCol) {
+    char[] oCB = new char[4];
+    int n = putCol(oCB,0,nCol);
+    return new String(oCB,0,n);
+  }
+
+  private static int putCol(char[] oCB,int nAt,int nCol) {
+    int nLen = (nCol < 26)?1:(nCol < 702)?2:3;
+    int n = nCol + 1;
+    for(int i=nAt+nLen-1; i >= nAt; i--) {
+      n--;
+      oCB[i] = (char)('A' + (n % 26));
+      n /= 26;
+    }
+    return nAt+nLen;
+  }
+
+  private static int putInt(char[] oCB,int nAt,int nVal) {
+    int nLen = 1;
+    for(int n=nVal; n >= 10; n /= 10) nLen++;
+    for(int i=nAt+nLen-1; i >= nAt; i--) {
+      oCB[i] = (char)('0' + (nVal % 10));
+      nVal /= 10;
+    }
+    return nAt+nLen;
+  }
+
+  private void writeRow(Writer oW,DRow oDR,SSTMap oMap,char[] oCB) throws Exception {
+    int nR = oDR.nRow+1;
+    oW.write("<row r=\"");
+    oW.write(oCB,0,putInt(oCB,0,nR));
+    oW.write("\">");
+    for(int i=0; i<oDR.nCells; i++) {
+      oW.write("<c r=\"");
+      int n = putCol(oCB,0,oDR.nCols[i]);
+      n = putInt(oCB,n,nR);
+      oW.write(oCB,0,n);
+      oW.write('"');
+      if (oDR.nStyles[i] >= 0) {
+        oW.write(" s=\"");
+        oW.write(oCB,0,putInt(oCB,0,oDR.nStyles[i]));
+        oW.write('"');
+      }
+      switch(oDR.nTypes[i]) {
+        case T_STR:
+          oW.write(" t=\"s\"><v>");
+          oW.write(oCB,0,putInt(oCB,0,oMap.index(oDR.nStrs[i])));
+          oW.write("</v></c>");
+          break;
+        case T_INLINE:
+          oW.write(" t=\"inlineStr\"><is><t xml:space=\"preserve\">");
+          oInline.write(oW,oDR.nStrs[i]);
+          oW.write("</t></is></c>");
+          break;
+        case T_NUM:
+          double d = oDR.dNums[i];
+          if (Double.isInfinite(d)) {         // as XSSFCell.setCellValue(double)
+            oW.write(" t=\"e\"><v>#DIV/0!</v></c>");
+          } else if (Double.isNaN(d)) {
+            oW.write(" t=\"e\"><v>#NUM!</v></c>");
+          } else {
+            oW.write("><v>");
+            if ((d == Math.rint(d)) && (Math.abs(d) < 1e15) && ((d != 0) || (1/d > 0))) {
+              oW.write(Long.toString((long)d));
+            } else {
+              oW.write(Double.toString(d));
+            }
+            oW.write("</v></c>");
+          }
+          break;
+        default:
+          oW.write("/>");
+      }
+    }
+    oW.write("</row>");
+  }
+
+  /*
+    Escapes the text of a &lt;t&gt; element.  Control characters XML 1.0 cannot hold use the _xHHHH_ form Excel reads,
+    a literal _xHHHH_ in the data has its '_' escaped the same way.
+  */
+  static void writeEscaped(Writer oW,String s) throws Exception {
+    int nLen = s.length();
+    int nFrom = 0;
+    for(int i=0; i<nLen; i++) {
+      char c = s.charAt(i);
+      String sRep;
+      if (c == '<') sRep = "&lt;";
+      else if (c == '>') sRep = "&gt;";
+      else if (c == '&') sRep = "&amp;";
+      else if (c == '\r') sRep = "&#13;";
+      else if ((c < 0x20) && (c != '\n') && (c != '\t')) sRep = String.format("_x%04X_",(int)c);
+      else if ((c == 0xFFFE) || (c == 0xFFFF)) sRep = String.format("_x%04X_",(int)c);
+      else if ((c == '_') && isEscapeLike(s,i)) sRep = "_x005F_";
+      else continue;
+      oW.write(s,nFrom,i-nFrom);
+      oW.write(sRep);
+      nFrom = i+1;
+    }
+    oW.write(s,nFrom,nLen-nFrom);
+  }
+
+  private static boolean isEscapeLike(String s,int i) {
+    if ((i+7 > s.length()) || (s.charAt(i+1) != 'x') || (s.charAt(i+6) != '_')) return false;
+    for(int j=i+2; j<i+6; j++) {
+      if (Character.digit(s.charAt(j),16) < 0) return false;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,54 @@
+// ExcelCol - Marks a field written as a column by Area.addRecords
+
+// Copyright (c) 2019 Rexcel Systems Inc, All Rights Reserved.
+
+/*
+ @license
+ Copyright (c) 2019 by Steve Pritchard of Rexcel Systems Inc.
+ This file is made available under the terms of the Creative Commons Attribution-ShareAlike 3.0 license
+ http://creativecommons.org/licenses/by-sa/3.0/.
+ Contact: public.pritchard@gmail.com
+*/
+
+package com.psec.excel;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+  Marks a field of a record class as a column written by {@link WriteExcel.Area#addRecords(Iterable) addRecords},
+  the writing counterpart of the column map of a {@link ReadExcelRecord}.
+  <p>
+  Fields of type <code>int</code>, <code>long</code>, <code>short</code>, <code>byte</code>, <code>double</code>,
+  <code>float</code> and of a <code>Number</code> class are written as numeric cells, <code>CharSequence</code> fields as
+  string cells and any other field as the string of its <code>toString</code>.  A <code>null</code> writes an empty cell.
+  The field may be private.  Excel holds numbers as doubles, so a <code>long</code> beyond 2<sup>53</sup> in magnitude
+  is rounded to the nearest one; a field that needs all its digits should be a String.
+  <p>
+  <b>Example</b>
+  <p>
+  <pre style="font-size:90%;">
+  public static class SaleRec {
+    &#64;ExcelCol(hdr="Month")                                String sMonth;
+    &#64;ExcelCol(hdr="Units")                                int    nUnits;
+    &#64;ExcelCol(col=3,hdr="{:b}Amount",fmt="@num",style=":b") double dAmount;
+  }
+  </pre>
+*/
+
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface ExcelCol {
+  /** The column relative to 0 within the Area, -1 for the column after that of the field before it.
+    The fields before are found in the order <code>Class.getDeclaredFields</code> gives, which the JDK does not specify
+    though current JVMs give the order of the source.  Give the column, or use a column map, where the order must hold. */
+  int col() default -1;
+  /** The header text, which may start with a <a href={@docRoot}/overview-summary.html#format-spec>format specifier</a>.
+    Empty for the name of the field. */
+  String hdr() default "";
+  /** The DataFormat of a numeric field such as <code>@num</code>, empty for <code>@int</code> or <code>@num</code> by its type. */
+  String fmt() default "";
+  /** A defined style or an anonymous style starting with ':', empty for none. */
+  String style() default "";
+}
@@ -0,0 +1,117 @@
+// ExcelStats - Counters and timings of a WriteExcel or ReadExcelFile
+
+// Copyright (c) 2019 Rexcel Systems Inc, All Rights Reserved.
+
+/*
+ @license
+ Copyright (c) 2019 by Steve Pritchard of Rexcel Systems Inc.
+ This file is made available under the terms of the Creative Commons Attribution-ShareAlike 3.0 license
+ http://creativecommons.org/licenses/by-sa/3.0/.
+ Contact: public.pritchard@gmail.com
+*/
+
+package com.psec.excel;
+import java.lang.reflect.Field;
+
+/**
+  Counters and cumulative timings kept by {@link WriteExcel} and {@link ReadExcelFile}, returned by their
+  <code>getStats</code> methods as a snapshot.
+  <p>
+  The counters are plain fields incremented where the work is done, so they are always on; <code>resetStats</code> zeroes
+  them, for example between Areas.  The write counters stay 0 in the stats of a ReadExcelFile and the read counters in
+  those of a WriteExcel.  Times are in nanoseconds and include nested work, <code>writeArea</code> includes
+  <code>calcDimensions</code>.
+  <p>
+  <code>toString</code> lists the counters that are not 0, one per line, in a form suitable for a log.
+*/
+
+public class ExcelStats {
+  /** Numeric cells written, including those copied from another Sheet. */
+  public long nCellsNumeric;
+  /** String cells written or copied, not counting empty ones. */
+  public long nCellsString;
+  /** Empty cells written or copied, including those filling merged cells. */
+  public long nCellsBlank;
+  /** Formula cells copied from another Sheet. */
+  public long nCellsFormula;
+  /** Boolean and error cells copied from another Sheet. */
+  public long nCellsOther;
+
+  /** Cell texts classified against the DataFormats. */
+  public long nClassified;
+  /** Regular expressions tried while classifying, DataFormats with a compiled shape do not count. */
+  public long nRegexTests;
+
+  /** chooseStyle calls answered by the style remembered for the column. */
+  public long nStyleMemoHits;
+  /** chooseStyle calls answered by the style key map. */
+  public long nStyleKeyHits;
+  /** chooseStyle calls that had to build the style from its names. */
+  public long nStyleMisses;
+  /** Cell styles added to the Workbook. */
+  public long nStyles;
+  /** Fonts added to the Workbook. */
+  public long nFonts;
+
+  /** Merged regions added. */
+  public long nMerges;
+  /** Cell comments added. */
+  public long nComments;
+  /** Hyperlinks added. */
+  public long nLinks;
+  /** Area rows written to spill files. */
+  public long nRowsSpilled;
+
+  /** Rows looked at by readExcel and readExcelSmart. */
+  public long nRowsRead;
+  /** Rows whose ReadExcelRecord accepted them in canAccept. */
+  public long nRowsAccepted;
+
+  /** Time in writeArea. */
+  public long nWriteAreaNanos;
+  /** Time in calcDimensions, sizing the columns of Areas. */
+  public long nCalcDimensionsNanos;
+  /** Time in close. */
+  public long nCloseNanos;
+  /** Time in openFile. */
+  public long nOpenFileNanos;
+  /** Time in readExcelSmart and readExcel. */
+  public long nReadNanos;
+
+  /** Adds the counters of oS to these. */
+  void add(ExcelStats oS) {
+    try {
+      for(Field oF:ExcelStats.class.getFields()) {
+        oF.setLong(this,oF.getLong(this) + oF.getLong(oS));
+      }
+    } catch(IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  ExcelStats copy() {
+    ExcelStats oS = new ExcelStats();
+    oS.add(this);
+    return oS;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder oSB = new StringBuilder();
+    try {
+      for(Field oF:ExcelStats.class.getFields()) {
+        long n = oF.getLong(this);
+        if (n == 0) continue;
+        String sName = oF.getName().substring(1);
+        if (sName.endsWith("Nanos")) {
+          oSB.append(String.format("%-20s %12.3f ms%n",sName.substring(0,sName.length()-5),n / 1e6));
+        } else {
+          oSB.append(String.format("%-20s %12d%n",sName,n));
+        }
+      }
+    } catch(IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+    return oSB.toString();
+  }
+}
@@ -0,0 +1,405 @@
+// FormulaGraph - Which formula Cells of a Workbook depend on which Cells
+
+// Copyright (c) 2019 Rexcel Systems Inc, All Rights Reserved.
+
+/*
+ @license
+ Copyright (c) 2019 by Steve Pritchard of Rexcel Systems Inc.
+ This file is made available under the terms of the Creative Commons Attribution-ShareAlike 3.0 license
+ http://creativecommons.org/licenses/by-sa/3.0/.
+ Contact: public.pritchard@gmail.com
+*/
+
+package com.psec.excel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.poi.ss.formula.FormulaParser;
+import org.apache.poi.ss.formula.FormulaType;
+import org.apache.poi.ss.formula.ptg.AbstractFunctionPtg;
+import org.apache.poi.ss.formula.ptg.Area3DPxg;
+import org.apache.poi.ss.formula.ptg.AreaPtgBase;
+import org.apache.poi.ss.formula.ptg.NamePtg;
+import org.apache.poi.ss.formula.ptg.NameXPxg;
+import org.apache.poi.ss.formula.ptg.Ptg;
+import org.apache.poi.ss.formula.ptg.Ref3DPxg;
+import org.apache.poi.ss.formula.ptg.RefPtgBase;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFEvaluationWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+/**
+  Keeps the Cells changed by {@link WriteExcel#zapCell zapCell} and finds the formula Cells that depend on them, so
+  {@link WriteExcel#refreshDirty refreshDirty} evaluates only those.
+  <p>
+  The graph is built from the formulas of the Workbook the first time it is needed and again after WriteExcel writes or
+  replaces a formula.  Each formula is parsed once.  Single Cell references are looked up by Cell, ranges through buckets of
+  {@value FormulaGraph#BUCKET} rows, or a per Sheet list for ranges taller than {@value FormulaGraph#WIDE} buckets.
+  Formulas whose references cannot be known from the text (defined names, INDIRECT, OFFSET, volatile functions,
+  ranges over several Sheets) are evaluated on every refresh.
+  <p>
+  Cells are identified by <code>sheet index &lt;&lt; 34 | row &lt;&lt; 14 | column</code>.
+*/
+
+class FormulaGraph {
+  static final int BUCKET = 256;   // rows per range bucket
+  static final int WIDE   = 64;    // buckets a range may cover before it goes to the wide list
+
+  private static final HashSet<String> VOLATILE = new HashSet<String>(Arrays.asList(
+    "INDIRECT","OFFSET","RAND","RANDBETWEEN","NOW","TODAY","CELL","INFO"));
+
+  private HashSet<Long>          oDirty = new HashSet<Long>();
+  private boolean                bBuilt;
+
+  // formula Cells
+  private int                    nNodes;
+  private long[]                 nNodeKeys = new long[256];
+  private IntList                oVolatile = new IntList();
+
+  // references to single Cells: Cell key -> formula nodes
+  private HashMap<Long,IntList>  oRefs = new HashMap<Long,IntList>();
+
+  // references to ranges, by range number
+  private int                    nAreas;
+  private int[]                  nASheet = new int[64];
+  private int[]                  nARow1  = new int[64];
+  private int[]                  nARow2  = new int[64];
+  private int[]                  nACol1  = new int[64];
+  private int[]                  nACol2  = new int[64];
+  private int[]                  nANode  = new int[64];
+  private HashMap<Long,IntList>  oBuckets = new HashMap<Long,IntList>();   // sheet << 32 | bucket -> ranges
+  private HashMap<Integer,IntList> oWide = new HashMap<Integer,IntList>(); // sheet -> ranges
+
+  /** Growable int array. */
+  static class IntList {
+    int[] n = new int[4];
+    int   nSize;
+
+    void add(int v) {
+      if (nSize == n.length) n = Arrays.copyOf(n,nSize*2);
+      n[nSize++] = v;
+    }
+  }
+
+  static long key(int nSheet,int nRow,int nCol) {
+    return ((long)nSheet << 34) | ((long)nRow << 14) | nCol;
+  }
+
+  synchronized void markDirty(int nSheet,int nRow,int nCol) {
+    oDirty.add(key(nSheet,nRow,nCol));
+  }
+
+  synchronized int dirtyCount() {
+    return oDirty.size();
+  }
+
+  /** Forget the graph, it is built again when next needed. */
+  synchronized void invalidate() {
+    bBuilt = false;
+  }
+
+  /** Forget the changed Cells, used once every formula has been evaluated. */
+  synchronized void clean() {
+    oDirty.clear();
+  }
+
+  /**
+    Evaluates the formulas depending on the changed Cells and forgets the changes.
+    @return The number of formula Cells evaluated.
+  */
+  synchronized int refresh(XSSFWorkbook oWB,FormulaEvaluator oFE,int nThreads) throws Exception {
+    if (oDirty.isEmpty()) return 0;
+    if (!bBuilt) build(oWB);
+    for(long nKey:oDirty) {
+      Cell oC = cellAt(oWB,nKey);
+      if (oC != null) oFE.notifyUpdateCell(oC);
+    }
+    int[] nAffected = affected();
+    oDirty.clear();
+    if ((nThreads <= 1) || (nAffected.length < 2)) {
+      evaluate(oWB,oFE,nAffected,0,nAffected.length);
+    } else {
+      evaluateChains(oWB,oFE,nAffected,nThreads);
+    }
+    return nAffected.length;
+  }
+
+  // ---------------- Building ----------------
+
+  private void build(XSSFWorkbook oWB) {
+    nNodes = 0;
+    oVolatile = new IntList();
+    oRefs.clear();
+    nAreas = 0;
+    oBuckets.clear();
+    oWide.clear();
+    XSSFEvaluationWorkbook oEWB = XSSFEvaluationWorkbook.create(oWB);
+    for(int s=0,sMax=oWB.getNumberOfSheets(); s<sMax; s++) {
+      for(Row oRow:oWB.getSheetAt(s)) {
+        for(Cell oC:oRow) {
+          if (oC.getCellType() != CellType.FORMULA) continue;
+          int nNode = addNode(key(s,oRow.getRowNum(),oC.getColumnIndex()));
+          Ptg[] oPtgs;
+          try {
+            oPtgs = FormulaParser.parse(oC.getCellFormula(),oEWB,FormulaType.CELL,s,oRow.getRowNum());
+          } catch(RuntimeException e) {
+            oVolatile.add(nNode);  // cannot tell what it refers to
+            continue;
+          }
+          addRefs(oWB,s,nNode,oPtgs);
+        }
+      }
+    }
+    bBuilt = true;
+  }
+
+  private int addNode(long nKey) {
+    if (nNodes == nNodeKeys.length) nNodeKeys = Arrays.copyOf(nNodeKeys,nNodes*2);
+    nNodeKeys[nNodes] = nKey;
+    return nNodes++;
+  }
+
+  private void addRefs(XSSFWorkbook oWB,int nSheet,int nNode,Ptg[] oPtgs) {
+    boolean bVolatile = false;
+    for(Ptg oP:oPtgs) {
+      if ((oP instanceof NamePtg) || (oP instanceof NameXPxg)) {
+        bVolatile = true;
+      } else if ((oP instanceof AbstractFunctionPtg) && VOLATILE.contains(((AbstractFunctionPtg)oP).getName())) {
+        bVolatile = true;
+      } else if (oP instanceof Ref3DPxg) {
+        Ref3DPxg oR = (Ref3DPxg)oP;
+        int nS = sheetOf(oWB,oR.getExternalWorkbookNumber(),oR.getSheetName(),oR.getLastSheetName());
+        if (nS == -2) bVolatile = true;
+        if (nS >= 0) addRef(nS,oR.getRow(),oR.getColumn(),nNode);
+      } else if (oP instanceof Area3DPxg) {
+        Area3DPxg oA = (Area3DPxg)oP;
+        int nS = sheetOf(oWB,oA.getExternalWorkbookNumber(),oA.getSheetName(),oA.getLastSheetName());
+        if (nS == -2) bVolatile = true;
+        if (nS >= 0) addArea(nS,oA.getFirstRow(),oA.getLastRow(),oA.getFirstColumn(),oA.getLastColumn(),nNode);
+      } else if (oP instanceof RefPtgBase) {
+        RefPtgBase oR = (RefPtgBase)oP;
+        addRef(nSheet,oR.getRow(),oR.getColumn(),nNode);
+      } else if (oP instanceof AreaPtgBase) {
+        AreaPtgBase oA = (AreaPtgBase)oP;
+        addArea(nSheet,oA.getFirstRow(),oA.getLastRow(),oA.getFirstColumn(),oA.getLastColumn(),nNode);
+      }
+    }
+    if (bVolatile) oVolatile.add(nNode);
+  }
+
+  // the Sheet index of a 3D reference, -1 for another Workbook (never changes here), -2 when it cannot be known
+  private static int sheetOf(XSSFWorkbook oWB,int nExt,String sSheet,String sLast) {
+    if (nExt > 0) return -1;
+    if ((sLast != null) || (sSheet == null)) return -2;
+    int nS = oWB.getSheetIndex(sSheet);
+    return (nS < 0)?-1:nS;
+  }
+
+  private void addRef(int nSheet,int nRow,int nCol,int nNode) {
+    Long nKey = key(nSheet,nRow,nCol);
+    IntList oL = oRefs.get(nKey);
+    if (oL == null) {
+      oL = new IntList();
+      oRefs.put(nKey,oL);
+    }
+    oL.add(nNode);
+  }
+
+  private void addArea(int nSheet,int nRow1,int nRow2,int nCol1,int nCol2,int nNode) {
+    if (nAreas == nASheet.length) {
+      int nLen = nAreas*2;
+      nASheet = Arrays.copyOf(nASheet,nLen);
+      nARow1  = Arrays.copyOf(nARow1,nLen);
+      nARow2  = Arrays.copyOf(nARow2,nLen);
+      nACol1  = Arrays.copyOf(nACol1,nLen);
+      nACol2  = Arrays.copyOf(nACol2,nLen);
+      nANode  = Arrays.copyOf(nANode,nLen);
+    }
+    int ix = nAreas++;
+    nASheet[ix] = nSheet;
+    nARow1[ix] = nRow1;
+    nARow2[ix] = nRow2;
+    nACol1[ix] = nCol1;
+    nACol2[ix] = nCol2;
+    nANode[ix] = nNode;
+    int nB1 = nRow1 / BUCKET, nB2 = nRow2 / BUCKET;
+    if (nB2 - nB1 >= WIDE) {
+      IntList oL = oWide.get(nSheet);
+      if (oL == null) {
+        oL = new IntList();
+        oWide.put(nSheet,oL);
+      }
+      oL.add(ix);
+      return;
+    }
+    for(int b=nB1; b<=nB2; b++) {
+      Long nKey = ((long)nSheet << 32) | b;
+      IntList oL = oBuckets.get(nKey);
+      if (oL == null) {
+        oL = new IntList();
+        oBuckets.put(nKey,oL);
+      }
+      oL.add(ix);
+    }
+  }
+
+  // ---------------- Propagation ----------------
+
+  // formula nodes reached from the dirty Cells, in the order found
+  private int[] affected() {
+    boolean[] bSeen = new boolean[nNodes];
+    IntList oOut = new IntList();
+    ArrayList<Long> oQueue = new ArrayList<Long>(oDirty);
+    for(int i=0; i<oVolatile.nSize; i++) reach(oVolatile.n[i],bSeen,oOut,oQueue);
+    for(int q=0; q<oQueue.size(); q++) {
+      long nKey = oQueue.get(q);
+      IntList oL = oRefs.get(nKey);
+      if (oL != null) {
+        for(int i=0; i<oL.nSize; i++) reach(oL.n[i],bSeen,oOut,oQueue);
+      }
+      int nSheet = (int)(nKey >>> 34);
+      int nRow = (int)((nKey >>> 14) & 0xFFFFF);
+      int nCol = (int)(nKey & 0x3FFF);
+      reachAreas(oBuckets.get(((long)nSheet << 32) | (nRow / BUCKET)),nRow,nCol,bSeen,oOut,oQueue);
+      reachAreas(oWide.get(nSheet),nRow,nCol,bSeen,oOut,oQueue);
+    }
+    return Arrays.copyOf(oOut.n,oOut.nSize);
+  }
+
+  private void reachAreas(IntList oL,int nRow,int nCol,boolean[] bSeen,IntList oOut,ArrayList<Long> oQueue) {
+    if (oL == null) return;
+    for(int i=0; i<oL.nSize; i++) {
+      int ix = oL.n[i];
+      if ((nRow >= nARow1[ix]) && (nRow <= nARow2[ix]) && (nCol >= nACol1[ix]) && (nCol <= nACol2[ix])) {
+        reach(nANode[ix],bSeen,oOut,oQueue);
+      }
+    }
+  }
+
+  private void reach(int nNode,boolean[] bSeen,IntList oOut,ArrayList<Long> oQueue) {
+    if (bSeen[nNode]) return;
+    bSeen[nNode] = true;
+    oOut.add(nNode);
+    oQueue.add(nNodeKeys[nNode]);
+  }
+
+  // ---------------- Evaluation ----------------
+
+  private void evaluate(XSSFWorkbook oWB,FormulaEvaluator oFE,int[] nNodes,int nFrom,int nTo) {
+    for(int i=nFrom; i<nTo; i++) {
+      Cell oC = cellAt(oWB,nNodeKeys[nNodes[i]]);
+      if (oC != null) oFE.evaluateFormulaCell(oC);
+    }
+  }
+
+  /*
+   * Splits the affected formulas into chains that share no Cells and evaluates them on a pool.  Each thread has its
+   * own evaluator since a FormulaEvaluator is not thread safe, so unlike the Workbook's evaluator it starts with no
+   * cached values.  A single chain stays on the calling thread.
+   */
+  private void evaluateChains(XSSFWorkbook oWB,FormulaEvaluator oFE,int[] nAffected,int nThreads) throws Exception {
+    int[] nChainOf = chains(nAffected);
+    HashMap<Integer,IntList> oChains = new HashMap<Integer,IntList>();
+    for(int i=0; i<nAffected.length; i++) {
+      IntList oL = oChains.get(nChainOf[i]);
+      if (oL == null) {
+        oL = new IntList();
+        oChains.put(nChainOf[i],oL);
+      }
+      oL.add(nAffected[i]);
+    }
+    List<IntList> oWork = new ArrayList<IntList>(oChains.values());
+    if (oWork.size() < 2) {
+      evaluate(oWB,oFE,nAffected,0,nAffected.length);
+      return;
+    }
+    ExecutorService oES = Executors.newFixedThreadPool(Math.min(nThreads,oWork.size()));
+    try {
+      ArrayList<Future<Object>> oFutures = new ArrayList<Future<Object>>();
+      int nPer = (oWork.size() + nThreads - 1) / nThreads;
+      for(int t=0; t<oWork.size(); t+=nPer) {
+        final List<IntList> oPart = oWork.subList(t,Math.min(t+nPer,oWork.size()));
+        oFutures.add(oES.submit(() -> {
+          FormulaEvaluator oTFE = oWB.getCreationHelper().createFormulaEvaluator();
+          for(IntList oL:oPart) evaluate(oWB,oTFE,oL.n,0,oL.nSize);
+          return null;
+        }));
+      }
+      for(Future<Object> oF:oFutures) {
+        try {
+          oF.get();
+        } catch(ExecutionException e) {
+          Throwable oT = e.getCause();
+          if (oT instanceof Exception) throw (Exception)oT;
+          throw e;
+        }
+      }
+    } finally {
+      oES.shutdownNow();
+    }
+  }
+
+  // chain number of each affected formula, formulas in one chain refer to each other directly or indirectly
+  private int[] chains(int[] nAffected) {
+    HashMap<Integer,Integer> oPos = new HashMap<Integer,Integer>();
+    for(int i=0; i<nAffected.length; i++) oPos.put(nAffected[i],i);
+    int[] nParent = new int[nAffected.length];
+    for(int i=0; i<nParent.length; i++) nParent[i] = i;
+    for(int i=0; i<nAffected.length; i++) {
+      long nKey = nNodeKeys[nAffected[i]];
+      IntList oL = oRefs.get(nKey);
+      if (oL != null) {
+        for(int j=0; j<oL.nSize; j++) {
+          Integer nP = oPos.get(oL.n[j]);
+          if (nP != null) union(nParent,i,nP);
+        }
+      }
+      int nSheet = (int)(nKey >>> 34);
+      int nRow = (int)((nKey >>> 14) & 0xFFFFF);
+      int nCol = (int)(nKey & 0x3FFF);
+      for(IntList oA:new IntList[]{oBuckets.get(((long)nSheet << 32) | (nRow / BUCKET)),oWide.get(nSheet)}) {
+        if (oA == null) continue;
+        for(int j=0; j<oA.nSize; j++) {
+          int ix = oA.n[j];
+          if ((nRow < nARow1[ix]) || (nRow > nARow2[ix]) || (nCol < nACol1[ix]) || (nCol > nACol2[ix])) continue;
+          Integer nP = oPos.get(nANode[ix]);
+          if (nP != null) union(nParent,i,nP);
+        }
+      }
+    }
+    int[] nChain = new int[nAffected.length];
+    for(int i=0; i<nChain.length; i++) nChain[i] = find(nParent,i);
+    return nChain;
+  }
+
+  private static int find(int[] nParent,int i) {
+    while(nParent[i] != i) {
+      nParent[i] = nParent[nParent[i]];
+      i = nParent[i];
+    }
+    return i;
+  }
+
+  private static void union(int[] nParent,int a,int b) {
+    nParent[find(nParent,a)] = find(nParent,b);
+  }
+
+  private static Cell cellAt(XSSFWorkbook oWB,long nKey) {
+    int nSheet = (int)(nKey >>> 34);
+    if (nSheet >= oWB.getNumberOfSheets()) return null;
+    Sheet oS = oWB.getSheetAt(nSheet);
+    Row oRow = oS.getRow((int)((nKey >>> 14) & 0xFFFFF));
+    return (oRow == null)?null:oRow.getCell((int)(nKey & 0x3FFF));
+  }
+}
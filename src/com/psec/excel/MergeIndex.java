@@ -0,0 +1,172 @@
+// MergeIndex - Merged regions of a Sheet added in bulk and checked with a row index
+
+// Copyright (c) 2019 Rexcel Systems Inc, All Rights Reserved.
+
+/*
+ @license
+ Copyright (c) 2019 by Steve Pritchard of Rexcel Systems Inc.
+ This file is made available under the terms of the Creative Commons Attribution-ShareAlike 3.0 license
+ http://creativecommons.org/licenses/by-sa/3.0/.
+ Contact: public.pritchard@gmail.com
+*/
+
+package com.psec.excel;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTMergeCells;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTWorksheet;
+
+/**
+  Collects the merged regions an Area writes to a Sheet in primitive arrays and adds them in one go.
+  <p>
+  <code>Sheet.addMergedRegion</code> compares each new region with every region already on the Sheet, and even
+  <code>addMergedRegionUnsafe</code> counts the regions of an XSSF Sheet after each one, so both are quadratic for the banded
+  reports that merge a few cells on every row.  Here the regions of an XSSF Sheet are appended to its &lt;mergeCells&gt;
+  directly, other Sheets use <code>addMergedRegionUnsafe</code>.  When checking is on, the regions are looked up in an
+  index holding the merged column spans of each row, kept in step with regions added to the Sheet by other means.
+*/
+
+class MergeIndex {
+  private Sheet   oS;
+  private int     nSeen;                    // regions of the Sheet already in the index
+  private HashMap<Integer,Spans> oRows = new HashMap<Integer,Spans>();
+
+  // regions waiting for commit
+  private int[]   nRow1 = new int[64];
+  private int[]   nRow2 = new int[64];
+  private int[]   nCol1 = new int[64];
+  private int[]   nCol2 = new int[64];
+  private int     nCount;
+
+  static final int COMMIT_AT = 4096;        // queued regions that make the RowBuilder commit
+
+  /** The merged column spans of one row sorted by first column. */
+  private static class Spans {
+    int[] nFrom = new int[4];
+    int[] nTo   = new int[4];
+    int   nCount;
+
+    // index of the first span ending at or after nCol
+    int search(int nCol) {
+      int lo = 0, hi = nCount;
+      while(lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (nTo[mid] < nCol) lo = mid + 1; else hi = mid;
+      }
+      return lo;
+    }
+
+    int overlaps(int nC1,int nC2) {
+      int ix = search(nC1);
+      return ((ix < nCount) && (nFrom[ix] <= nC2))?ix:-1;
+    }
+
+    void insert(int nC1,int nC2) {
+      int ix = search(nC1);
+      if (nCount == nFrom.length) {
+        nFrom = Arrays.copyOf(nFrom,nCount*2);
+        nTo = Arrays.copyOf(nTo,nCount*2);
+      }
+      System.arraycopy(nFrom,ix,nFrom,ix+1,nCount-ix);
+      System.arraycopy(nTo,ix,nTo,ix+1,nCount-ix);
+      nFrom[ix] = nC1;
+      nTo[ix] = nC2;
+      nCount++;
+    }
+  }
+
+  MergeIndex(Sheet oS) {
+    this.oS = oS;
+  }
+
+  /** Queues a merged region, nothing is added to the Sheet before {@link MergeIndex#commit commit}. */
+  int add(int nR1,int nR2,int nC1,int nC2) {
+    if (nCount == nRow1.length) {
+      int nLen = nCount*2;
+      nRow1 = Arrays.copyOf(nRow1,nLen);
+      nRow2 = Arrays.copyOf(nRow2,nLen);
+      nCol1 = Arrays.copyOf(nCol1,nLen);
+      nCol2 = Arrays.copyOf(nCol2,nLen);
+    }
+    nRow1[nCount] = nR1;
+    nRow2[nCount] = nR2;
+    nCol1[nCount] = nC1;
+    nCol2[nCount] = nC2;
+    return ++nCount;
+  }
+
+  /** Adds the queued regions to the Sheet, checking them against the index first when bCheck is set. */
+  void commit(boolean bCheck) throws Exception {
+    if (nCount == 0) return;
+    try {
+      CellRangeAddress[] oCRAs = new CellRangeAddress[nCount];
+      for(int i=0; i<nCount; i++) {
+        CellRangeAddress oCRA = oCRAs[i] = new CellRangeAddress(nRow1[i],nRow2[i],nCol1[i],nCol2[i]);
+        if (oCRA.getNumberOfCells() < 2) {
+          throw new Exception("Merged region "+oCRA.formatAsString()+" must contain 2 or more cells");
+        }
+        oCRA.validate(SpreadsheetVersion.EXCEL2007);
+      }
+      if (bCheck) {
+        sync();
+        for(int i=0; i<nCount; i++) check(i);
+      }
+      if (oS instanceof XSSFSheet) {
+        CTWorksheet oCT = ((XSSFSheet)oS).getCTWorksheet();
+        CTMergeCells oMC = oCT.isSetMergeCells()?oCT.getMergeCells():oCT.addNewMergeCells();
+        for(CellRangeAddress oCRA:oCRAs) oMC.addNewMergeCell().setRef(oCRA.formatAsString());
+      } else {
+        for(CellRangeAddress oCRA:oCRAs) oS.addMergedRegionUnsafe(oCRA);
+      }
+      if (bCheck) nSeen += nCount;  // sync left nSeen at the regions on the Sheet
+    } catch(Exception e) {
+      oRows.clear();  // holds regions that were not added, built again on the next commit
+      nSeen = 0;
+      throw e;
+    } finally {
+      nCount = 0;
+    }
+  }
+
+  // brings in regions added to the Sheet since the last commit, starting again when some were removed
+  private void sync() {
+    int nNow = oS.getNumMergedRegions();
+    if (nNow < nSeen) {
+      oRows.clear();
+      nSeen = 0;
+    }
+    for(; nSeen<nNow; nSeen++) {
+      CellRangeAddress oCRA = oS.getMergedRegion(nSeen);
+      for(int r=oCRA.getFirstRow(); r<=oCRA.getLastRow(); r++) {
+        spans(r).insert(oCRA.getFirstColumn(),oCRA.getLastColumn());
+      }
+    }
+  }
+
+  private void check(int i) throws Exception {
+    for(int r=nRow1[i]; r<=nRow2[i]; r++) {
+      Spans oSp = oRows.get(r);
+      int ix = (oSp == null)?-1:oSp.overlaps(nCol1[i],nCol2[i]);
+      if (ix >= 0) {
+        CellRangeAddress oCRA = new CellRangeAddress(nRow1[i],nRow2[i],nCol1[i],nCol2[i]);
+        throw new Exception("Cannot add merged region "+oCRA.formatAsString()+" to sheet "+oS.getSheetName()
+          +" because it overlaps with the merged cells "+new CellRangeAddress(r,r,oSp.nFrom[ix],oSp.nTo[ix]).formatAsString());
+      }
+    }
+    for(int r=nRow1[i]; r<=nRow2[i]; r++) spans(r).insert(nCol1[i],nCol2[i]);
+  }
+
+  private Spans spans(int nRow) {
+    Spans oSp = oRows.get(nRow);
+    if (oSp == null) {
+      oSp = new Spans();
+      oRows.put(nRow,oSp);
+    }
+    return oSp;
+  }
+}
@@ -0,0 +1,474 @@
+// PartZipper - Compresses the parts of a Workbook package with a WriteExcel.CloseProfile
+
+// Copyright (c) 2019 Rexcel Systems Inc, All Rights Reserved.
+
+/*
+ @license
+ Copyright (c) 2019 by Steve Pritchard of Rexcel Systems Inc.
+ This file is made available under the terms of the Creative Commons Attribution-ShareAlike 3.0 license
+ http://creativecommons.org/licenses/by-sa/3.0/.
+ Contact: public.pritchard@gmail.com
+*/
+
+package com.psec.excel;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+
+/**
+  Takes the place of the zip stream POI saves a package into, so {@link WriteExcel#close close} controls the compression.
+  <p>
+  POI hands over one part at a time.  Each part is deflated at the level of the {@link WriteExcel.CloseProfile CloseProfile}
+  or stored as is, and the parts are written to the output in the order POI gave them with the usual local headers and
+  central directory.  A {@link PartZipper.Rewriter Rewriter} can replace the content of a part as it is compressed, which
+  is how the {@link DirectEngine} adds its rows.
+  <p>
+  On one thread a deflated part is streamed to the output as it is made, its sizes and checksum following it in a data
+  descriptor.  A stored part needs them in its local header, as readers such as POI's refuse a stored part with a data
+  descriptor, so a part POI writes is held until it is complete and a rewritten part is made twice, once to count it and
+  once to write it.  With a pool the parts are compressed into memory and the parts waiting to be written are limited by
+  count and by bytes.  Zip64 records are added for parts, offsets and packages beyond the 4GB limits of a plain zip.
+*/
+
+class PartZipper extends ZipArchiveOutputStream {
+
+  /** Replaces the content of the parts it wants. */
+  interface Rewriter {
+    boolean wants(String sName);
+    void rewrite(String sName,byte[] oRaw,int nLen,OutputStream oOut) throws Exception;
+  }
+
+  private static final int  MAX_IN_FLIGHT = 2;               // parts per thread waiting to be written
+  private static final long MAX_IN_FLIGHT_BYTES = 64L << 20; // raw bytes of the parts waiting to be written
+  private static final long ZIP32_MAX = 0xFFFFFFFFL;         // sizes and offsets at or above need zip64
+
+  private Counter               oOut;
+  private int                   nLevel;       // 0 for STORED
+  private ExecutorService       oPool;
+  private int                   nThreads;
+  private Rewriter              oRW;
+  private ArrayDeque<Future<Part>> oPending = new ArrayDeque<Future<Part>>();
+  private ArrayDeque<Long>      oPendingBytes = new ArrayDeque<Long>();
+  private long                  nInFlight;    // raw bytes of the pending parts
+  private ArrayList<Part>       oWritten = new ArrayList<Part>();
+  private boolean               bFinished;
+  private int                   nDosTime;
+  private int                   nDosDate;
+
+  // the part POI is writing, one of these is set
+  private String                sCur;
+  private RawBuffer             oRaw;
+  private Sink                  oSink;        // streamed to the output
+  private Part                  oSinkPart;
+
+  PartZipper(OutputStream oOut,int nLevel,int nThreads) {
+    super(new ByteArrayOutputStream(0));  // nothing is written to it
+    this.oOut = new Counter(oOut);
+    this.nLevel = nLevel;
+    this.nThreads = nThreads;
+    if (nThreads > 1) oPool = Executors.newFixedThreadPool(nThreads);
+    LocalDateTime oNow = LocalDateTime.now();
+    nDosTime = (oNow.getHour() << 11) | (oNow.getMinute() << 5) | (oNow.getSecond() / 2);
+    nDosDate = ((oNow.getYear() - 1980) << 9) | (oNow.getMonthValue() << 5) | oNow.getDayOfMonth();
+  }
+
+  void setRewriter(Rewriter oRW) {
+    this.oRW = oRW;
+  }
+
+  // ---------------- POI side ----------------
+
+  @Override
+  public void putArchiveEntry(ArchiveEntry oAE) throws IOException {
+    if (sCur != null) closeArchiveEntry();
+    sCur = oAE.getName();
+    if ((oPool == null) && (nLevel != 0) && !wants(sCur)) {
+      oSinkPart = startPart(sCur);  // deflated to the output as POI writes it
+      oSink = new Sink(nLevel,oOut);
+    } else {
+      oRaw = new RawBuffer();
+    }
+  }
+
+  @Override
+  public void write(byte[] b,int off,int len) throws IOException {
+    if (oSink != null) {
+      oSink.write(b,off,len);
+    } else if (oRaw != null) {
+      oRaw.write(b,off,len);
+    } else {
+      throw new IOException("no zip entry is open");
+    }
+  }
+
+  @Override
+  public void closeArchiveEntry() throws IOException {
+    if (sCur == null) return;
+    try {
+      if (oSink != null) {
+        endPart(oSinkPart,oSink);
+      } else if (oPool == null) {
+        writeRaw(sCur,oRaw);
+      } else {
+        final String sName = sCur;
+        final RawBuffer oBuf = oRaw;
+        oPending.add(oPool.submit(() -> compress(sName,oBuf)));
+        oPendingBytes.add((long)oBuf.size());
+        nInFlight += oBuf.size();
+        drain(nThreads * MAX_IN_FLIGHT);
+      }
+    } catch(IOException e) {
+      throw e;
+    } catch(Exception e) {
+      throw new IOException("cannot compress "+sCur,e);
+    } finally {
+      if (oSink != null) oSink.end();
+      sCur = null;
+      oSink = null;
+      oSinkPart = null;
+      oRaw = null;
+    }
+  }
+
+  @Override
+  public void finish() throws IOException {
+    if (bFinished) return;
+    closeArchiveEntry();
+    try {
+      drain(0);
+    } catch(IOException e) {
+      throw e;
+    } catch(Exception e) {
+      throw new IOException("cannot compress parts",e);
+    } finally {
+      if (oPool != null) oPool.shutdownNow();
+    }
+    writeCentralDirectory();
+    oOut.flush();
+    bFinished = true;
+  }
+
+  @Override
+  public void flush() throws IOException {
+  }
+
+  /** Finishes the package, the output stream is left open. */
+  @Override
+  public void close() throws IOException {
+    if (!bFinished) finish();
+  }
+
+  /** Stops the pool and releases the deflater of a part when the package could not be finished. */
+  void abort() {
+    if (oSink != null) oSink.end();
+    if (oPool != null) oPool.shutdownNow();
+  }
+
+  // ---------------- Compression ----------------
+
+  private boolean wants(String sName) {
+    return (oRW != null) && oRW.wants(sName);
+  }
+
+  // the content of a part, rewritten when the Rewriter wants it
+  private void content(String sName,RawBuffer oBuf,OutputStream oDest) throws Exception {
+    if (wants(sName)) {
+      oRW.rewrite(sName,oBuf.buf(),oBuf.size(),oDest);
+    } else {
+      oDest.write(oBuf.buf(),0,oBuf.size());
+    }
+  }
+
+  // a part held whole, written on the calling thread
+  private void writeRaw(String sName,RawBuffer oBuf) throws Exception {
+    if (nLevel != 0) {
+      Part oP = startPart(sName);
+      Sink oS = new Sink(nLevel,oOut);
+      try {
+        content(sName,oBuf,oS);
+        endPart(oP,oS);
+      } finally {
+        oS.end();
+      }
+      return;
+    }
+    Sink oCount = new Sink(0,new Counter(null));   // sizes and checksum first, the local header needs them
+    content(sName,oBuf,oCount);
+    Part oP = oCount.done(sName,false);
+    writeHeader(oP);
+    Sink oS = new Sink(0,oOut);
+    content(sName,oBuf,oS);
+    if ((oS.nSize != oP.nSize) || (oS.oCRC.getValue() != oP.nCrc)) throw new IOException("part "+sName+" was not made the same twice");
+    oWritten.add(oP);
+  }
+
+  private Part compress(String sName,RawBuffer oBuf) throws Exception {
+    RawBuffer oData = new RawBuffer();
+    Sink oS = new Sink(nLevel,oData);
+    try {
+      content(sName,oBuf,oS);
+      Part oP = oS.done(sName,false);
+      oP.oData = oData;
+      return oP;
+    } finally {
+      oS.end();
+    }
+  }
+
+  // writes the finished parts in order, waiting while more than nMax or too many bytes are pending
+  private void drain(int nMax) throws Exception {
+    while(!oPending.isEmpty() && ((oPending.size() > nMax) || (nInFlight > MAX_IN_FLIGHT_BYTES) || oPending.peek().isDone())) {
+      try {
+        Part oP = oPending.poll().get();
+        nInFlight -= oPendingBytes.poll();
+        writeHeader(oP);
+        oP.oData.writeTo(oOut);
+        oP.oData = null;
+        oWritten.add(oP);
+      } catch(ExecutionException e) {
+        Throwable oT = e.getCause();
+        if (oT instanceof Exception) throw (Exception)oT;
+        throw e;
+      }
+    }
+  }
+
+  /** A part once compressed. */
+  private static class Part {
+    String    sName;
+    byte[]    oName;
+    boolean   bStored;
+    boolean   bDescriptor;  // sizes and checksum follow the data
+    long      nCrc;
+    long      nSize;
+    long      nCompSize;
+    long      nOffset;
+    RawBuffer oData;        // compressed by the pool
+  }
+
+  /** ByteArrayOutputStream giving access to its buffer. */
+  private static class RawBuffer extends ByteArrayOutputStream {
+    RawBuffer() {super(1 << 13);}
+    byte[] buf() {return buf;}
+  }
+
+  /** Counts what is written through it, to nowhere when oTo is null. */
+  private static class Counter extends OutputStream {
+    OutputStream oTo;
+    long         n;
+
+    Counter(OutputStream oTo) {this.oTo = oTo;}
+
+    @Override
+    public void write(int b) throws IOException {
+      if (oTo != null) oTo.write(b);
+      n++;
+    }
+
+    @Override
+    public void write(byte[] b,int off,int len) throws IOException {
+      if (oTo != null) oTo.write(b,off,len);
+      n += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (oTo != null) oTo.flush();
+    }
+  }
+
+  /** Counts, checksums and deflates (or keeps) what is written to it into oDest.  end must be called. */
+  private static class Sink extends OutputStream {
+    CRC32                oCRC = new CRC32();
+    long                 nSize;
+    Counter              oData;
+    Deflater             oD;
+    DeflaterOutputStream oDOS;
+
+    Sink(int nLevel,OutputStream oDest) {
+      oData = new Counter(oDest);
+      if (nLevel != 0) {
+        oD = new Deflater(nLevel,true);
+        oDOS = new DeflaterOutputStream(oData,oD,1 << 13);
+      }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[]{(byte)b},0,1);
+    }
+
+    @Override
+    public void write(byte[] b,int off,int len) throws IOException {
+      oCRC.update(b,off,len);
+      nSize += len;
+      if (oDOS != null) {
+        oDOS.write(b,off,len);
+      } else {
+        oData.write(b,off,len);
+      }
+    }
+
+    Part done(String sName,boolean bDescriptor) throws IOException {
+      if (oDOS != null) oDOS.finish();
+      Part oP = new Part();
+      oP.sName = sName;
+      oP.oName = sName.getBytes(StandardCharsets.UTF_8);
+      oP.bStored = (oDOS == null);
+      oP.bDescriptor = bDescriptor;
+      oP.nCrc = oCRC.getValue();
+      oP.nSize = nSize;
+      oP.nCompSize = oData.n;
+      return oP;
+    }
+
+    // releases the deflater, also when the part failed
+    void end() {
+      if (oD != null) oD.end();
+    }
+  }
+
+  // ---------------- Zip format ----------------
+
+  // local header of a deflated part streamed to the output, its sizes follow in a data descriptor
+  private Part startPart(String sName) throws IOException {
+    Part oP = new Part();
+    oP.sName = sName;
+    oP.oName = sName.getBytes(StandardCharsets.UTF_8);
+    oP.bDescriptor = true;
+    writeHeader(oP);
+    return oP;
+  }
+
+  private void endPart(Part oP,Sink oS) throws IOException {
+    Part oDone = oS.done(oP.sName,true);
+    oP.nCrc = oDone.nCrc;
+    oP.nSize = oDone.nSize;
+    oP.nCompSize = oDone.nCompSize;
+    ByteArrayOutputStream oH = new ByteArrayOutputStream(24);
+    putInt(oH,0x08074b50);
+    putInt(oH,(int)oP.nCrc);
+    if ((oP.nSize >= ZIP32_MAX) || (oP.nCompSize >= ZIP32_MAX)) {
+      putLong(oH,oP.nCompSize);
+      putLong(oH,oP.nSize);
+    } else {
+      putInt(oH,(int)oP.nCompSize);
+      putInt(oH,(int)oP.nSize);
+    }
+    oH.writeTo(oOut);
+    oWritten.add(oP);
+  }
+
+  private void writeHeader(Part oP) throws IOException {
+    oP.nOffset = oOut.n;
+    ByteArrayOutputStream oH = new ByteArrayOutputStream(30 + oP.oName.length);
+    putInt(oH,0x04034b50);
+    putShort(oH,20);              // version needed
+    putShort(oH,oP.bDescriptor?0x0808:0x0800);  // names are UTF-8, sizes after the data
+    putShort(oH,oP.bStored?0:8);
+    putShort(oH,nDosTime);
+    putShort(oH,nDosDate);
+    putInt(oH,oP.bDescriptor?0:(int)oP.nCrc);
+    putInt(oH,oP.bDescriptor?0:(int)oP.nCompSize);
+    putInt(oH,oP.bDescriptor?0:(int)oP.nSize);
+    putShort(oH,oP.oName.length);
+    putShort(oH,0);
+    oH.write(oP.oName);
+    oH.writeTo(oOut);
+  }
+
+  private void writeCentralDirectory() throws IOException {
+    long nStart = oOut.n;
+    ByteArrayOutputStream oH = new ByteArrayOutputStream(1 << 12);
+    for(Part oP:oWritten) {
+      boolean bSize = oP.nSize >= ZIP32_MAX;
+      boolean bComp = oP.nCompSize >= ZIP32_MAX;
+      boolean bOffset = oP.nOffset >= ZIP32_MAX;
+      int nExtra = 8 * ((bSize?1:0) + (bComp?1:0) + (bOffset?1:0));
+      int nVersion = (nExtra > 0)?45:20;
+      putInt(oH,0x02014b50);
+      putShort(oH,nVersion);      // version made by
+      putShort(oH,nVersion);      // version needed
+      putShort(oH,oP.bDescriptor?0x0808:0x0800);
+      putShort(oH,oP.bStored?0:8);
+      putShort(oH,nDosTime);
+      putShort(oH,nDosDate);
+      putInt(oH,(int)oP.nCrc);
+      putInt(oH,bComp?-1:(int)oP.nCompSize);
+      putInt(oH,bSize?-1:(int)oP.nSize);
+      putShort(oH,oP.oName.length);
+      putShort(oH,(nExtra > 0)?nExtra+4:0);
+      putShort(oH,0);             // comment
+      putShort(oH,0);             // disk
+      putShort(oH,0);             // internal attributes
+      putInt(oH,0);               // external attributes
+      putInt(oH,bOffset?-1:(int)oP.nOffset);
+      oH.write(oP.oName);
+      if (nExtra > 0) {
+        putShort(oH,0x0001);      // zip64 extra, the values replaced by -1 in this order
+        putShort(oH,nExtra);
+        if (bSize) putLong(oH,oP.nSize);
+        if (bComp) putLong(oH,oP.nCompSize);
+        if (bOffset) putLong(oH,oP.nOffset);
+      }
+    }
+    long nSize = oH.size();
+    int nParts = oWritten.size();
+    boolean bZip64 = (nParts >= 0xFFFF) || (nStart >= ZIP32_MAX) || (nSize >= ZIP32_MAX);
+    if (bZip64) {
+      long nEnd64 = nStart + nSize;
+      putInt(oH,0x06064b50);      // zip64 end of central directory
+      putLong(oH,44);
+      putShort(oH,45);
+      putShort(oH,45);
+      putInt(oH,0);
+      putInt(oH,0);
+      putLong(oH,nParts);
+      putLong(oH,nParts);
+      putLong(oH,nSize);
+      putLong(oH,nStart);
+      putInt(oH,0x07064b50);      // its locator
+      putInt(oH,0);
+      putLong(oH,nEnd64);
+      putInt(oH,1);
+    }
+    putInt(oH,0x06054b50);
+    putShort(oH,0);
+    putShort(oH,0);
+    putShort(oH,bZip64?0xFFFF:nParts);
+    putShort(oH,bZip64?0xFFFF:nParts);
+    putInt(oH,bZip64?-1:(int)nSize);
+    putInt(oH,bZip64?-1:(int)nStart);
+    putShort(oH,0);
+    oH.writeTo(oOut);
+  }
+
+  private static void putShort(ByteArrayOutputStream oB,int n) {
+    oB.write(n & 0xFF);
+    oB.write((n >>> 8) & 0xFF);
+  }
+
+  private static void putInt(ByteArrayOutputStream oB,int n) {
+    putShort(oB,n & 0xFFFF);
+    putShort(oB,(n >>> 16) & 0xFFFF);
+  }
+
+  private static void putLong(ByteArrayOutputStream oB,long n) {
+    putInt(oB,(int)n);
+    putInt(oB,(int)(n >>> 32));
+  }
+}
@@ -49,13 +49,16 @@ import org.apache.poi.ss.usermodel.CellType;
   This selection capability is used to create a regression test facility for the WriteExcel set of methods.
   <p>
   The ReadClassFile class is also used to point to a sheet that can be cloned using the {@Link WriteExcel#clone} method.
+  <p>
+  A ReadExcelFile must only be used by one thread at a time but separate instances can read Workbooks in parallel.
+  The ReadExcelRecord classes used with it should not keep mutable state such as a <code>Matcher</code> in static fields.
 
   <h5>Example</h5>
   This reads the file <i>demo-excel-inp.xlsx</i> in the demo package.
   <p>
   <pre style="font-size:90%;">
   public static class OpenBalRec extends ReadExcelRecord {
-    static Matcher oM = Pattern.compile("^[ALS][0-9]{3}$").matcher("");
+    static final Pattern oPat = Pattern.compile("^[ALS][0-9]{3}$");
     public String[] getColMap() {
       return "3=sLab;2=sName;4=dVal".split("/");
     }
@@ -66,7 +69,7 @@ import org.apache.poi.ss.usermodel.CellType;
     &#64;Override
     public boolean canAccept() throws Exception {
       if (this.sLab == null) return false;
-      if (oM.reset(this.sLab).find()) return true;
+      if (oPat.matcher(this.sLab).find()) return true;
       return false;
     }
   }
@@ -91,6 +94,7 @@ public class ReadExcelFile {
   Workbook oWB;
   FormulaEvaluator oFE;
   String sWorkbookFile;
+  ExcelStats oStats = new ExcelStats();
 
   private static void log(String sMsg) {System.out.println(sMsg);}
   private static Exception e(String s) {return new Exception(s); }
@@ -135,10 +139,29 @@ public class ReadExcelFile {
   */
   public void openFile(String sFile) throws Exception {
     log("Opening "+sFile);
+    long nStart = System.nanoTime();
     oWB = new XSSFWorkbook(new FileInputStream(sFile));
     if (oWB == null) throw e("oWB is null");
     sWorkbookFile = sFile;
     oFE = oWB.getCreationHelper().createFormulaEvaluator();
+    oStats.nOpenFileNanos += System.nanoTime() - nStart;
+  }
+
+  /**
+    Get the counters and timings since this instance was created or {@link ReadExcelFile#resetStats resetStats} was called:
+    the rows read and accepted by {@link ReadExcelRecord#canAccept canAccept} and the time spent in
+    {@link ReadExcelFile#openFile openFile} and the <code>readExcel</code> methods.
+    @return A snapshot, later reads do not change it.
+  */
+  public ExcelStats getStats() {
+    return oStats.copy();
+  }
+
+  /**
+    Zero the counters and timings returned by {@link ReadExcelFile#getStats getStats}.
+  */
+  public void resetStats() {
+    oStats = new ExcelStats();
   }
 
   /**
@@ -209,6 +232,15 @@ public class ReadExcelFile {
     */
 
   public ReadExcelRecord[] readExcel(String sSheet,Class<ReadExcelRecord> oRecCls) throws Exception {
+    long nStart = System.nanoTime();
+    try {
+      return readRows(sSheet,oRecCls);
+    } finally {
+      oStats.nReadNanos += System.nanoTime() - nStart;
+    }
+  }
+
+  private ReadExcelRecord[] readRows(String sSheet,Class<ReadExcelRecord> oRecCls) throws Exception {
     RowColSet oRCS = makeColMap(oRecCls);
     if (oWB == null) throw e("oWB is null");
     Sheet oSheet    = oWB.getSheet(sSheet);
@@ -221,6 +253,7 @@ public class ReadExcelFile {
       for(int i=2,iMax=999; i<iMax; i++) {
         Row oRow        = oSheet.getRow(i);
         if (oRow == null) break;
+        oStats.nRowsRead++;
         Object oVal = readCell(oRow,(oCMs[0].nCol-1),false);
         if (oVal == null) break;
         processRow(oLst,nRows++,oRow,oCMs,oRecCls);
@@ -253,6 +286,15 @@ public class ReadExcelFile {
     */
 
   public ReadExcelRecord[] readExcelSmart(String sSheet,Class<?> oRecCls,int nStartRow,boolean bSkipBlank) throws Exception {
+    long nStart = System.nanoTime();
+    try {
+      return readRowsSmart(sSheet,oRecCls,nStartRow,bSkipBlank);
+    } finally {
+      oStats.nReadNanos += System.nanoTime() - nStart;
+    }
+  }
+
+  private ReadExcelRecord[] readRowsSmart(String sSheet,Class<?> oRecCls,int nStartRow,boolean bSkipBlank) throws Exception {
     RowColSet oRCS = makeColMap(oRecCls);
     if (oWB == null) throw e("oWB is null");
     Sheet oSheet    = oWB.getSheet(sSheet);
@@ -266,6 +308,7 @@ public class ReadExcelFile {
         nRows += 1;
         Row oRow        = oSheet.getRow(i);
         if (oRow == null) continue;
+        oStats.nRowsRead++;
         Object oVal = readCell(oRow,(oCMs[0].nCol),false);
         if (oVal == null) continue;
         nActRows += 1;
@@ -366,6 +409,7 @@ public class ReadExcelFile {
       oRER.oRow = oRow;
     }
     if (oRER.canAccept()) {
+      oStats.nRowsAccepted++;
       oLst.add(oRER);
     }
   }
@@ -0,0 +1,228 @@
+// RecordMap - The columns Area.addRecords writes from the fields of a record class
+
+// Copyright (c) 2019 Rexcel Systems Inc, All Rights Reserved.
+
+/*
+ @license
+ Copyright (c) 2019 by Steve Pritchard of Rexcel Systems Inc.
+ This file is made available under the terms of the Creative Commons Attribution-ShareAlike 3.0 license
+ http://creativecommons.org/licenses/by-sa/3.0/.
+ Contact: public.pritchard@gmail.com
+*/
+
+package com.psec.excel;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+  The columns of a record class written by {@link WriteExcel.Area#addRecords(Iterable) addRecords}, taken from its
+  {@link ExcelCol} fields or from a column map.
+  <p>
+  The getter of each field is a <code>MethodHandle</code> made once per class and typed to return a <code>long</code>,
+  a <code>double</code> or an Object, so writing a record neither boxes its primitive fields nor uses reflection.
+  The maps are kept with the class, those from a column map by the map string.
+*/
+
+class RecordMap {
+  static final byte KIND_LONG   = 0;   // int, long, short or byte field
+  static final byte KIND_DOUBLE = 1;   // double or float field
+  static final byte KIND_NUMBER = 2;   // Number object, null for an empty cell
+  static final byte KIND_TEXT   = 3;   // CharSequence
+  static final byte KIND_OBJECT = 4;   // written as its toString
+
+  private static final MethodType LONG_GETTER   = MethodType.methodType(long.class,Object.class);
+  private static final MethodType DOUBLE_GETTER = MethodType.methodType(double.class,Object.class);
+  private static final MethodType OBJECT_GETTER = MethodType.methodType(Object.class,Object.class);
+
+  /** One column, from one field. */
+  static class Col {
+    int          nCol;
+    String       sField;
+    String       sHdr;
+    String       sFmt;     // DataFormat name, null for text
+    String       sStyle;   // null for none
+    byte         nKind;
+    MethodHandle oMH;      // (Object) returning long, double or Object by nKind
+  }
+
+  final Class<?> oCls;
+  final Col[]    oCols;   // by column
+
+  private static final ClassValue<RecordMap> oByAnnotation = new ClassValue<RecordMap>() {
+    @Override
+    protected RecordMap computeValue(Class<?> oCls) {
+      try {
+        return new RecordMap(oCls,null);
+      } catch(Exception e) {
+        throw new IllegalStateException(e);   // not kept, made again by the next call
+      }
+    }
+  };
+
+  private static final ClassValue<ConcurrentHashMap<String,RecordMap>> oByColMap = new ClassValue<ConcurrentHashMap<String,RecordMap>>() {
+    @Override
+    protected ConcurrentHashMap<String,RecordMap> computeValue(Class<?> oCls) {
+      return new ConcurrentHashMap<String,RecordMap>();
+    }
+  };
+
+  /** The map of oCls from sColMap, or from its ExcelCol fields when sColMap is null. */
+  static RecordMap get(Class<?> oCls,String sColMap) throws Exception {
+    if (sColMap == null) {
+      try {
+        return oByAnnotation.get(oCls);
+      } catch(IllegalStateException e) {
+        if (e.getCause() instanceof Exception) throw (Exception)e.getCause();
+        throw e;
+      }
+    }
+    ConcurrentHashMap<String,RecordMap> oMaps = oByColMap.get(oCls);
+    RecordMap oRM = oMaps.get(sColMap);
+    if (oRM == null) {
+      oRM = new RecordMap(oCls,sColMap);
+      oMaps.putIfAbsent(sColMap,oRM);
+    }
+    return oRM;
+  }
+
+  /*
+   * sColMap is a list of columns separated by ';', each [n=]field[,fmt[,style[,header]]] where n is the column relative
+   * to 0, by default the one after the column before.  Parts left empty are taken from the ExcelCol of the field.
+   */
+  private RecordMap(Class<?> oCls,String sColMap) throws Exception {
+    this.oCls = oCls;
+    ArrayList<Col> oLst = new ArrayList<Col>();
+    int nNext = 0;
+    if (sColMap == null) {
+      for(Field oFld:getFields(oCls)) {
+        ExcelCol oEC = oFld.getAnnotation(ExcelCol.class);
+        if (oEC == null) continue;
+        Col oC = makeCol(oFld,(oEC.col() < 0)?nNext:oEC.col(),oEC.fmt(),oEC.style(),oEC.hdr());
+        nNext = oC.nCol + 1;
+        oLst.add(oC);
+      }
+      if (oLst.size() == 0) throw new Exception("Class "+oCls.getName()+" has no @ExcelCol fields and no column map was given");
+    } else {
+      for(String sEntry:sColMap.split(";")) {
+        sEntry = sEntry.trim();
+        if (sEntry.length() == 0) continue;
+        String[] sParts = sEntry.split(",",4);
+        String sField = sParts[0].trim();
+        int nCol = nNext;
+        int ix = sField.indexOf('=');
+        if (ix >= 0) {
+          try {
+            nCol = Integer.parseInt(sField.substring(0,ix).trim());
+          } catch(NumberFormatException e) {
+            throw new Exception("Column map entry "+sEntry+" does not start with a column number");
+          }
+          if (nCol < 0) throw new Exception("Column map entry "+sEntry+" has a negative column");
+          sField = sField.substring(ix+1).trim();
+        }
+        Field oFld = findField(oCls,sField);
+        if (oFld == null) throw new Exception("Class "+oCls.getName()+" has no field "+sField+" for column map entry "+sEntry);
+        ExcelCol oEC = oFld.getAnnotation(ExcelCol.class);
+        String sFmt   = part(sParts,1,(oEC == null)?"":oEC.fmt());
+        String sStyle = part(sParts,2,(oEC == null)?"":oEC.style());
+        String sHdr   = part(sParts,3,(oEC == null)?"":oEC.hdr());
+        Col oC = makeCol(oFld,nCol,sFmt,sStyle,sHdr);
+        nNext = nCol + 1;
+        oLst.add(oC);
+      }
+      if (oLst.size() == 0) throw new Exception("Column map "+sColMap+" has no columns");
+    }
+    oCols = oLst.toArray(new Col[oLst.size()]);
+    Arrays.sort(oCols,(a,b) -> Integer.compare(a.nCol,b.nCol));
+    for(int i=1; i<oCols.length; i++) {
+      if (oCols[i].nCol == oCols[i-1].nCol) {
+        throw new Exception("Column "+oCols[i].nCol+" of "+oCls.getName()+" is given to both "+oCols[i-1].sField+" and "+oCols[i].sField);
+      }
+    }
+  }
+
+  /** The header of the columns for {@link WriteExcel.Area#header(String) header}, with empty columns for the gaps. */
+  String getHeader() {
+    StringBuilder oSB = new StringBuilder();
+    int nCol = 0;
+    for(Col oC:oCols) {
+      for(; nCol<=oC.nCol; nCol++) {
+        if (nCol > 0) oSB.append('/');
+      }
+      oSB.append(oC.sHdr);
+    }
+    return oSB.toString();
+  }
+
+  private static String part(String[] sParts,int ix,String sDef) {
+    String s = (ix < sParts.length)?sParts[ix].trim():"";
+    return (s.length() == 0)?sDef:s;
+  }
+
+  // instance fields of oCls and its superclasses, those of the superclasses first, each class in getDeclaredFields order
+  // which is not specified, see ExcelCol.col
+  private static ArrayList<Field> getFields(Class<?> oCls) {
+    ArrayList<Field> oLst = (oCls.getSuperclass() == null)?new ArrayList<Field>():getFields(oCls.getSuperclass());
+    for(Field oFld:oCls.getDeclaredFields()) {
+      if (!Modifier.isStatic(oFld.getModifiers())) oLst.add(oFld);
+    }
+    return oLst;
+  }
+
+  private static Field findField(Class<?> oCls,String sName) {
+    for(Class<?> c=oCls; c!=null; c=c.getSuperclass()) {
+      for(Field oFld:c.getDeclaredFields()) {
+        if (oFld.getName().equals(sName) && !Modifier.isStatic(oFld.getModifiers())) return oFld;
+      }
+    }
+    return null;
+  }
+
+  private static Col makeCol(Field oFld,int nCol,String sFmt,String sStyle,String sHdr) throws Exception {
+    Col oC = new Col();
+    oC.nCol   = nCol;
+    oC.sField = oFld.getName();
+    oC.sHdr   = (sHdr.length() == 0)?oFld.getName():sHdr;
+    oC.sStyle = (sStyle.length() == 0)?null:sStyle;
+    if (oC.sHdr.indexOf('/') >= 0) throw new Exception("Header "+oC.sHdr+" of field "+oC.sField+" cannot contain '/'");
+    Class<?> oType = oFld.getType();
+    MethodType oMT = OBJECT_GETTER;
+    String sDefFmt = null;
+    if ((oType == int.class) || (oType == long.class) || (oType == short.class) || (oType == byte.class)) {
+      oC.nKind = KIND_LONG;
+      oMT = LONG_GETTER;
+      sDefFmt = "@int";
+    } else if ((oType == double.class) || (oType == float.class)) {
+      oC.nKind = KIND_DOUBLE;
+      oMT = DOUBLE_GETTER;
+      sDefFmt = "@num";
+    } else if (Number.class.isAssignableFrom(oType)) {
+      oC.nKind = KIND_NUMBER;
+      boolean bInt = (oType == Integer.class) || (oType == Long.class) || (oType == Short.class) || (oType == Byte.class)
+        || (oType == BigInteger.class);
+      sDefFmt = bInt?"@int":"@num";
+    } else if (CharSequence.class.isAssignableFrom(oType)) {
+      oC.nKind = KIND_TEXT;
+    } else {
+      oC.nKind = KIND_OBJECT;
+    }
+    if (sDefFmt == null) {
+      if (sFmt.length() > 0) throw new Exception("Field "+oC.sField+" is not numeric, it cannot have the DataFormat "+sFmt);
+    } else {
+      oC.sFmt = (sFmt.length() == 0)?sDefFmt:sFmt;
+    }
+    try {
+      oFld.setAccessible(true);
+    } catch(RuntimeException e) {
+      // a public field of a public class is read without it
+    }
+    oC.oMH = MethodHandles.lookup().unreflectGetter(oFld).asType(oMT);
+    return oC;
+  }
+}
@@ -0,0 +1,280 @@
+// RowSpill - Buffered rows of an Area kept in a memory mapped temporary file
+
+// Copyright (c) 2019 Rexcel Systems Inc, All Rights Reserved.
+
+/*
+ @license
+ Copyright (c) 2019 by Steve Pritchard of Rexcel Systems Inc.
+ This file is made available under the terms of the Creative Commons Attribution-ShareAlike 3.0 license
+ http://creativecommons.org/licenses/by-sa/3.0/.
+ Contact: public.pritchard@gmail.com
+*/
+
+package com.psec.excel;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+  Holds the rows of an Area that went over its {@link WriteExcel.Area#spillAbove spillAbove} limit in a temporary file, so
+  the heap used does not depend on the rows buffered.
+  <p>
+  Rows are appended in a compact binary form to segments of the file mapped into memory, and read back in the order they
+  were added by a {@link RowSpill.Cursor Cursor}.  A row is its column count, its row format and its values, each value a
+  length followed by its characters, one to three bytes each as in UTF-8 but with every char encoded on its own so any
+  String comes back unchanged.  A Cursor gives the length of a value without making the String.
+  <p>
+  The file is deleted as soon as it is open where the platform allows it, so it goes away however the process ends, and
+  otherwise by {@link RowSpill#close close}, which the WriteExcel calls when the Area is written, fails or is closed.
+  The disk space of a mapped segment is given back when the segment is garbage collected.
+*/
+
+class RowSpill {
+  static final int SEGMENT = 64 << 20;
+
+  private Path        oPath;                  // null once deleted
+  private FileChannel oFC;
+  private ArrayList<MappedByteBuffer> oSegs = new ArrayList<MappedByteBuffer>();
+  private int[]       nUsed = new int[16];    // bytes written to each segment
+  private int         nSeg;                   // segment being written
+  private long        nMapped;                // file bytes mapped so far
+  private int         nRows;
+  private long        nBytes;                 // bytes of the rows held
+  private byte[]      oBuf = new byte[1024];  // the row being encoded
+  private int         nBuf;
+
+  RowSpill() throws IOException {
+    oPath = Files.createTempFile("writeexcel",".spill");
+    try {
+      oFC = FileChannel.open(oPath,StandardOpenOption.READ,StandardOpenOption.WRITE);
+    } catch(IOException e) {
+      Files.deleteIfExists(oPath);
+      throw e;
+    }
+    try {
+      Files.delete(oPath);    // an open file cannot be deleted on Windows, close does it there
+      oPath = null;
+    } catch(IOException e) {
+      // deleted by close
+    }
+  }
+
+  int size() {
+    return nRows;
+  }
+
+  long getBytes() {
+    return nBytes;
+  }
+
+  /** Appends sRow with its row format. */
+  void add(String[] sRow,String sRowFmt) throws IOException {
+    if (oFC == null) throw new IOException("Spill file has been closed");
+    nBuf = 0;
+    putInt(sRow.length);
+    putString(sRowFmt);
+    for(String s:sRow) putString(s);
+    MappedByteBuffer oB = (nSeg < oSegs.size())?oSegs.get(nSeg):null;
+    if ((oB == null) || (nUsed[nSeg] + nBuf > oB.capacity())) {
+      if (oB != null) nSeg++;
+      oB = segment(nSeg,nBuf);
+    }
+    oB.position(nUsed[nSeg]);
+    oB.put(oBuf,0,nBuf);
+    nUsed[nSeg] += nBuf;
+    nBytes += nBuf;
+    nRows++;
+  }
+
+  /** Drops the rows, the file and its segments are kept for the next rows. */
+  void clear() {
+    Arrays.fill(nUsed,0);
+    nSeg = 0;
+    nRows = 0;
+    nBytes = 0;
+  }
+
+  /** Closes and deletes the file, the rows can no longer be read. */
+  void close() throws IOException {
+    oSegs.clear();
+    nRows = 0;
+    if (oFC != null) {
+      oFC.close();
+      oFC = null;
+    }
+    if (oPath != null) {
+      try {
+        Files.deleteIfExists(oPath);
+      } catch(IOException e) {
+        oPath.toFile().deleteOnExit();  // a segment still mapped keeps it open on Windows
+      }
+      oPath = null;
+    }
+  }
+
+  Cursor cursor() {
+    return new Cursor();
+  }
+
+  // segment ix, mapping a new one at the end of the file when needed
+  private MappedByteBuffer segment(int ix,int nMin) throws IOException {
+    while(ix < oSegs.size()) {
+      if (oSegs.get(ix).capacity() >= nMin) return oSegs.get(ix);
+      ix = ++nSeg;  // too small for this row, left empty
+    }
+    int nSize = Math.max(SEGMENT,nMin);
+    MappedByteBuffer oB = oFC.map(FileChannel.MapMode.READ_WRITE,nMapped,nSize);
+    nMapped += nSize;
+    oSegs.add(oB);
+    if (oSegs.size() > nUsed.length) nUsed = Arrays.copyOf(nUsed,nUsed.length*2);
+    return oB;
+  }
+
+  private void putInt(int n) {
+    fit(5);
+    while((n & ~0x7F) != 0) {
+      oBuf[nBuf++] = (byte)((n & 0x7F) | 0x80);
+      n >>>= 7;
+    }
+    oBuf[nBuf++] = (byte)n;
+  }
+
+  // length in bytes + 1, 0 for null, then the chars
+  private void putString(String s) {
+    if (s == null) {
+      putInt(0);
+      return;
+    }
+    int nLen = s.length();
+    int nSize = 0;
+    for(int i=0; i<nLen; i++) {
+      char c = s.charAt(i);
+      nSize += (c < 0x80)?1:(c < 0x800)?2:3;
+    }
+    putInt(nSize+1);
+    fit(nSize);
+    for(int i=0; i<nLen; i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        oBuf[nBuf++] = (byte)c;
+      } else if (c < 0x800) {
+        oBuf[nBuf++] = (byte)(0xC0 | (c >> 6));
+        oBuf[nBuf++] = (byte)(0x80 | (c & 0x3F));
+      } else {
+        oBuf[nBuf++] = (byte)(0xE0 | (c >> 12));
+        oBuf[nBuf++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+        oBuf[nBuf++] = (byte)(0x80 | (c & 0x3F));
+      }
+    }
+  }
+
+  private void fit(int n) {
+    if (nBuf + n > oBuf.length) oBuf = Arrays.copyOf(oBuf,Math.max(nBuf+n,oBuf.length*2));
+  }
+
+  /** Reads the rows from the first, one at a time.  The values of the current row are made into Strings when asked for. */
+  class Cursor {
+    private int              nRow;
+    private int              nSegIx;
+    private int              nPos;
+    private MappedByteBuffer oB;
+    private int              nLen;
+    private String           sRowFmt;
+    private int[]            nOffs = new int[16];   // first byte of each value
+    private int[]            nSizes = new int[16];  // bytes of each value + 1, 0 for null
+
+    /** Moves to the next row, false when there are no more. */
+    boolean next() {
+      if (nRow >= nRows) return false;
+      while(nPos >= nUsed[nSegIx] || (oB == null)) {
+        if (oB != null) nSegIx++;
+        oB = oSegs.get(nSegIx);
+        nPos = 0;
+      }
+      nLen = getInt();
+      int nSize = getInt();
+      sRowFmt = (nSize == 0)?null:decode(nPos,nSize-1);
+      nPos += Math.max(nSize-1,0);
+      if (nLen > nOffs.length) {
+        nOffs = new int[Math.max(nLen,nOffs.length*2)];
+        nSizes = new int[nOffs.length];
+      }
+      for(int i=0; i<nLen; i++) {
+        nSize = getInt();
+        nOffs[i] = nPos;
+        nSizes[i] = nSize;
+        nPos += Math.max(nSize-1,0);
+      }
+      nRow++;
+      return true;
+    }
+
+    int getLength() {
+      return nLen;
+    }
+
+    String getRowFmt() {
+      return sRowFmt;
+    }
+
+    String get(int nCol) {
+      return (nSizes[nCol] == 0)?null:decode(nOffs[nCol],nSizes[nCol]-1);
+    }
+
+    /** Length of value nCol, 0 for null. */
+    int getTextLength(int nCol) {
+      return chars(nOffs[nCol],nOffs[nCol]+Math.max(nSizes[nCol]-1,0));
+    }
+
+    /** Length of value nCol after a {...} prefix, as used for the column width. */
+    int getDataLength(int nCol) {
+      int nFrom = nOffs[nCol];
+      int nTo = nFrom+Math.max(nSizes[nCol]-1,0);
+      if ((nFrom < nTo) && (oB.get(nFrom) == '{')) {
+        for(int i=nTo-1; i>=nFrom; i--) {
+          if (oB.get(i) == '}') return chars(i+1,nTo);
+        }
+      }
+      return chars(nFrom,nTo);
+    }
+
+    private int chars(int nFrom,int nTo) {
+      int n = 0;
+      for(int i=nFrom; i<nTo; i++) {
+        if ((oB.get(i) & 0xC0) != 0x80) n++;
+      }
+      return n;
+    }
+
+    private int getInt() {
+      int n = 0;
+      for(int nShift=0; ; nShift+=7) {
+        byte b = oB.get(nPos++);
+        n |= (b & 0x7F) << nShift;
+        if (b >= 0) return n;
+      }
+    }
+
+    private String decode(int nFrom,int nBytes) {
+      char[] oChars = new char[nBytes];
+      int n = 0;
+      for(int i=nFrom,iMax=nFrom+nBytes; i<iMax; ) {
+        int b = oB.get(i++) & 0xFF;
+        if (b < 0x80) {
+          oChars[n++] = (char)b;
+        } else if (b < 0xE0) {
+          oChars[n++] = (char)(((b & 0x1F) << 6) | (oB.get(i++) & 0x3F));
+        } else {
+          int b2 = oB.get(i++) & 0x3F;
+          oChars[n++] = (char)(((b & 0x0F) << 12) | (b2 << 6) | (oB.get(i++) & 0x3F));
+        }
+      }
+      return new String(oChars,0,n);
+    }
+  }
+}
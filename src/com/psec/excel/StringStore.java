@@ -0,0 +1,213 @@
+// StringStore - Off heap string table for the direct engine
+
+// Copyright (c) 2019 Rexcel Systems Inc, All Rights Reserved.
+
+/*
+ @license
+ Copyright (c) 2019 by Steve Pritchard of Rexcel Systems Inc.
+ This file is made available under the terms of the Creative Commons Attribution-ShareAlike 3.0 license
+ http://creativecommons.org/licenses/by-sa/3.0/.
+ Contact: public.pritchard@gmail.com
+*/
+
+package com.psec.excel;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+  Holds the strings of the {@link DirectEngine} as UTF-8 in direct (off heap) <code>ByteBuffers</code>, numbered from 0 in
+  the order they were added.
+  <p>
+  A hashed store returns the existing number for a string it already holds, which is the shared string table.
+  An unhashed store only appends and is used for the inline strings of high cardinality columns.
+  The offsets, hashes and hash slots are direct buffers too, so the heap used does not grow with the number of strings.
+  <p>
+  The methods are synchronized as the Sheets of {@link WriteExcel#parallelSheets parallelSheets} share the store, a Sheet
+  reading a string while another adds one that grows the buffers.
+*/
+
+class StringStore {
+  private static final int CHUNK = 1 << 20;
+
+  private final boolean bHashed;
+  private ArrayList<ByteBuffer> oChunks = new ArrayList<ByteBuffer>();
+  private ByteBuffer oCur;
+  private LongBuffer oOffs;    // by number: chunk index << 32 | position
+  private IntBuffer  oHashes;  // by number
+  private IntBuffer  oSlots;   // number + 1 by hash slot, 0 when free
+  private int        nMask;
+  private int        nCount;
+  private byte[]     oEnc = new byte[256];  // the last string encoded
+  private int        nEnc;
+
+  StringStore(boolean bHashed) {
+    this.bHashed = bHashed;
+    oOffs = ByteBuffer.allocateDirect(1024*8).asLongBuffer();
+    if (bHashed) {
+      oHashes = ByteBuffer.allocateDirect(1024*4).asIntBuffer();
+      oSlots = ByteBuffer.allocateDirect(2048*4).asIntBuffer();
+      nMask = 2047;
+    }
+  }
+
+  synchronized int size() {
+    return nCount;
+  }
+
+  /**
+    Adds sVal and returns its number.  A hashed store returns <code>~number</code> (negative) when sVal was not held before.
+  */
+  synchronized int add(String sVal) {
+    encode(sVal);
+    if (!bHashed) return append();
+    int nHash = sVal.hashCode();
+    int ix = probe(nHash);
+    int v = oSlots.get(ix);
+    if (v != 0) return v - 1;
+    int nId = append();
+    if (nId >= oHashes.capacity()) oHashes = grow(oHashes);
+    oHashes.put(nId,nHash);
+    oSlots.put(ix,nId+1);
+    if (nCount*4 > (nMask+1)*3) rehash();
+    return ~nId;
+  }
+
+  /** The number of sVal or -1 when it is not held.  Hashed store only. */
+  synchronized int find(String sVal) {
+    encode(sVal);
+    int v = oSlots.get(probe(sVal.hashCode()));
+    return v - 1;
+  }
+
+  synchronized String get(int nId) {
+    ByteBuffer oB = chunkOf(nId);
+    int nPos = (int)oOffs.get(nId);
+    int nLen = oB.getInt(nPos);
+    byte[] oBytes = new byte[nLen];
+    for(int i=0; i<nLen; i++) oBytes[i] = oB.get(nPos+4+i);
+    return new String(oBytes,StandardCharsets.UTF_8);
+  }
+
+  /** Writes string nId escaped as the text of a &lt;t&gt; element. */
+  void write(Writer oW,int nId) throws Exception {
+    DirectEngine.writeEscaped(oW,get(nId));
+  }
+
+  /** Releases the buffers, the store cannot be used after this. */
+  synchronized void free() {
+    oChunks = null;
+    oCur = null;
+    oOffs = null;
+    oHashes = null;
+    oSlots = null;
+  }
+
+  // slot holding the last encoded string or the free slot where it goes
+  private int probe(int nHash) {
+    int ix = mix(nHash) & nMask;
+    while(true) {
+      int v = oSlots.get(ix);
+      if (v == 0) return ix;
+      if ((oHashes.get(v-1) == nHash) && sameAsEncoded(v-1)) return ix;
+      ix = (ix+1) & nMask;
+    }
+  }
+
+  private static int mix(int h) {
+    h *= 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private void rehash() {
+    int nSlots = (nMask+1)*2;
+    IntBuffer oNew = ByteBuffer.allocateDirect(nSlots*4).asIntBuffer();
+    int nNewMask = nSlots - 1;
+    for(int nId=0; nId<nCount; nId++) {
+      int ix = mix(oHashes.get(nId)) & nNewMask;
+      while(oNew.get(ix) != 0) ix = (ix+1) & nNewMask;
+      oNew.put(ix,nId+1);
+    }
+    oSlots = oNew;
+    nMask = nNewMask;
+  }
+
+  private boolean sameAsEncoded(int nId) {
+    ByteBuffer oB = chunkOf(nId);
+    int nPos = (int)oOffs.get(nId);
+    if (oB.getInt(nPos) != nEnc) return false;
+    nPos += 4;
+    for(int i=0; i<nEnc; i++) {
+      if (oB.get(nPos+i) != oEnc[i]) return false;
+    }
+    return true;
+  }
+
+  private ByteBuffer chunkOf(int nId) {
+    return oChunks.get((int)(oOffs.get(nId) >>> 32));
+  }
+
+  // stores the encoded string as its length and bytes, long strings get a chunk of their own
+  private int append() {
+    int nNeed = nEnc + 4;
+    if ((oCur == null) || (oCur.remaining() < nNeed)) {
+      oCur = ByteBuffer.allocateDirect(Math.max(CHUNK,nNeed));
+      oChunks.add(oCur);
+    }
+    int nPos = oCur.position();
+    oCur.putInt(nEnc);
+    oCur.put(oEnc,0,nEnc);
+    int nId = nCount++;
+    if (nId >= oOffs.capacity()) oOffs = grow(oOffs);
+    oOffs.put(nId,((long)(oChunks.size()-1) << 32) | nPos);
+    return nId;
+  }
+
+  private static LongBuffer grow(LongBuffer oOld) {
+    LongBuffer oNew = ByteBuffer.allocateDirect(oOld.capacity()*2*8).asLongBuffer();
+    oOld.clear();
+    oNew.put(oOld);
+    oNew.clear();
+    return oNew;
+  }
+
+  private static IntBuffer grow(IntBuffer oOld) {
+    IntBuffer oNew = ByteBuffer.allocateDirect(oOld.capacity()*2*4).asIntBuffer();
+    oOld.clear();
+    oNew.put(oOld);
+    oNew.clear();
+    return oNew;
+  }
+
+  // UTF-8 into oEnc without creating a byte[] per string, unpaired surrogates become '?' as in String.getBytes
+  private void encode(String s) {
+    int nLen = s.length();
+    if (oEnc.length < nLen*3) oEnc = new byte[Math.max(nLen*3,oEnc.length*2)];
+    int n = 0;
+    for(int i=0; i<nLen; i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        oEnc[n++] = (byte)c;
+      } else if (c < 0x800) {
+        oEnc[n++] = (byte)(0xC0 | (c >> 6));
+        oEnc[n++] = (byte)(0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c) && (i+1 < nLen) && Character.isLowSurrogate(s.charAt(i+1))) {
+        int cp = Character.toCodePoint(c,s.charAt(++i));
+        oEnc[n++] = (byte)(0xF0 | (cp >> 18));
+        oEnc[n++] = (byte)(0x80 | ((cp >> 12) & 0x3F));
+        oEnc[n++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+        oEnc[n++] = (byte)(0x80 | (cp & 0x3F));
+      } else if (Character.isSurrogate(c)) {
+        oEnc[n++] = (byte)'?';
+      } else {
+        oEnc[n++] = (byte)(0xE0 | (c >> 12));
+        oEnc[n++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+        oEnc[n++] = (byte)(0x80 | (c & 0x3F));
+      }
+    }
+    nEnc = n;
+  }
+}
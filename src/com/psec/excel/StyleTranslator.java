@@ -0,0 +1,160 @@
+// StyleTranslator - Maps the Cell Styles of other Workbooks into the Workbook being written
+
+// Copyright (c) 2019 Rexcel Systems Inc, All Rights Reserved.
+
+/*
+ @license
+ Copyright (c) 2019 by Steve Pritchard of Rexcel Systems Inc.
+ This file is made available under the terms of the Creative Commons Attribution-ShareAlike 3.0 license
+ http://creativecommons.org/licenses/by-sa/3.0/.
+ Contact: public.pritchard@gmail.com
+*/
+
+package com.psec.excel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.apache.poi.xssf.usermodel.XSSFFont;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.xssf.usermodel.extensions.XSSFCellBorder;
+import org.apache.poi.xssf.usermodel.extensions.XSSFCellFill;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTBorder;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTFill;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTFont;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTXf;
+
+/**
+  Translation table from the Cell Styles of source Workbooks to Cell Styles of the Workbook being written, used by
+  {@link WriteExcel#addExternalSheet addExternalSheet} and the other places Cells are copied.
+  <p>
+  Styles are keyed by the identity of the source Workbook and the index of the style in it, so a source style is translated
+  once and each further Cell costs an array lookup.  The fonts, number formats, fills and borders (which carry the colors)
+  of an XSSF source are each mapped once by their index as well, so styles sharing a font do not copy it again.
+  A style from the Workbook itself, or from a source that is not XSSF, is cloned with <code>cloneStyleFrom</code>.
+  Source styles that translate to the same xf share one new style.
+*/
+
+class StyleTranslator {
+  private Workbook      oWB;
+  private StylesTable   oTrg;
+  private IdentityHashMap<Workbook,Source> oSources = new IdentityHashMap<Workbook,Source>();
+  private HashMap<String,CellStyle>        oByXf = new HashMap<String,CellStyle>();  // translated styles by their xf
+
+  /** The translations for one source Workbook, entries hold the target index + 1 so 0 is not yet mapped. */
+  private static class Source {
+    StylesTable oST;       // null when the source is not XSSF
+    CellStyle[] oStyles = new CellStyle[64];
+    int[]       nFonts   = new int[16];
+    int[]       nFmts    = new int[16];
+    int[]       nFills   = new int[16];
+    int[]       nBorders = new int[16];
+  }
+
+  StyleTranslator(Workbook oWB,XSSFWorkbook oXWB) {
+    this.oWB = oWB;
+    this.oTrg = oXWB.getStylesSource();
+  }
+
+  /** The style of this Workbook to use for oSty of oSrcWB. */
+  CellStyle translate(Workbook oSrcWB,CellStyle oSty) {
+    Source oS = oSources.get(oSrcWB);
+    if (oS == null) {
+      oS = new Source();
+      oS.oST = stylesOf(oSrcWB);
+      if (oS.oST == oTrg) oS.oST = null;
+      oSources.put(oSrcWB,oS);
+    }
+    int ix = oSty.getIndex() & 0xFFFF;
+    if (ix >= oS.oStyles.length) oS.oStyles = Arrays.copyOf(oS.oStyles,Math.max(ix+1,oS.oStyles.length*2));
+    CellStyle oNewSty = oS.oStyles[ix];
+    if (oNewSty == null) {
+      if ((oS.oST != null) && (oSty instanceof XSSFCellStyle)) {
+        oNewSty = mapStyle(oS,(XSSFCellStyle)oSty);
+      } else if (oSty instanceof XSSFCellStyle) {
+        String sXf = ((XSSFCellStyle)oSty).getCoreXf().toString();
+        oNewSty = oByXf.get(sXf);
+        if (oNewSty == null) {
+          oNewSty = oWB.createCellStyle();
+          oNewSty.cloneStyleFrom(oSty);
+          oByXf.put(sXf,oNewSty);
+        }
+      } else {
+        oNewSty = oWB.createCellStyle();
+        oNewSty.cloneStyleFrom(oSty);
+      }
+      oS.oStyles[ix] = oNewSty;
+    }
+    return oNewSty;
+  }
+
+  private static StylesTable stylesOf(Workbook oWB) {
+    if (oWB instanceof SXSSFWorkbook) return ((SXSSFWorkbook)oWB).getXSSFWorkbook().getStylesSource();
+    if (oWB instanceof XSSFWorkbook) return ((XSSFWorkbook)oWB).getStylesSource();
+    return null;
+  }
+
+  // a new cell xf pointing at the mapped font, format, fill and border
+  private CellStyle mapStyle(Source oS,XSSFCellStyle oSty) {
+    CTXf oXf = (CTXf)oSty.getCoreXf().copy();
+    oXf.setFontId(mapFont(oS,(int)oXf.getFontId()));
+    oXf.setNumFmtId(mapFormat(oS,(int)oXf.getNumFmtId()));
+    oXf.setFillId(mapFill(oS,(int)oXf.getFillId()));
+    oXf.setBorderId(mapBorder(oS,(int)oXf.getBorderId()));
+    oXf.setXfId(0);   // the source cell style xfs are not copied
+    String sXf = oXf.toString();
+    CellStyle oNewSty = oByXf.get(sXf);
+    if (oNewSty == null) {
+      oNewSty = oWB.getCellStyleAt(oTrg.putCellXf(oXf) - 1);
+      oByXf.put(sXf,oNewSty);
+    }
+    return oNewSty;
+  }
+
+  private int mapFont(Source oS,int nId) {
+    oS.nFonts = fit(oS.nFonts,nId);
+    if (oS.nFonts[nId] == 0) {
+      XSSFFont oF = new XSSFFont((CTFont)oS.oST.getFontAt(nId).getCTFont().copy());
+      oS.nFonts[nId] = oTrg.putFont(oF) + 1;  // an equal font already held is reused
+    }
+    return oS.nFonts[nId] - 1;
+  }
+
+  private int mapFormat(Source oS,int nId) {
+    if (nId < 164) return nId;  // builtin formats have the same id everywhere
+    oS.nFmts = fit(oS.nFmts,nId);
+    if (oS.nFmts[nId] == 0) {
+      String sFmt = oS.oST.getNumberFormatAt((short)nId);
+      oS.nFmts[nId] = ((sFmt == null)?0:oTrg.putNumberFormat(sFmt)) + 1;
+    }
+    return oS.nFmts[nId] - 1;
+  }
+
+  private int mapFill(Source oS,int nId) {
+    oS.nFills = fit(oS.nFills,nId);
+    if (oS.nFills[nId] == 0) {
+      CTFill oCT = (CTFill)oS.oST.getFillAt(nId).getCTFill().copy();
+      oS.nFills[nId] = oTrg.putFill(new XSSFCellFill(oCT,oTrg.getIndexedColors())) + 1;
+    }
+    return oS.nFills[nId] - 1;
+  }
+
+  private int mapBorder(Source oS,int nId) {
+    oS.nBorders = fit(oS.nBorders,nId);
+    if (oS.nBorders[nId] == 0) {
+      CTBorder oCT = (CTBorder)oS.oST.getBorderAt(nId).getCTBorder().copy();
+      oS.nBorders[nId] = oTrg.putBorder(new XSSFCellBorder(oCT,oTrg.getTheme(),oTrg.getIndexedColors())) + 1;
+    }
+    return oS.nBorders[nId] - 1;
+  }
+
+  private static int[] fit(int[] nA,int nId) {
+    if (nId < nA.length) return nA;
+    return Arrays.copyOf(nA,Math.max(nId+1,nA.length*2));
+  }
+}
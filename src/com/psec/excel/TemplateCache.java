@@ -0,0 +1,141 @@
+// TemplateCache - Process wide cache of the template Workbooks given to WriteExcel.create
+
+// Copyright (c) 2019 Rexcel Systems Inc, All Rights Reserved.
+
+/*
+ @license
+ Copyright (c) 2019 by Steve Pritchard of Rexcel Systems Inc.
+ This file is made available under the terms of the Creative Commons Attribution-ShareAlike 3.0 license
+ http://creativecommons.org/licenses/by-sa/3.0/.
+ Contact: public.pritchard@gmail.com
+*/
+
+package com.psec.excel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+
+/**
+  Keeps template Workbooks in memory so each {@link WriteExcel#create(WriteExcel,String,String) create} with the same
+  template opens it without reading and inflating the file again.
+  <p>
+  A template is inflated once and held zipped again with its parts STORED, so opening it only copies the bytes of the parts.
+  <code>OPCPackage</code> only reads a package made from its parts, so the package is still opened from a stream.  The
+  cached bytes are never modified: each Workbook parses its own copy of the model from them, so Workbooks made from one
+  template are independent.
+  <p>
+  Entries are keyed by canonical path and checked against the file's modification time and length on every use, so a
+  changed template is read again.  The least recently used templates are dropped once the bytes held exceed the size limit.
+*/
+
+class TemplateCache {
+  private static long nLimit = 64L << 20;
+  private static long nHeld;
+  private static LinkedHashMap<String,Template> oTemplates = new LinkedHashMap<String,Template>(16,0.75f,true);
+
+  /** One template file, its parts STORED. */
+  private static class Template {
+    long    nModified;
+    long    nLength;
+    byte[]  oBytes;
+  }
+
+  /** Opens a package for sSrcName, from the cache when the file has not changed. */
+  static OPCPackage open(String sSrcName) throws Exception {
+    File oF = new File(sSrcName);
+    if (!oF.isFile()) throw new Exception("Template "+sSrcName+" not found");
+    long nModified = oF.lastModified();
+    long nLength = oF.length();
+    String sKey = oF.getCanonicalPath();
+    Template oT;
+    synchronized(TemplateCache.class) {
+      if (nLength > nLimit) return OPCPackage.open(new FileInputStream(oF));
+      oT = oTemplates.get(sKey);
+      if ((oT != null) && ((oT.nModified != nModified) || (oT.nLength != nLength))) {
+        remove(sKey);
+        oT = null;
+      }
+    }
+    if (oT == null) {
+      oT = new Template();
+      oT.nModified = nModified;
+      oT.nLength = nLength;
+      oT.oBytes = store(oF);
+      synchronized(TemplateCache.class) {
+        if (oT.oBytes.length <= nLimit) {
+          remove(sKey);
+          oTemplates.put(sKey,oT);
+          nHeld += oT.oBytes.length;
+          trim();
+        }
+      }
+    }
+    return OPCPackage.open(new ByteArrayInputStream(oT.oBytes));
+  }
+
+  // the parts of the file zipped again without compression, the buffer sized from the part sizes in its central directory
+  private static byte[] store(File oF) throws Exception {
+    try(ZipFile oZF = new ZipFile(oF)) {
+      long nSize = 22;
+      for(Enumeration<? extends ZipEntry> oEn = oZF.entries(); oEn.hasMoreElements(); ) {
+        ZipEntry oZE = oEn.nextElement();
+        if (oZE.isDirectory()) continue;
+        nSize += Math.max(oZE.getSize(),0) + 76 + 2 * oZE.getName().getBytes(StandardCharsets.UTF_8).length;
+      }
+      if (nSize > Integer.MAX_VALUE - 8) throw new Exception("Template "+oF+" is too large to hold in memory");
+      ByteArrayOutputStream oOut = new ByteArrayOutputStream((int)nSize);
+      PartZipper oPZ = new PartZipper(oOut,0,1);
+      byte[] oBuf = new byte[8192];
+      for(Enumeration<? extends ZipEntry> oEn = oZF.entries(); oEn.hasMoreElements(); ) {
+        ZipEntry oZE = oEn.nextElement();
+        if (oZE.isDirectory()) continue;
+        oPZ.putArchiveEntry(new ZipArchiveEntry(oZE.getName()));
+        try(InputStream oIn = oZF.getInputStream(oZE)) {
+          for(int n; (n = oIn.read(oBuf)) > 0; ) oPZ.write(oBuf,0,n);
+        }
+        oPZ.closeArchiveEntry();
+      }
+      oPZ.finish();
+      return oOut.toByteArray();
+    }
+  }
+
+  static synchronized void setLimit(long nBytes) {
+    nLimit = nBytes;
+    trim();
+  }
+
+  static synchronized void invalidate(String sSrcName) throws Exception {
+    remove(new File(sSrcName).getCanonicalPath());
+  }
+
+  static synchronized void invalidateAll() {
+    oTemplates.clear();
+    nHeld = 0;
+  }
+
+  private static void remove(String sKey) {
+    Template oT = oTemplates.remove(sKey);
+    if (oT != null) nHeld -= oT.oBytes.length;
+  }
+
+  private static void trim() {
+    Iterator<Map.Entry<String,Template>> oIt = oTemplates.entrySet().iterator();
+    while((nHeld > nLimit) && oIt.hasNext()) {
+      nHeld -= oIt.next().getValue().oBytes.length;
+      oIt.remove();
+    }
+  }
+}
@@ -20,17 +20,37 @@
 */
 
 package com.psec.excel;
-import java.io.FileOutputStream;
-import java.io.FileInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 //import java.util.List;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.TreeMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 //import  com.rexg.util.CU;
 
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
 //import org.apache.poi.xssf.usermodel.XSSFSheet;
 //import org.apache.poi.xssf.usermodel.XSSFDrawing;
 //import org.apache.poi.xssf.usermodel.XSSFChart;
@@ -81,6 +101,14 @@ import org.apache.poi.ss.util.CellAddress;
 <p>
   <code>CellStyles</code> are created using the {@link WriteExcel#addStyle addStyle} or {@link WriteExcel#addStyles addStyles} methods.
   <code>WriteExcel</code> manages the combinations so only the active combinations are written to the the output Workbook CellStyle registry.
+<p>
+  Very large Workbooks can be written using {@link WriteExcel#createStreaming createStreaming} which keeps only a sliding
+  window of rows in memory, or with {@link WriteExcel#createDirect createDirect} which keeps the Area cells in compact arrays and
+  writes them as SpreadsheetML when the Workbook is closed.
+<p>
+  A <code>WriteExcel</code> and its <code>Areas</code> must only be used by one thread at a time, but separate
+  <code>WriteExcel</code> instances share no mutable state so many Workbooks can be built in parallel, one per thread.
+  The same applies to {@link ReadExcelFile}.
 
  @see <a href={@docRoot}overview-summary.html#WriteExcel-desc>WriteExcel description</a>
 
@@ -99,16 +127,49 @@ public class WriteExcel {
     //String  sRawText;
     String  sHdrFmt;
     boolean bPlain;
+    // last style chosen for a data cell of this column, see chooseStyle
+    int       nMemoGen = -1;
+    DataFmt   oMemoDF;
+    String    sMemoName;
+    String    sMemoRowFmt;
+    CellStyle oMemoCS;
   }
 
   /** Used to manage DataFmts which is the DataFormat string
     we store with a CellStyle.
   */
   private static class DataFmt {
+    int     nId;     // > 0, part of the packed style key
     String  sName;
     String  sDataFmt;
     Matcher oM;
     boolean bInteger;
+    int     nDecs;   // decimals shown, used for the column width of typed values
+    // compiled form of a "^prefix-?[0-9]+[.][0-9]{n}$" matcher, see compileShape
+    boolean bShape;
+    String  sPrefix;
+    boolean bSign;
+    int     nMinInt, nMaxInt;
+    int     nMinDecs, nMaxDecs;  // nMinDecs -1 when there is no decimal part
+
+    // same format with its own Matcher, for a SheetJob
+    private DataFmt copy() {
+      DataFmt oDF = new DataFmt();
+      oDF.nId = nId;
+      oDF.sName = sName;
+      oDF.sDataFmt = sDataFmt;
+      oDF.oM = (oM == null)?null:oM.pattern().matcher("");
+      oDF.bInteger = bInteger;
+      oDF.nDecs = nDecs;
+      oDF.bShape = bShape;
+      oDF.sPrefix = sPrefix;
+      oDF.bSign = bSign;
+      oDF.nMinInt = nMinInt;
+      oDF.nMaxInt = nMaxInt;
+      oDF.nMinDecs = nMinDecs;
+      oDF.nMaxDecs = nMaxDecs;
+      return oDF;
+    }
   }
 
   /** Used to extract specific StyleStrs prefixed to data
@@ -121,10 +182,80 @@ public class WriteExcel {
     String  sData;  // remaining data
     boolean bPlain;
     DataFmt oDF;
+    double  dValue; // when oDF is numeric
 //
+    private SpecFmt reset(String sCellData) {
+      sName = null;
+      nMerge = 0;
+      sAnonFmt = null;
+      sData = sCellData;
+      bPlain = false;
+      oDF = null;
+      return this;
+    }
+  }
+
+  /** Used to cache the parsed {mm.xxx} prefixes as most reports repeat a few of them on every row.
+  */
+  private static class Prefix {
+    String  sKey;      // the prefix up to and including the '}'
+    int     nHash;
+    int     nMerge;
+    boolean bPlain;
+    String  sName;     // null when the prefix has no fmt
+    boolean bAnonDone; // anonymous style has been defined
   }
 
 
+  /** Used to find registered styles by a packed DataFmt/style/row style id key
+    rather than the string key. Open addressing with linear probing, 0 is not a valid key.
+  */
+  private static class StyleKeyMap {
+    long[]      nKeys = new long[64];
+    CellStyle[] oVals = new CellStyle[64];
+    int         nSize;
+
+    CellStyle get(long nKey) {
+      int nMask = nKeys.length - 1;
+      for(int ix=slot(nKey,nMask); nKeys[ix] != 0; ix = (ix + 1) & nMask) {
+        if (nKeys[ix] == nKey) return oVals[ix];
+      }
+      return null;
+    }
+
+    void put(long nKey,CellStyle oCS) {
+      if ((nSize+1)*2 > nKeys.length) grow();
+      int nMask = nKeys.length - 1;
+      int ix = slot(nKey,nMask);
+      while((nKeys[ix] != 0) && (nKeys[ix] != nKey)) ix = (ix + 1) & nMask;
+      if (nKeys[ix] == 0) nSize += 1;
+      nKeys[ix] = nKey;
+      oVals[ix] = oCS;
+    }
+
+    void clear() {
+      Arrays.fill(nKeys,0L);
+      Arrays.fill(oVals,null);
+      nSize = 0;
+    }
+
+    private void grow() {
+      long[] nOldKeys = nKeys;
+      CellStyle[] oOldVals = oVals;
+      nKeys = new long[nOldKeys.length*2];
+      oVals = new CellStyle[nOldKeys.length*2];
+      nSize = 0;
+      for(int i=0; i<nOldKeys.length; i++) {
+        if (nOldKeys[i] != 0) put(nOldKeys[i],oOldVals[i]);
+      }
+    }
+
+    private static int slot(long nKey,int nMask) {
+      long h = nKey * 0x9E3779B97F4A7C15L;
+      return (int)(h >>> 40) & nMask;
+    }
+  }
+
   /** Used to manage Styles so that only those in play are added
     to the style sheet. Registered styles have oStyle and oDF populated.
   */
@@ -171,9 +302,17 @@ public class WriteExcel {
     int                   nBaseCol;
     ArrayList<HdrCol[]>   oHdrs    = new ArrayList<>();
     ArrayList<String[]>   oRows    = new ArrayList<>();
+    ColumnStore           oCols;            // set for a columnar Area, holds the rows in place of oRows
+    RowSpill              oSpill;           // set once the rows are spilled, holds them in place of both
+    long                  nSpillAt;         // heap bytes of buffered rows that make the Area spill, 0 never
+    long                  nRowBytes;        // estimated heap of oRows
     //ArrayList<Integer>    nStripes;
     ArrayList<String>     sColFmts;
     String                sCurSheet;
+    int                   nFlushRows;       // > 0 when rows are converted to cells in chunks
+    int                   nRowsWritten;     // rows already flushed to the sheet
+    boolean               bHdrsWritten;     // set by the first flush
+    RowBuilder            oRB;              // set once typed rows are written, makes the Area flushing
     // computed values
     private int           nMaxCol;
 
@@ -187,17 +326,20 @@ public class WriteExcel {
       <p>
       If the top rows of a sheet has merged values, the Excel Data filter is impeded.  Calling this method ensures
       row 0 of a sheet has an empty cell for every column in the sheet.  This makes the Data filter function work properly.
+      <p>
+      When streaming it throws an <code>IllegalStateException</code> once row 0 has been flushed.
       @returns Area for chaining purposes.
     */
     public Area addDataFilterLine() {
       Sheet oS = oWE.oWB.getSheet(sCurSheet);
-      Row oRow = oS.getRow(0);
+      oWE.checkLiveRow(oS,0,"addDataFilterLine");
+      Row oRow = oWE.getRow(oS,0);
       if (oRow == null) oRow = oS.createRow(0);
       for(int i=0,iMax=this.nMaxCol; i<iMax; i++) {
         Cell oC = oRow.getCell(i);
         if (oC == null) {
           oC = oRow.createCell(i);
-          oC.setCellValue("");
+          oWE.setCellString(oC,"");
         }
       }
       return this;
@@ -210,8 +352,8 @@ public class WriteExcel {
       @returns Area for chaining purposes.
     */
     public Area addRow(ArrayList<String> oRow) throws Exception {
-      oRows.add((String[])oRow.toArray(new String[oRow.size()]));
-      return this;
+      addData((String[])oRow.toArray(new String[oRow.size()]),null);
+      return checkFlush();
     }
 
     /**
@@ -222,9 +364,8 @@ public class WriteExcel {
       @returns Area for chaining purposes.
     */
     public Area addRow(ArrayList<String> oRow,int nStripe) throws Exception {
-      oRows.add((String[])oRow.toArray(new String[oRow.size()]));
-      addStripe(nStripe);
-      return this;
+      addData((String[])oRow.toArray(new String[oRow.size()]),getStripeFmt(nStripe));
+      return checkFlush();
     }
 
     /**
@@ -235,9 +376,8 @@ public class WriteExcel {
       @returns Area for chaining purposes.
     */
     public Area addRow(ArrayList<String> oRow,String sRowFmt) throws Exception {
-      oRows.add((String[])oRow.toArray(new String[oRow.size()]));
-      addColFmt(sRowFmt);
-      return this;
+      addData((String[])oRow.toArray(new String[oRow.size()]),sRowFmt);
+      return checkFlush();
     }
 
     /**
@@ -247,8 +387,8 @@ public class WriteExcel {
       @returns Area for chaining purposes.
     */
     public Area addRow(String[] sRows) throws Exception {
-      oRows.add(sRows);
-      return this;
+      addData(sRows,null);
+      return checkFlush();
     }
 
     /**
@@ -259,9 +399,8 @@ public class WriteExcel {
       @returns Area for chaining purposes.
     */
     public Area addRow(String[] sRows,int nStripe) throws Exception {
-      oRows.add(sRows);
-      addStripe(nStripe);
-      return this;
+      addData(sRows,getStripeFmt(nStripe));
+      return checkFlush();
     }
 
     /**
@@ -272,19 +411,72 @@ public class WriteExcel {
       @returns Area for chaining purposes.
     */
     public Area addRow(String[] sRows,String sRowFmt) throws Exception {
-      oRows.add(sRows);
-      addColFmt(sRowFmt);
+      addData(sRows,sRowFmt);
+      return checkFlush();
+    }
+
+    static String getStripeFmt(int nStripe) {
+      return (nStripe == 0)?null:((nStripe % 2 == 0)?"#evn":"#odd");
+    }
+
+    /**
+      Makes this a flushing Area.  Once <code>nRows</code> rows have been added they are converted to cells
+      and dropped so the memory held by the Area depends on <code>nRows</code> rather than on the number of rows added.
+      <p>
+      The headers are written by the first flush so they must all be added before then. Column widths are based on the data of
+      every chunk and are set by {@link WriteExcel.Area#writeArea writeArea}, which must still be called to write the last chunk.
+      Flushed rows can no longer be changed with {@link WriteExcel.Area#zapColText zapColText} and are not returned by
+      {@link WriteExcel.Area#getRows getRows}.
+      <p>
+      Combined with {@link WriteExcel#createStreaming createStreaming} the heap used stays flat however many rows are written.
+      @param nRows The number of rows buffered before they are flushed. 0 buffers every row until {@link WriteExcel.Area#writeArea writeArea}.
+      @returns Area for chaining purposes.
+    */
+    public Area flushEvery(int nRows) throws Exception {
+      if (nRows < 0) throw new Exception("Flush size of "+nRows+" rows is not valid");
+      nFlushRows = nRows;
+      return checkFlush();
+    }
+
+    /**
+      Makes this a columnar Area.  The rows are held column by column as codes, repeated strings once in a dictionary
+      and plain numbers such as <code>1234</code> or <code>-5.25</code> in the code itself, so a buffered cell takes about
+      8 bytes instead of a String and its share of the row array.  Rows already added are moved to the columns.
+      <p>
+      The strings of a row are copied by {@link WriteExcel.Area#addRow addRow}, so changing the array afterwards does not
+      change the Area, and {@link WriteExcel.Area#getRows getRows} returns copies made from the columns.
+      The cells written are the same as for an Area holding rows.
+      @returns Area for chaining purposes.
+    */
+    public Area columnar() throws Exception {
+      if (oCols != null) return this;
+      oCols = new ColumnStore();
+      for(String[] sRow:oRows) oCols.add(sRow);
+      oRows.clear();
+      nRowBytes = 0;
       return this;
     }
 
-    private void addStripe(int nStripe) {
-      if (nStripe != 0) {
-        addColFmt((nStripe % 2 == 0)?"#evn":"#odd");
-      } else {
-        if (sColFmts != null) {
-          addColFmt(null);
-        }
-      }
+    /**
+      Spills the buffered rows to a temporary file once they take more than <code>nBytes</code> of heap, as estimated
+      from the lengths of the strings held.  The rows already buffered and all those added after are written to
+      segments of the file mapped into memory and read back in order when the Area is written, so the heap used
+      no longer depends on the number of rows.
+      <p>
+      The file is made in the <code>java.io.tmpdir</code> directory.  It is deleted when the Area has been written,
+      when writing it fails and when the Workbook is closed; where the platform allows it is deleted as soon as it is
+      open, so it does not outlive the process.
+      Spilled rows can no longer be changed with {@link WriteExcel.Area#zapColText zapColText} and
+      {@link WriteExcel.Area#getRows getRows} reads them back from the file.  Once the Area is written the spilled rows
+      are gone, <code>getRows</code> no longer returns them but {@link WriteExcel.Area#getRowCount getRowCount} counts them.
+      @param nBytes The heap the buffered rows may take. 0 never spills.
+      @returns Area for chaining purposes.
+    */
+    public Area spillAbove(long nBytes) throws Exception {
+      if (nBytes < 0) throw new Exception("Spill limit of "+nBytes+" bytes is not valid");
+      nSpillAt = nBytes;
+      checkSpill();
+      return checkFlush();
     }
 
     /**
@@ -350,16 +542,35 @@ public class WriteExcel {
 
     /**
       Return size of Rows array.
-      @return size of Rows array which is increased by {@link WriteExcel.Area#addRow addRow} method calls
+      @return size of Rows array which is increased by {@link WriteExcel.Area#addRow addRow} method calls.
+      For a flushing Area it includes the rows already flushed.
     */
-    public int           getRowCount() { return oRows.size();}
+    public int           getRowCount() { return nRowsWritten+getBuffered();}
 
     /**
       Gets the current row array contents.
+      <p>
+      For a flushing Area only the rows not yet flushed are returned.
+      For a {@link WriteExcel.Area#columnar columnar} Area the rows are made from the columns by each call,
+      and for one that has {@link WriteExcel.Area#spillAbove spilled} they are read back from the file,
+      so changing them does not change the Area.
       @returns the row array.
     */
     public ArrayList<String[]> getRows() throws Exception {
-      return oRows;
+      if (oSpill != null) {
+        ArrayList<String[]> oCopy = new ArrayList<>(oSpill.size());
+        RowSpill.Cursor oCur = oSpill.cursor();
+        while(oCur.next()) {
+          String[] sRow = new String[oCur.getLength()];
+          for(int i=0; i<sRow.length; i++) sRow[i] = oCur.get(i);
+          oCopy.add(sRow);
+        }
+        return oCopy;
+      }
+      if (oCols == null) return oRows;
+      ArrayList<String[]> oCopy = new ArrayList<>(oCols.size());
+      for(int i=0,iMax=oCols.size(); i<iMax; i++) oCopy.add(oCols.getRow(i));
+      return oCopy;
     }
 
     /**
@@ -383,6 +594,7 @@ public class WriteExcel {
       @returns Area for chaining purposes.
     */
     public Area header(String sCols) throws Exception {
+      checkHeader();
       oHdrs.add(oWE.parseHeader(this,sCols,"#hdr"));
       return this;
     }
@@ -397,10 +609,98 @@ public class WriteExcel {
       @returns Area for chaining purposes.
     */
     public Area header(String sCols,String sHdrFmt) throws Exception {
+      checkHeader();
       oHdrs.add(oWE.parseHeader(this,sCols,sHdrFmt));
       return this;
     }
 
+    /**
+      Returns the typed row builder of this Area.
+      <p>
+      The builder writes each row directly to the sheet when {@link WriteExcel.Area.RowBuilder#endRow endRow} is called so
+      no column strings are created or parsed. Rows added with <code>addRow</code> before then are written first, and the Area
+      is treated as flushing from then on (see {@link WriteExcel.Area#flushEvery flushEvery}) so the headers must all be added beforehand.
+      {@link WriteExcel.Area#writeArea writeArea} must still be called to write any remaining rows and set the column widths.
+      <p>
+      The same builder is returned by every call.
+      @returns the RowBuilder for this Area.
+    */
+    public RowBuilder rowBuilder() throws Exception {
+      if (oHdrs.size() == 0) throw new Exception("Area on sheet "+sCurSheet+" needs a header before rows can be built");
+      if (oRB == null) oRB = new RowBuilder(this);
+      return oRB;
+    }
+
+    /**
+      Writes a row for each record of oRecs with the columns given by the {@link ExcelCol} fields of its class.
+      <p>
+      See {@link WriteExcel.Area#addRecords(Iterable,String) addRecords(oRecs,sColMap)}.
+      @returns Area for chaining purposes.
+    */
+    public <T> Area addRecords(Iterable<T> oRecs) throws Exception {
+      return addRecords(oRecs,null);
+    }
+
+    /**
+      Writes a row for each record of oRecs with the columns given by a column map, the writing counterpart of
+      {@link ReadExcelRecord#getColMap getColMap}.
+      <p>
+      The column map is a list of columns separated by ';', each <code>[n=]field[,fmt[,style[,header]]]</code> where
+      <ul>
+      <li>n - the column relative to 0 within the Area, by default the column after the one before</li>
+      <li>field - the field of the record class to write, which may be private</li>
+      <li>fmt - the DataFormat of a numeric field such as <code>@num</code></li>
+      <li>style - a defined style or an anonymous style starting with ':'</li>
+      <li>header - the header text, which may start with a <a href={@docRoot}/overview-summary.html#format-spec>format specifier</a></li>
+      </ul>
+      Parts left empty are taken from the {@link ExcelCol} of the field, if any, or its defaults.  When sColMap is
+      <code>null</code> the ExcelCol fields of the class are written.
+      For example <code>"0=sMonth,,,Month;2=dAmount,@num,:b,{:b}Amount"</code> writes sMonth and dAmount with column 1 empty.
+      <p>
+      The getters of the fields are made once per class and map.  The values are written with the
+      {@link WriteExcel.Area#rowBuilder rowBuilder} as typed cells, numbers as numeric cells with the DataFormat of the column
+      without being made into strings, so the rules of that builder apply.  If the Area has no header yet one is added
+      from the header texts of the columns.
+      @param oRecs The records, all of one class or of classes with the same columns.
+      @param sColMap The column map, <code>null</code> for the ExcelCol fields.
+      @returns Area for chaining purposes.
+    */
+    public <T> Area addRecords(Iterable<T> oRecs,String sColMap) throws Exception {
+      RecordMap oRM = null;
+      DataFmt[] oDFs = null;
+      RowBuilder oRB = null;
+      for(T oRec:oRecs) {
+        if (oRec == null) throw new Exception("Area on sheet "+sCurSheet+" was given a null record");
+        if ((oRM == null) || (oRM.oCls != oRec.getClass())) {
+          oRM = RecordMap.get(oRec.getClass(),sColMap);
+          oDFs = new DataFmt[oRM.oCols.length];
+          for(int i=0; i<oDFs.length; i++) {
+            RecordMap.Col oC = oRM.oCols[i];
+            if (oC.sFmt == null) {
+              oDFs[i] = oWE.getDefaultFmt();
+            } else {
+              oDFs[i] = oWE.getDataFmt(oC.sFmt);
+              if (oDFs[i].sDataFmt == null) throw new Exception("DataFormat "+oC.sFmt+" of field "+oC.sField+" is not numeric");
+            }
+            if (oC.sStyle != null) oWE.checkAnonStyle(oC.sStyle);
+          }
+          if (oHdrs.size() == 0) header(oRM.getHeader());
+        }
+        if (oRB == null) {
+          oRB = rowBuilder();
+          if (oRB.nCols > 0) throw new Exception("Area on sheet "+sCurSheet+" has a row being built, call endRow first");
+        }
+        try {
+          oRB.record(oRM,oDFs,oRec);
+        } catch(Exception e) {
+          oRB.clearRow();
+          throw e;
+        }
+        oRB.endRow();
+      }
+      return this;
+    }
+
     /**
       Writes the Area to sCurrent sheet.
       <p>
@@ -420,7 +720,14 @@ public class WriteExcel {
       @returns Area for chaining purposes.
     */
     public Area zapColText(int nRow,int nCol,String sText) throws Exception {
-      if (nRow >= oRows.size()) return this;
+      if (nRow < nRowsWritten) throw new Exception("zapColText row "+nRow+" of sheet "+sCurSheet+" has already been flushed");
+      nRow -= nRowsWritten;
+      if (nRow >= getBuffered()) return this;
+      if (oSpill != null) throw new Exception("zapColText row "+(nRow+nRowsWritten)+" of sheet "+sCurSheet+" has been spilled to disk");
+      if (oCols != null) {
+        if (nCol < oCols.getLength(nRow)) oCols.set(nRow,nCol,sText);
+        return this;
+      }
       String[] sRow = oRows.get(nRow);
       if (nCol >= sRow.length) return this;
       sRow[nCol] = sText;
@@ -457,16 +764,342 @@ public class WriteExcel {
     private void addColFmt(String sRowFmt) {
       if ((sRowFmt == null) && (sColFmts == null)) return;
       if (sColFmts == null) sColFmts = new ArrayList<>();
-      while(sColFmts.size() < oRows.size()-1) sColFmts.add(null);
+      while(sColFmts.size() < getBuffered()-1) sColFmts.add(null);
       sColFmts.add(sRowFmt);
     }
 
+    boolean isFlushing() {return (nFlushRows > 0) || (oRB != null);}
+
+    // rows added and not yet flushed
+    int getBuffered() {return (oSpill != null)?oSpill.size():(oCols != null)?oCols.size():oRows.size();}
+
+    private void addData(String[] sRow,String sRowFmt) throws Exception {
+      if (oSpill != null) {
+        oSpill.add(sRow,sRowFmt);
+        oWE.oStats.nRowsSpilled++;
+        return;
+      }
+      if (oCols != null) {
+        oCols.add(sRow);
+      } else {
+        oRows.add(sRow);
+        nRowBytes += 16 + 4*sRow.length;
+        for(String s:sRow) {
+          if (s != null) nRowBytes += 40 + s.length();
+        }
+      }
+      addColFmt(sRowFmt);
+      checkSpill();
+    }
+
+    // moves the buffered rows to a new spill file once they are over the limit
+    private void checkSpill() throws Exception {
+      if ((nSpillAt == 0) || (oSpill != null) || (((oCols != null)?oCols.getBytes():nRowBytes) <= nSpillAt)) return;
+      oSpill = oWE.openSpill();
+      for(int i=0,iMax=getBufferedHeld(); i<iMax; i++) {
+        String sRowFmt = ((sColFmts != null) && (i < sColFmts.size()))?sColFmts.get(i):null;
+        oSpill.add((oCols != null)?oCols.getRow(i):oRows.get(i),sRowFmt);
+      }
+      oWE.oStats.nRowsSpilled += oSpill.size();
+      oRows.clear();
+      oRows.trimToSize();
+      nRowBytes = 0;
+      if (oCols != null) oCols = new ColumnStore();
+      sColFmts = null;
+    }
+
+    private int getBufferedHeld() {return (oCols != null)?oCols.size():oRows.size();}
+
+    void clearBuffered() {
+      oRows.clear();
+      nRowBytes = 0;
+      if (oCols != null) oCols.clear();
+      if (oSpill != null) oSpill.clear();
+    }
+
+    // deletes the spill file, rows still in it are taken as written
+    void closeSpill() throws Exception {
+      RowSpill oRS = oSpill;
+      oSpill = null;
+      nRowsWritten += oRS.size();
+      oWE.closeSpill(oRS);
+    }
+
+    private Area checkFlush() throws Exception {
+      if ((nFlushRows > 0) && (getBuffered() >= nFlushRows)) oWE.flushArea(this,false);
+      return this;
+    }
+
+    private void checkHeader() throws Exception {
+      if (bHdrsWritten) throw new Exception("Area on sheet "+sCurSheet+" has been flushed, headers can no longer be added");
+    }
+
     private HdrCol getHdrCol(int nHdr,int nCol) {
       if (nHdr >= oHdrs.size()) return null;
       HdrCol[] oHCs = oHdrs.get(nHdr);
       if (nCol >= oHCs.length) return null;
       return oHCs[nCol];
     }
+
+    /**
+      Builds one row at a time from typed values.
+      <p>
+      Each value goes to the next column as with the strings of {@link WriteExcel.Area#addRow addRow}.
+      Numeric values are given the DataFormat named by the call instead of one matched from the text
+      and {@link WriteExcel.Area.RowBuilder#style style} and {@link WriteExcel.Area.RowBuilder#merge merge}
+      take the place of the <a href={@docRoot}/overview-summary.html#format-spec>format specifier</a> prefix.
+      <p>
+      The values are held in arrays that are reused from row to row.
+      <p>
+      <b>Example</b>
+      <p>
+      <code>oA.rowBuilder().str("January").lng(15).num(10.01,"@num").style(":b").num(150.15,"@num").endRow();</code>
+    */
+    public static class RowBuilder {
+      static final byte KIND_STR = 0;
+      static final byte KIND_NUM = 1;
+
+      Area           oA;
+      int            nCols;        // values in the current row
+      byte[]         nKinds   = new byte[16];
+      double[]       dVals    = new double[16];
+      CharSequence[] oStrs    = new CharSequence[16];
+      DataFmt[]      oDFs     = new DataFmt[16];
+      String[]       sStyles  = new String[16];
+      int[]          nMerges  = new int[16];
+      String         sRowFmt;
+      String         sNextStyle;
+      int            nNextMerge;
+      SpecFmt        oSF      = new SpecFmt();   // reused by chooseStyle
+      HashSet<String> oStylesChecked = new HashSet<String>();   // styles passed to checkAnonStyle
+
+      RowBuilder(Area oA) {this.oA = oA;}
+
+      /**
+        Adds a numeric value to the row.
+        @param d The value.
+        @param sFmtName The name of the DataFormat, a <a href={@docRoot}/overview-summary.html#generic-types>Standard Type</a>
+        such as <code>@num</code> or one added with {@link WriteExcel#addDataFormat addDataFormat}.
+        @returns RowBuilder for chaining purposes.
+      */
+      public RowBuilder num(double d,String sFmtName) throws Exception {
+        DataFmt oDF = oA.oWE.getDataFmt(sFmtName);
+        if (oDF.sDataFmt == null) throw new Exception("DataFormat "+sFmtName+" is not numeric");
+        add(KIND_NUM,oDF).dVals[nCols++] = d;
+        return this;
+      }
+
+      /**
+        Adds an integer value to the row using the <code>@int</code> DataFormat.
+        <p>
+        Excel holds numbers as doubles, so a value beyond 2<sup>53</sup> in magnitude is rounded to the nearest one.
+        Use {@link #str str} to keep all the digits of such a value.
+        @returns RowBuilder for chaining purposes.
+      */
+      public RowBuilder lng(long n) throws Exception {
+        add(KIND_NUM,oA.oWE.getDataFmt("@int")).dVals[nCols++] = n;
+        return this;
+      }
+
+      /**
+        Adds a string value to the row. The value is not parsed, a <code>null</code> writes an empty cell.
+        @returns RowBuilder for chaining purposes.
+      */
+      public RowBuilder str(CharSequence s) throws Exception {
+        add(KIND_STR,oA.oWE.getDefaultFmt()).oStrs[nCols++] = s;
+        return this;
+      }
+
+      /**
+        Sets the style of the next value.
+        @param sName A defined style or an anonymous style starting with ':' as in the
+        <a href={@docRoot}/overview-summary.html#format-spec>format specifier</a>.
+        @returns RowBuilder for chaining purposes.
+      */
+      public RowBuilder style(String sName) throws Exception {
+        if ((sName != null) && (sName.length() == 0)) sName = null;
+        if ((sName != null) && oStylesChecked.add(sName)) oA.oWE.checkAnonStyle(sName);
+        sNextStyle = sName;
+        return this;
+      }
+
+      /**
+        Merges the next value across <code>nMerge</code> columns.
+        @returns RowBuilder for chaining purposes.
+      */
+      public RowBuilder merge(int nMerge) throws Exception {
+        if (nMerge < 0) throw new Exception("Merge of "+nMerge+" columns is not valid");
+        nNextMerge = nMerge;
+        return this;
+      }
+
+      /**
+        Sets the row format specifier of the current row, as with {@link WriteExcel.Area#addRow(String[],String) addRow}.
+        @returns RowBuilder for chaining purposes.
+      */
+      public RowBuilder rowStyle(String sRowFmt) {
+        this.sRowFmt = sRowFmt;
+        return this;
+      }
+
+      /**
+        Sets the stripe of the current row, as with {@link WriteExcel.Area#addRow(String[],int) addRow}.
+        @param nStripe Stripe option. 0 - no stripe, odd number - #odd background, Even number - #evn background
+        @returns RowBuilder for chaining purposes.
+      */
+      public RowBuilder stripe(int nStripe) {
+        this.sRowFmt = getStripeFmt(nStripe);
+        return this;
+      }
+
+      /**
+        Writes the current row to the sheet and starts the next one.
+        @returns Area for chaining purposes.
+      */
+      public Area endRow() throws Exception {
+        try {
+          oA.oWE.writeBuiltRow(oA,this);
+        } finally {
+          clearRow();
+        }
+        return oA;
+      }
+
+      void clearRow() {
+        for(int i=0; i<nCols; i++) oStrs[i] = null;
+        nCols = 0;
+        sRowFmt = null;
+        sNextStyle = null;
+        nNextMerge = 0;
+      }
+
+      // adds the columns of oRec, empty cells filling the gaps between them
+      void record(RecordMap oRM,DataFmt[] oDFs,Object oRec) throws Exception {
+        DataFmt oStrDF = oA.oWE.getDefaultFmt();
+        RecordMap.Col[] oCols = oRM.oCols;
+        try {
+          for(int i=0; i<oCols.length; i++) {
+            RecordMap.Col oC = oCols[i];
+            while(nCols < oC.nCol) add(KIND_STR,oStrDF).oStrs[nCols++] = null;
+            sNextStyle = oC.sStyle;
+            switch(oC.nKind) {
+              case RecordMap.KIND_LONG:
+                add(KIND_NUM,oDFs[i]).dVals[nCols++] = (long)oC.oMH.invokeExact(oRec);
+                break;
+              case RecordMap.KIND_DOUBLE:
+                add(KIND_NUM,oDFs[i]).dVals[nCols++] = (double)oC.oMH.invokeExact(oRec);
+                break;
+              case RecordMap.KIND_NUMBER:
+                Number oN = (Number)(Object)oC.oMH.invokeExact(oRec);
+                if (oN == null) {
+                  add(KIND_STR,oStrDF).oStrs[nCols++] = null;
+                } else {
+                  add(KIND_NUM,oDFs[i]).dVals[nCols++] = oN.doubleValue();
+                }
+                break;
+              case RecordMap.KIND_TEXT:
+                add(KIND_STR,oStrDF).oStrs[nCols++] = (CharSequence)(Object)oC.oMH.invokeExact(oRec);
+                break;
+              default:
+                Object o = (Object)oC.oMH.invokeExact(oRec);
+                add(KIND_STR,oStrDF).oStrs[nCols++] = (o == null)?null:o.toString();
+            }
+          }
+        } catch(Exception | Error e) {
+          throw e;
+        } catch(Throwable t) {
+          throw new Exception(t);
+        }
+      }
+
+      private RowBuilder add(byte nKind,DataFmt oDF) {
+        if (nCols == nKinds.length) {
+          int nLen = nCols * 2;
+          nKinds  = Arrays.copyOf(nKinds,nLen);
+          dVals   = Arrays.copyOf(dVals,nLen);
+          oStrs   = Arrays.copyOf(oStrs,nLen);
+          oDFs    = Arrays.copyOf(oDFs,nLen);
+          sStyles = Arrays.copyOf(sStyles,nLen);
+          nMerges = Arrays.copyOf(nMerges,nLen);
+        }
+        nKinds[nCols]  = nKind;
+        oDFs[nCols]    = oDF;
+        sStyles[nCols] = sNextStyle;
+        nMerges[nCols] = nNextMerge;
+        sNextStyle = null;
+        nNextMerge = 0;
+        return this;
+      }
+    }
+  }
+
+  /**
+    Interface used to build one Sheet of a {@link WriteExcel#parallelSheets parallelSheets} call.
+  */
+  public static interface SheetJob {
+    /**
+      Builds the Sheet, normally with Areas created by <code>oWE.createArea(sSheet,...)</code>.
+      @param oWE The WriteExcel to use for this Sheet only. It shares the Workbook and styles of the WriteExcel running the jobs.
+      @param sSheet The name of the Sheet to build.
+    */
+    public void build(WriteExcel oWE,String sSheet) throws Exception;
+  }
+
+  /**
+    Settings used by {@link WriteExcel#close close} to write the Workbook package, see {@link WriteExcel#setCloseProfile setCloseProfile}.
+    <p>
+    By default parts are deflated at the default level on the calling thread.  Lower levels, or storing the parts uncompressed
+    for intermediate files that are read again, trade file size for close time, and the sheet parts can be compressed on a pool
+    of threads.  Any profile writes a normal .xlsx that opens in Excel and with {@link ReadExcelFile#openFile ReadExcelFile.openFile}.
+    <p>
+    Streaming Workbooks ({@link WriteExcel#createStreaming createStreaming}) are zipped by POI, only the buffer size applies to them.
+  */
+  public static class CloseProfile {
+    int nLevel   = Deflater.DEFAULT_COMPRESSION;
+    int nThreads = 1;
+    int nBufSize = 1 << 16;
+
+    /**
+      Set the deflate level.
+      @param nLevel 1 (fastest) to 9 (smallest), -1 for the default level or 0 to store the parts uncompressed.
+      @return CloseProfile for chaining purposes.
+    */
+    public CloseProfile level(int nLevel) throws Exception {
+      if ((nLevel < -1) || (nLevel > 9)) throw e("Deflate level "+nLevel+" is not valid");
+      this.nLevel = nLevel;
+      return this;
+    }
+
+    /**
+      Store the parts uncompressed (zip method STORED), the same as <code>level(0)</code>.
+      @return CloseProfile for chaining purposes.
+    */
+    public CloseProfile stored() {
+      this.nLevel = 0;
+      return this;
+    }
+
+    /**
+      Set the number of threads compressing parts.  Parts are still written in the order POI saves them.
+      @param nThreads 1 (the default) compresses on the thread calling close.
+      @return CloseProfile for chaining purposes.
+    */
+    public CloseProfile threads(int nThreads) throws Exception {
+      if (nThreads < 1) throw e("Thread count "+nThreads+" is not valid");
+      this.nThreads = nThreads;
+      return this;
+    }
+
+    /**
+      Set the size of the buffer in front of the output file channel.
+      @param nBytes The buffer size, 64K by default.
+      @return CloseProfile for chaining purposes.
+    */
+    public CloseProfile bufferSize(int nBytes) throws Exception {
+      if (nBytes < 512) throw e("Buffer size "+nBytes+" is not valid");
+      this.nBufSize = nBytes;
+      return this;
+    }
   }
 
   /** Convenient method to generate logging information written to stdout.
@@ -475,8 +1108,8 @@ public class WriteExcel {
   /** Convenient method to create Exception class.
   */
   private static Exception e(String s) {return new Exception(s); }
-  //                                          1              2     3                4
-  static Matcher oFmt  = Pattern.compile("^\\{(?<mrg>[0-9]+)?([.])?(?<fmt>[^}]*)?\\}(?<rest>.*)").matcher("");
+  //                                   1              2     3                4
+  Matcher oFmt  = Pattern.compile("^\\{(?<mrg>[0-9]+)?([.])?(?<fmt>[^}]*)?\\}(?<rest>.*)").matcher("");
 
 
 
@@ -486,17 +1119,37 @@ public class WriteExcel {
   String                    sNegFmt;
   boolean                   bShowNegAsRed = false;
   boolean                   bDidInitStyles = false;
+  int                       nWindowRows = 0;                // > 0 when streaming (SXSSF)
+  DirectEngine              oDE;                            // Area rows kept outside POI, see createDirect
+  CloseProfile              oCP = new CloseProfile();
+  ConcurrentHashMap<Sheet,MergeIndex> oMerges = new ConcurrentHashMap<>(); // Area merges by Sheet
+  Set<RowSpill>             oSpills = ConcurrentHashMap.newKeySet();  // spill files of Areas not yet written
+  boolean                   bMergeCheck = true;             // check Area merges for overlaps
   FormulaEvaluator          oFE;
-  HashMap<String,CellStyle> oStyMap = new HashMap<>();      // Cloned styles
+  FormulaGraph              oFG = new FormulaGraph();       // Cells changed by zapCell and the formulas using them
+  ExcelStats                oStats = new ExcelStats();      // counters since resetStats, per job view until parallelSheets ends
+  int                       nStyleBase;                     // cell styles in the Workbook at resetStats
+  int                       nFontBase;                      // fonts in the Workbook at resetStats
+  StyleTranslator           oStyMap;                        // Cloned styles by source Workbook and style index
   HashMap<String,CellStyle> oStyColMap = new HashMap<>();   // Color variation on styles
+  HashMap<String,Font>      oFontKeys  = new HashMap<>();   // Fonts of styles by their attributes, see internFont
+  HashMap<Integer,XSSFColor> oColors   = new HashMap<>();   // Colors of styles by RGB
   //HashMap<String,CellStyle> oStyles = new HashMap<>();    // Basic styles
   Font                      oFntFix  = null;//TEMP
   String                    sFntFix  = "Courier New";       // Default Font
   String                    sFntProp = null;                // Default proportional
 
   HashMap<String,StyleDef>  oStyDefs  = new HashMap<>();    // Style pool
+  HashMap<String,StyleDef>  oAnonDefs = new HashMap<>();    // anonymous styles by their attributes
   HashMap<String,CellStyle> oStyRegs  = new HashMap<>();    // Styles registered
   ArrayList<DataFmt>        oDataFmts = new ArrayList<>();  // Data formats we support
+  HashMap<String,Integer>   oStyIds   = new HashMap<>();    // style and row style names to packed key ids
+  StyleKeyMap               oStyKeys  = new StyleKeyMap();  // packed keys to registered styles
+  int                       nStyleGen = 0;                  // bumped when a style in oStyDefs is redefined
+
+  WriteExcel                oOwner;                         // set for the WriteExcel given to a SheetJob
+  String                    sJobSheet;                      // the only Sheet a SheetJob may use
+  Object                    oCellLock;                      // guards the shared strings and styles tables of a SheetJob
 
   TreeMap<String,CellStyle> oStyleCache;                    // For regression testing
   TreeMap<String,Font>      oFontCache;
@@ -531,9 +1184,11 @@ public class WriteExcel {
     @return WriteExcel for chaining purposes.
   */
   public WriteExcel addCellComment(String sSheet,int nRow,int nCol,String sText,boolean bFixed) throws Exception {
+    checkJob("addCellComment",null);
     Sheet oS = oWB.getSheet(sSheet);
     if (oS == null) return this;
-    Row oRow = oS.getRow(nRow);
+    checkLiveRow(oS,nRow,"addCellComment");
+    Row oRow = getRow(oS,nRow);
     if (oRow == null) return this;
     Font oFont = bFixed?oFntFix:null;
     addCellComment(oRow,nCol,sText,oFont);
@@ -585,6 +1240,7 @@ public class WriteExcel {
 
   */
   public WriteExcel addDataFormat(String sName,String sMatcher,String sDataFmt) throws Exception {
+    checkJob("addDataFormat",null);
     createDataFormat(sName,sMatcher,sDataFmt);
     return this;
   }
@@ -601,9 +1257,14 @@ public class WriteExcel {
     original Sheet are also transcribed.
   */
   public void addExternalSheet(String sSheet,Sheet oS,String sPrintArea) throws Exception {
+    checkJob("addExternalSheet",null);
     Sheet oNewS = oWB.getSheet(sSheet);
     if (oNewS != null) throw e("Sheet "+sSheet+" already exists");
     oNewS = oWB.createSheet(sSheet);
+    if (oS.getWorkbook() == oWB) {
+      materializeRows(oS);
+      commitMerges(oS);
+    }
     int nMaxCol = 0;
     for(int i=oS.getFirstRowNum(),iMax = oS.getLastRowNum(); i <= iMax; i++) {
       Row oRow = oS.getRow(i);
@@ -618,6 +1279,7 @@ public class WriteExcel {
 
     for(CellRangeAddress oCRA:oS.getMergedRegions()) {
       oNewS.addMergedRegion(oCRA);
+      oStats.nMerges++;
     }
 
     clonePrintSetup(oNewS,oS,sPrintArea);
@@ -645,6 +1307,7 @@ public class WriteExcel {
     <a href={@docRoot}/overview-summary.html#style-choice>Choosing a Cell Style</a>.
   */
   public WriteExcel addStyleDefn(String sName,String sStyStr) throws Exception {
+    checkJob("addStyleDefn",null);
     insertStyleDef(sName,sStyStr);
     return this;
   }
@@ -657,6 +1320,7 @@ public class WriteExcel {
     @return WriteExcel for chaining purposes.
   */
   public WriteExcel bookSheet(String sName) throws Exception {
+    checkJob("bookSheet",null);
     oWB.createSheet(sName);
     return this;
   }
@@ -750,7 +1414,7 @@ public class WriteExcel {
   }
 
   private String colorMap(short nCol) {
-    IndexedColorMap oICM = ((XSSFWorkbook)oWB).getStylesSource().getIndexedColors();
+    IndexedColorMap oICM = getXSSFWorkbook().getStylesSource().getIndexedColors();
     byte[] oB = oICM.getRGB(nCol);
     StringBuilder oSB = new StringBuilder();
     if (oB == null) {
@@ -769,6 +1433,8 @@ public class WriteExcel {
     <p>
     It allows custom CellStyle changes to be made to the CellStyle being constructed that are not covered by the order set.  It is called just prior to caching
     the CellStyle after all other orders have been processed.
+    <p>
+    Styles with the same font orders share one Font, so a different font should be set with <code>setFont</code> rather than by changing the Font of oCS.
     @param oCS <code>CellStyle</code> being constructed.
     @param sStr The string contained in the <code>CE(...)</code> order.  This allows different settings based on the string passed in.
   */
@@ -798,15 +1464,98 @@ public class WriteExcel {
   }
 
   /**
-    Close the Workbook. The Workbook is written and the <code>FileOutputStream</code> closed. No further changes can be made.
+    Close the Workbook. The Workbook is written as set by {@link WriteExcel#setCloseProfile setCloseProfile} and the file closed. No further changes can be made.
+    <p>
+    When streaming, the temporary files holding the flushed rows are deleted, as are the files of any
+    {@link WriteExcel.Area#spillAbove spilled} Areas not written.
   */
   public void close() throws Exception {
-    FileOutputStream oFOS = new FileOutputStream(sFileName);
-    oWB.write(oFOS);
-    oWB.close();
+    checkJob("close",null);
+    if (sFileName == null) throw e("No file name was given to create, use close(OutputStream), close(WritableByteChannel) or toByteBuffer");
+    FileChannel oFC = FileChannel.open(Paths.get(sFileName),StandardOpenOption.CREATE,StandardOpenOption.WRITE,StandardOpenOption.TRUNCATE_EXISTING);
+    try {
+      close(oFC);
+    } finally {
+      oFC.close();
+    }
+  }
+
+  /**
+    Close the Workbook writing it to oOut, which is flushed but not closed. No further changes can be made.
+    <p>
+    The bytes go straight to oOut, no temporary file is used other than those holding the flushed rows when streaming.
+    @param oOut The stream receiving the .xlsx, for example a response being sent to a client.
+  */
+  public void close(OutputStream oOut) throws Exception {
+    checkJob("close",null);
+    long nStart = System.nanoTime();
+    OutputStream oBOS = new BufferedOutputStream(oOut,oCP.nBufSize);
+    try {
+      writeWorkbook(oBOS);
+      oBOS.flush();
+    } finally {
+      if (oWB instanceof SXSSFWorkbook) ((SXSSFWorkbook)oWB).dispose();
+      oWB.close();
+      closeSpills();
+      oStats.nCloseNanos += System.nanoTime() - nStart;
+    }
+  }
+
+  /**
+    Close the Workbook writing it to oWBC, which is left open. No further changes can be made.
+    @param oWBC The channel receiving the .xlsx.
+  */
+  public void close(WritableByteChannel oWBC) throws Exception {
+    close(Channels.newOutputStream(oWBC));  // its close would close the channel, it is only flushed
+  }
+
+  /**
+    Close the Workbook returning it as a <code>ByteBuffer</code> holding the .xlsx. No further changes can be made.
+    @return The buffer, positioned at 0 with the length of the Workbook as its limit.
+  */
+  public ByteBuffer toByteBuffer() throws Exception {
+    ByteSink oBS = new ByteSink();
+    close(oBS);
+    return oBS.toByteBuffer();
+  }
+
+  // gives out its buffer rather than a copy
+  private static class ByteSink extends ByteArrayOutputStream {
+    ByteSink() {super(1 << 16);}
+    ByteBuffer toByteBuffer() {return ByteBuffer.wrap(buf,0,count);}
+  }
+
+  // POI zips streaming Workbooks itself, the others are zipped as the close profile says
+  private void writeWorkbook(OutputStream oOut) throws Exception {
+    commitMerges(null);
+    if (oWB instanceof SXSSFWorkbook) {
+      oWB.write(oOut);
+      return;
+    }
+    PartZipper oPZ = new PartZipper(oOut,oCP.nLevel,oCP.nThreads);
+    try {
+      if (oDE != null) {
+        oDE.write((XSSFWorkbook)oWB,oPZ);
+      } else {
+        oWB.write(oPZ);
+      }
+      oPZ.finish();
+    } finally {
+      oPZ.abort();
+      if (oDE != null) oDE.free();
+    }
   }
 
   // -------------- Instantiators ----------------
+  /** Creates an instance of <code>WriteExcel</code> that is written with {@link WriteExcel#close(OutputStream) close(OutputStream)},
+     {@link WriteExcel#close(WritableByteChannel) close(WritableByteChannel)} or {@link WriteExcel#toByteBuffer toByteBuffer}.
+     @param oWE the parent instance that subclasses WriteExcel;
+     @return The created instance.
+  */
+  public static WriteExcel create(WriteExcel oWE) throws Exception {
+    return WriteExcel.create(oWE,null,null);
+  }
+
   /** Creates an instance of <code>WriteExcel</code> that will write sFileName.
      @param oWE the parent instance that subclasses WriteExcel;
      @param sFileName The fully qualified file path and name suitable for use in a FileOutputStrem.
@@ -819,7 +1568,8 @@ public class WriteExcel {
   /**
     Create an instance of <code>WriteExcel</code> that will write sFileName and uses sSrcFile as a template file.
     @param oWE the parent instance that subclasses WriteExcel;
-    @param sFileName The fully qualified file path and name suitable for use in a FileOutputStrem.
+    @param sFileName The fully qualified file path and name suitable for use in a FileOutputStrem,
+    <code>null</code> when the Workbook is written with {@link WriteExcel#close(OutputStream) close(OutputStream)} or alike.
     @param sSrcName The input .xlsx file that is to be used as a template.
     @return The created instance.
   */
@@ -829,58 +1579,169 @@ public class WriteExcel {
     if (sSrcName == null) {
       oWE.oWB = new XSSFWorkbook();
     } else {
-      oWE.oWB = new XSSFWorkbook(new FileInputStream(sSrcName));
+      oWE.oWB = new XSSFWorkbook(TemplateCache.open(sSrcName));
     }
     oWE.oFE = oWE.oWB.getCreationHelper().createFormulaEvaluator();
+    oWE.resetStats();
     return oWE;
   }
 
+  /** Creates an instance of <code>WriteExcel</code> that will write sFileName using the direct engine.
+     @param oWE the parent instance that subclasses WriteExcel;
+     @param sFileName The fully qualified file path and name suitable for use in a FileOutputStrem.
+     @return The created instance.
+     @see WriteExcel#createDirect(WriteExcel,String,String)
+  */
+  public static WriteExcel createDirect(WriteExcel oWE,String sFileName) throws Exception {
+    return WriteExcel.createDirect(oWE,sFileName,null);
+  }
+
+  /** Creates an instance of <code>WriteExcel</code> using the direct engine that is written with
+     {@link WriteExcel#close(OutputStream) close(OutputStream)}, {@link WriteExcel#close(WritableByteChannel) close(WritableByteChannel)}
+     or {@link WriteExcel#toByteBuffer toByteBuffer}.
+     @param oWE the parent instance that subclasses WriteExcel;
+     @return The created instance.
+     @see WriteExcel#createDirect(WriteExcel,String,String)
+  */
+  public static WriteExcel createDirect(WriteExcel oWE) throws Exception {
+    return WriteExcel.createDirect(oWE,null,null);
+  }
+
   /**
-    Internal access to Cell manipulation routines. Used in regression testing.
-    @param oWB The Workbook we are accessing
-    @return WriteExcel in read only mode
+    Create an instance of <code>WriteExcel</code> that will write sFileName using the direct engine and uses sSrcName as a template file.
+    <p>
+    The cells written by Areas are not held as POI <code>Rows</code> and <code>Cells</code> but as a few arrays per row, and
+    are written as SpreadsheetML straight into the sheet parts when the Workbook is closed.  This takes a fraction of the heap
+    and time per cell for large Areas.  Styles, merges, comments, links, formulas and templates are still handled by POI so the
+    rest of the API works as with {@link WriteExcel#create create}: a row is handed over to POI when a method such as
+    {@link WriteExcel#zapCell zapCell} or a link needs it, and all rows are handed over by {@link WriteExcel#getWorkbook getWorkbook},
+    {@link WriteExcel#refreshCells refreshCells} and formula evaluation.
+    @param oWE the parent instance that subclasses WriteExcel;
+    @param sFileName The fully qualified file path and name suitable for use in a FileOutputStrem,
+    <code>null</code> when the Workbook is written with {@link WriteExcel#close(OutputStream) close(OutputStream)} or alike.
+    @param sSrcName The input .xlsx file that is to be used as a template, <code>null</code> for none.
+    @return The created instance.
   */
-  public static WriteExcel create(Workbook oWB) {
-    WriteExcel oWE = new WriteExcel();
-    oWE.oWB = oWB;
-    oWE.oFE = oWB.getCreationHelper().createFormulaEvaluator();
+  public static WriteExcel createDirect(WriteExcel oWE,String sFileName,String sSrcName) throws Exception {
+    WriteExcel.create(oWE,sFileName,sSrcName);
+    oWE.oDE = new DirectEngine();
     return oWE;
   }
 
   /**
-    Creates an <code>Area</code> with a base Row and Column of 0 on the specified Sheet.  The Sheet is created if it does not exist.
-    @param sSheet The Sheet name for the <code>Area</code>.
-    @return The created <code>Area</code>.
+    Set the size of the process wide template cache.
+    <p>
+    The templates given to {@link WriteExcel#create(WriteExcel,String,String) create} and
+    {@link WriteExcel#createDirect(WriteExcel,String,String) createDirect} are kept in memory, keyed by path and
+    checked against the file's modification time and length, so creating many Workbooks from one template does not read the file each time.
+    A template is held inflated, its parts zipped again without compression, so each Workbook skips inflating the template
+    but still parses its own copy of it.  The least recently used templates are dropped beyond this size.
+    @param nBytes Bytes of templates held, counted inflated, 64MB by default.  0 turns the cache off.
   */
-  public Area createArea(String sSheet) throws Exception {
-    return createArea(sSheet,0,0);
+  public static void setTemplateCacheLimit(long nBytes) {
+    TemplateCache.setLimit(nBytes);
   }
 
   /**
-    Creates an <code>Area</code> with the specified base Row and Column on the specified Sheet.  The Sheet is created if it does not exist.
-    @param sSheet The Sheet name for the <code>Area</code>.
-    @param nRow The 0 based row index.
-    @param nCol The 0 based column index.
-    @return The created <code>Area</code>.
+    Drop a template from the template cache, for example when it is replaced by a file with the same modification time.
+    @param sSrcName The template file as given to <code>create</code>.
   */
-  public Area createArea(String sSheet,int nRow,int nCol) throws Exception {
-    if (!bDidInitStyles) {
-      bDidInitStyles = true;
-      createStandardStylePods();
-    }
-    Area oA = new Area();
-    oA.oWE = this;
-    oA.sCurSheet = sSheet;
-    oA.nBaseRow  = nRow;
-    oA.nBaseCol  = nCol;
-    return oA;
+  public static void invalidateTemplate(String sSrcName) throws Exception {
+    TemplateCache.invalidate(sSrcName);
   }
 
   /**
-    Gets the standard header builtins styles.
-    <p>
-    Each String returned is of the format <code>#name:stystr</code> where
-    <ul>
+    Drop all templates from the template cache.
+  */
+  public static void invalidateTemplates() {
+    TemplateCache.invalidateAll();
+  }
+
+  /**
+    Create a streaming instance of <code>WriteExcel</code> that will write sFileName.
+    <p>
+    Only the last <code>nWindowRows</code> rows of each Sheet are kept in memory; older rows are flushed to a temporary file
+    so the heap used does not grow with the number of rows written.  Areas, merges, comments, links and styles work as usual provided
+    they refer to rows still inside the window.  Methods that need a row that was already flushed, such as
+    {@link WriteExcel#zapCell zapCell} or {@link WriteExcel#getStrValue getStrValue} on an old row or
+    {@link WriteExcel.Area#addDataFilterLine addDataFilterLine} once row 0 is gone, throw an <code>IllegalStateException</code>.
+    <p>
+    Areas sharing rows (side by side on a Sheet) must be written while those rows are inside the window.
+    @param oWE the parent instance that subclasses WriteExcel;
+    @param sFileName The fully qualified file path and name suitable for use in a FileOutputStrem.
+    @param nWindowRows The number of rows per Sheet kept in memory.
+    @return The created instance.
+  */
+  public static WriteExcel createStreaming(WriteExcel oWE,String sFileName,int nWindowRows) throws Exception {
+    if (nWindowRows < 1) throw e("Streaming window of "+nWindowRows+" rows is not valid");
+    oWE.sFileName = sFileName;
+    oWE.nWindowRows = nWindowRows;
+    oWE.oWB = new SXSSFWorkbook(nWindowRows);
+    oWE.oFE = oWE.oWB.getCreationHelper().createFormulaEvaluator();
+    oWE.resetStats();
+    return oWE;
+  }
+
+  /**
+    Create a streaming instance of <code>WriteExcel</code> that is written with {@link WriteExcel#close(OutputStream) close(OutputStream)},
+    {@link WriteExcel#close(WritableByteChannel) close(WritableByteChannel)} or {@link WriteExcel#toByteBuffer toByteBuffer}.
+    @param oWE the parent instance that subclasses WriteExcel;
+    @param nWindowRows The number of rows per Sheet kept in memory.
+    @return The created instance.
+    @see WriteExcel#createStreaming(WriteExcel,String,int)
+  */
+  public static WriteExcel createStreaming(WriteExcel oWE,int nWindowRows) throws Exception {
+    return WriteExcel.createStreaming(oWE,null,nWindowRows);
+  }
+
+  /**
+    Internal access to Cell manipulation routines. Used in regression testing.
+    @param oWB The Workbook we are accessing
+    @return WriteExcel in read only mode
+  */
+  public static WriteExcel create(Workbook oWB) {
+    WriteExcel oWE = new WriteExcel();
+    oWE.oWB = oWB;
+    oWE.oFE = oWB.getCreationHelper().createFormulaEvaluator();
+    oWE.resetStats();
+    return oWE;
+  }
+
+  /**
+    Creates an <code>Area</code> with a base Row and Column of 0 on the specified Sheet.  The Sheet is created if it does not exist.
+    @param sSheet The Sheet name for the <code>Area</code>.
+    @return The created <code>Area</code>.
+  */
+  public Area createArea(String sSheet) throws Exception {
+    return createArea(sSheet,0,0);
+  }
+
+  /**
+    Creates an <code>Area</code> with the specified base Row and Column on the specified Sheet.  The Sheet is created if it does not exist.
+    @param sSheet The Sheet name for the <code>Area</code>.
+    @param nRow The 0 based row index.
+    @param nCol The 0 based column index.
+    @return The created <code>Area</code>.
+  */
+  public Area createArea(String sSheet,int nRow,int nCol) throws Exception {
+    checkJob("createArea",sSheet);
+    if (!bDidInitStyles) {
+      bDidInitStyles = true;
+      createStandardStylePods();
+    }
+    Area oA = new Area();
+    oA.oWE = this;
+    oA.sCurSheet = sSheet;
+    oA.nBaseRow  = nRow;
+    oA.nBaseCol  = nCol;
+    return oA;
+  }
+
+  /**
+    Gets the standard header builtins styles.
+    <p>
+    Each String returned is of the format <code>#name:stystr</code> where
+    <ul>
       <li><code>name</code> is the style name prefixed with a <code>#</code> to mark it as standard style</li>
       <li><code>stystr</code> is the string orders as defined in <a href={@docRoot}/overview-summary.html#cell-orders>CellStyle orders</a>.</li>
     </ul>
@@ -897,6 +1758,7 @@ public class WriteExcel {
   public int getRowCount(String sSheet) {
     Sheet oS = oWB.getSheet(sSheet);
     if (oS == null) return 0;
+    if (oDE != null) return Math.max(oS.getLastRowNum(),oDE.getLastRowNum(oS)) + 1;
     return oS.getLastRowNum() + 1;
   }
 
@@ -921,12 +1783,15 @@ public class WriteExcel {
     @return The value as stored in the Cell. It could be <code>null</code>.
   */
   public String getStrValue(String sSheet,int nRow,int nCol) throws Exception {
+    checkJob("getStrValue",null);
     Sheet oS = oWB.getSheet(sSheet);
     if (oS == null) return null;
-    Row oRow = oS.getRow(nRow);
+    checkLiveRow(oS,nRow,"getStrValue");
+    Row oRow = getRow(oS,nRow);
     if (oRow== null) return null;
     Cell oC = oRow.getCell(nCol);
     if (oC == null) return null;
+    if (oC.getCellType() == CellType.FORMULA) materializeRows(null);  // the formula may refer to buffered cells
     return getCellAsStr(oC);
   }
 
@@ -935,9 +1800,15 @@ public class WriteExcel {
     <p>
     This allows inspection or modifications to be made to the Workbook using the POI library directly. Caution is advised.
     Calling this method allows the Sheet to be created in the desired sequence.
+    <p>
+    With {@link WriteExcel#createDirect createDirect} the rows written so far are first handed over to POI.
+    Merged cells still queued by a {@link WriteExcel.Area.RowBuilder RowBuilder} are added to their Sheets.
     @return Workbook.
   */
   public Workbook getWorkbook() throws Exception {
+    Sheet oJobS = (oOwner == null)?null:oWB.getSheet(sJobSheet);
+    materializeRows(oJobS);
+    if ((oOwner == null) || (oJobS != null)) commitMerges(oJobS);
     return oWB;
   }
 
@@ -960,9 +1831,11 @@ public class WriteExcel {
   */
 
   public void makeFileLink(String sLinkSty,String sSheet,int nRow,int nCol,String sStr,String sFileName) throws Exception {
+    checkJob("Links",null);
     Sheet oS = oWB.getSheet(sSheet);
     if (oS == null) return;
-    Row oRow = oS.getRow(nRow);
+    checkLiveRow(oS,nRow,"makeLink");
+    Row oRow = getRow(oS,nRow);
     if (oRow == null) oRow = oS.createRow(nRow);
     CreationHelper oCH = oWB.getCreationHelper();
     Cell oC = oRow.createCell(nCol);
@@ -971,6 +1844,7 @@ public class WriteExcel {
     Hyperlink oL = oCH.createHyperlink(HyperlinkType.FILE);
     oL.setAddress(sFileName);
     oC.setHyperlink(oL);
+    oStats.nLinks++;
     return;
   }
 
@@ -1006,6 +1880,7 @@ public class WriteExcel {
   Other style values may be used provided they have been added with the {@link WriteExcel#addStyleDefn addStyleDefn} method
   */
   public void makeIndexLink(String sTargLinkSty,String sTargSheet,String sIdxName,int nIdxRow,int nIdxCol,String sIdxLinkSty) throws Exception {
+    checkJob("Links",null);
     makeIndexLink(sTargLinkSty,sTargSheet,sIdxName,nIdxRow,nIdxCol,sIdxLinkSty,1,1);
   }
 
@@ -1045,8 +1920,11 @@ public class WriteExcel {
   */
 
   public void makeIndexLink(String sTargLinkSty,String sTargSheet,String sIdxName,int nIdxRow,int nIdxCol,String sIdxLinkSty,int nIdxLnkRow,int nIdxLnkCol) throws Exception {
+    checkJob("Links",null);
     Sheet oIdxSheet = oWB.getSheet("index");
-    Row oIdxRow = oIdxSheet.getRow(nIdxRow);
+    checkLiveRow(oIdxSheet,nIdxRow,"makeIndexLink");
+    checkLiveRow(oWB.getSheet(sTargSheet),nIdxLnkRow,"makeIndexLink");
+    Row oIdxRow = getRow(oIdxSheet,nIdxRow);
     if (oIdxRow == null) oIdxRow = oIdxSheet.createRow(nIdxRow);
     CreationHelper oCH = oIdxRow.getSheet().getWorkbook().getCreationHelper();
     Cell oIdxCell = oIdxRow.createCell(nIdxCol);
@@ -1055,13 +1933,15 @@ public class WriteExcel {
     Hyperlink oTargLnk = oCH.createHyperlink(HyperlinkType.DOCUMENT);
     oTargLnk.setAddress("'"+sTargSheet+"'!"+(new CellAddress(oIdxCell)).toString());
     oIdxCell.setHyperlink(oTargLnk);
+    oStats.nLinks++;
 
-    Cell oTargCell = oIdxRow.getSheet().getWorkbook().getSheet(sTargSheet).getRow(nIdxLnkRow).createCell(nIdxLnkCol);
+    Cell oTargCell = getRow(oIdxRow.getSheet().getWorkbook().getSheet(sTargSheet),nIdxLnkRow).createCell(nIdxLnkCol);
     Hyperlink oIdxLnk = oCH.createHyperlink(HyperlinkType.DOCUMENT);
     oIdxLnk.setAddress("'index'!"+(new CellAddress(oIdxCell)).toString());
     oTargCell.setCellValue("index");
     oTargCell.setCellStyle(useLinkStyle(sIdxName,sIdxLinkSty!=null?sIdxLinkSty:sTargLinkSty));
     oTargCell.setHyperlink(oIdxLnk);
+    oStats.nLinks++;
 
   }
 
@@ -1096,8 +1976,11 @@ public class WriteExcel {
 
   */
   public void makeStdLink(String sTargLinkSty,String sTargSheet,int nTargRow,int nTargCol,String sSrcLinkSty,String sSrcSheet,int nSrcRow,int nSrcCol) throws Exception {
+    checkJob("Links",null);
     Sheet oSrcSheet = oWB.getSheet(sSrcSheet);
-    Row oSrcRow = oSrcSheet.getRow(nSrcRow);
+    checkLiveRow(oSrcSheet,nSrcRow,"makeStdLink");
+    checkLiveRow(oWB.getSheet(sTargSheet),nTargRow,"makeStdLink");
+    Row oSrcRow = getRow(oSrcSheet,nSrcRow);
     if (oSrcRow == null) oSrcRow = oSrcSheet.createRow(nSrcRow);
     CreationHelper oCH = oSrcRow.getSheet().getWorkbook().getCreationHelper();
     Cell oSrcCell = oSrcRow.createCell(nSrcCol);
@@ -1106,13 +1989,15 @@ public class WriteExcel {
     Hyperlink oTargLnk = oCH.createHyperlink(HyperlinkType.DOCUMENT);
     oTargLnk.setAddress("'"+sTargSheet+"'!"+"ABCDEFGHIJKLMNOPQRSTUVXYZ".substring(nTargCol,nTargCol+1)+(nTargRow+1));
     oSrcCell.setHyperlink(oTargLnk);
+    oStats.nLinks++;
 
-    Cell oTargCell = oSrcRow.getSheet().getWorkbook().getSheet(sTargSheet).getRow(nTargRow).createCell(nTargCol);
+    Cell oTargCell = getRow(oSrcRow.getSheet().getWorkbook().getSheet(sTargSheet),nTargRow).createCell(nTargCol);
     Hyperlink oSrcLnk = oCH.createHyperlink(HyperlinkType.DOCUMENT);
     oSrcLnk.setAddress("'"+sSrcSheet+"'!"+"ABCDEFGHIJKLMNOPQRSTUVXYZ".substring(nSrcCol,nSrcCol+1)+(nSrcRow+1));
     oTargCell.setCellValue(sSrcSheet);
     oTargCell.setCellStyle(useLinkStyle(sSrcSheet,sSrcLinkSty));
     oTargCell.setHyperlink(oSrcLnk);
+    oStats.nLinks++;
   }
 
   /**
@@ -1139,6 +2024,7 @@ public class WriteExcel {
   @param sSrcText Text value to put in link text on the source sheet.
   */
   public void makeUniLink(String sLinkSty,String sTargSheet,int nTargRow,int nTargCol,String sSrcSheet,int nSrcRow,int nSrcCol,String sSrcText) throws Exception {
+    checkJob("Links",null);
     makeUniLink(sLinkSty,sTargSheet,nTargRow,nTargCol,sSrcSheet,nSrcRow,nSrcCol,sSrcText,1);
   }
   /**
@@ -1166,8 +2052,10 @@ public class WriteExcel {
   @param nRows number of rows to select in target location.
   */
   public void makeUniLink(String sLinkSty,String sTargSheet,int nTargRow,int nTargCol,String sSrcSheet,int nSrcRow,int nSrcCol,String sSrcText,int nRows) throws Exception {
+    checkJob("Links",null);
     Sheet oSrcSheet = oWB.getSheet(sSrcSheet);
-    Row oSrcRow = oSrcSheet.getRow(nSrcRow);
+    checkLiveRow(oSrcSheet,nSrcRow,"makeUniLink");
+    Row oSrcRow = getRow(oSrcSheet,nSrcRow);
     if (oSrcRow == null) oSrcRow = oSrcSheet.createRow(nSrcRow);
     CreationHelper oCH = oSrcRow.getSheet().getWorkbook().getCreationHelper();
     Cell oSrcCell = oSrcRow.createCell(nSrcCol);
@@ -1180,6 +2068,7 @@ public class WriteExcel {
     }
     oTargLnk.setAddress(sAddr);
     oSrcCell.setHyperlink(oTargLnk);
+    oStats.nLinks++;
   }
 
   /**
@@ -1200,9 +2089,11 @@ public class WriteExcel {
   @param sUrlName The URL passed to the browser
   */
   public void makeUrlLink(String sLinkSty,String sSheet,int nRow,int nCol,String sStr,String sUrlName) throws Exception {
+    checkJob("Links",null);
     Sheet oS = oWB.getSheet(sSheet);
     if (oS == null) return;
-    Row oRow = oS.getRow(nRow);
+    checkLiveRow(oS,nRow,"makeLink");
+    Row oRow = getRow(oS,nRow);
     if (oRow == null) oRow = oS.createRow(nRow);
     CreationHelper oCH = oWB.getCreationHelper();
     Cell oC = oRow.createCell(nCol);
@@ -1211,9 +2102,112 @@ public class WriteExcel {
     Hyperlink oL = oCH.createHyperlink(HyperlinkType.URL);
     oL.setAddress(sUrlName);
     oC.setHyperlink(oL);
+    oStats.nLinks++;
     return;
   }
 
+  /**
+    Builds several Sheets at the same time, each by its own {@link WriteExcel.SheetJob SheetJob} on a pool of threads.
+    <p>
+    Missing Sheets are created in the order of <code>oJobs</code> before any job starts so the Sheet order does not depend on
+    which job finishes first. Each job is given its own WriteExcel which shares the Workbook, styles and DataFormats of this one
+    but keeps its own parse state. A style combination first used by a job is registered with this WriteExcel under a lock,
+    so each distinct combination still has a single <code>CellStyle</code> and {@link WriteExcel#customExit customExit} is
+    called on this instance.
+    <p>
+    Styles, DataFormats and the negative format must all be defined before this call. A job can only create Areas on and zap
+    cells of its own Sheet. Links, comments, external Sheets, formula refreshes and {@link WriteExcel#close close} are Workbook
+    level changes and must be made after this method returns.
+    <p>
+    With {@link WriteExcel#createStreaming createStreaming} the jobs only share the style registry. Otherwise setting a string
+    or a style is also serialized as the Workbook keeps one shared strings table.
+    @param oJobs The jobs keyed by Sheet name.
+    @param nThreads The number of threads used, at most one per job.
+    @return WriteExcel for chaining purposes.
+  */
+  public WriteExcel parallelSheets(LinkedHashMap<String,SheetJob> oJobs,int nThreads) throws Exception {
+    checkJob("parallelSheets",null);
+    if (nThreads < 1) throw e("Thread count of "+nThreads+" is not valid");
+    if (!bDidInitStyles) {
+      bDidInitStyles = true;
+      createStandardStylePods();
+    }
+    ArrayList<WriteExcel> oViews = new ArrayList<>();
+    for(String sSheet:oJobs.keySet()) {
+      if (oWB.getSheet(sSheet) == null) oWB.createSheet(sSheet);
+      oViews.add(createJobView(sSheet));
+    }
+    ExecutorService oES = Executors.newFixedThreadPool(Math.max(1,Math.min(nThreads,oJobs.size())));
+    try {
+      ArrayList<Future<Object>> oFutures = new ArrayList<>();
+      int i = 0;
+      for(Map.Entry<String,SheetJob> oE:oJobs.entrySet()) {
+        final WriteExcel oView = oViews.get(i++);
+        final SheetJob   oJob  = oE.getValue();
+        final String     sSheet = oE.getKey();
+        oFutures.add(oES.submit(() -> {oJob.build(oView,sSheet); return null;}));
+      }
+      for(Future<Object> oF:oFutures) {
+        try {
+          oF.get();
+        } catch(ExecutionException oEx) {
+          Throwable oCause = oEx.getCause();
+          if (oCause instanceof Exception) throw (Exception)oCause;
+          throw oEx;
+        }
+      }
+      for(WriteExcel oView:oViews) oStats.add(oView.oStats);
+    } finally {
+      oES.shutdownNow();
+    }
+    return this;
+  }
+
+  private WriteExcel createJobView(String sSheet) {
+    WriteExcel oView = new WriteExcel();
+    oView.oOwner = this;
+    oView.sJobSheet = sSheet;
+    oView.oWB = oWB;
+    oView.nWindowRows = nWindowRows;
+    oView.oDE = oDE;
+    oView.oMerges = oMerges;
+    oView.oSpills = oSpills;
+    oView.oFG = oFG;
+    oView.bMergeCheck = bMergeCheck;
+    oView.bDidInitStyles = true;
+    oView.resetStats();
+    oView.oCellLock = (oWB instanceof SXSSFWorkbook)?null:this;
+    for(DataFmt oDF:oDataFmts) oView.oDataFmts.add(oDF.copy());
+    return oView;
+  }
+
+  // A SheetJob may only use its own Sheet and may not make Workbook level changes
+  private void checkJob(String sWhat,String sSheet) throws Exception {
+    if (oOwner == null) return;
+    if (sSheet == null) throw e(sWhat+" cannot be used by a SheetJob");
+    if (!sSheet.equals(sJobSheet)) throw e("SheetJob for sheet "+sJobSheet+" cannot use sheet "+sSheet);
+  }
+
+  private void setCellString(Cell oC,String sStr) {
+    if (oCellLock == null) {
+      oC.setCellValue(sStr);
+      return;
+    }
+    synchronized(oCellLock) {
+      oC.setCellValue(sStr);
+    }
+  }
+
+  private void setCellStyle(Cell oC,CellStyle oCS) {
+    if (oCellLock == null) {
+      oC.setCellStyle(oCS);
+      return;
+    }
+    synchronized(oCellLock) {
+      oC.setCellStyle(oCS);
+    }
+  }
+
   /**
     Refresh the calculated value in a specific Cell.
     <p>
@@ -1224,18 +2218,22 @@ public class WriteExcel {
     This should be used if referenced values have been changed before obtaining the current value of a cell
     that contains calculated values.
     <p>
-    If the refenced Cell does not exist this call is ignored.
+    If the refenced Cell does not exist this call is ignored.  When streaming it throws an <code>IllegalStateException</code>
+    if the row has been flushed.
     @param sSheet Sheet name
     @param nRow   Row number relative to 0
     @param nCol   Column number relative to 0
   */
   public void refreshCell(String sSheet,int nRow,int nCol) {
+    if (oOwner != null) throw new IllegalStateException("refreshCell cannot be used by a SheetJob");
     Sheet oS = oWB.getSheet(sSheet);
     if (oS == null) return;
-    Row oRow = oS.getRow(nRow);
+    checkLiveRow(oS,nRow,"refreshCell");
+    Row oRow = getRow(oS,nRow);
     if (oRow== null) return;
     Cell oC = oRow.getCell(nCol);
     if (oC == null) return;
+    materializeRows(null);
     oFE.evaluateInCell(oC);
   }
 
@@ -1251,7 +2249,124 @@ public class WriteExcel {
     <p>
   */
   public void refreshCells() {
+    if (oOwner != null) throw new IllegalStateException("refreshCells cannot be used by a SheetJob");
+    materializeRows(null);
     oFE.evaluateAll();
+    oFG.clean();
+  }
+
+  /**
+    Refresh the calculated values of the cells that depend on cells changed by {@link WriteExcel#zapCell zapCell}.
+    <p>
+    WriteExcel notes each Cell changed by <code>zapCell</code>.  The first call builds a graph of which formulas refer to
+    which Cells (directly or through ranges) from the formulas in the Workbook, and each call evaluates only the formulas
+    reached from the changed Cells, following formulas that use other formulas.  The graph is built again after WriteExcel
+    copies or replaces a formula; formulas changed directly through POI need {@link WriteExcel#refreshCells refreshCells}.
+    <p>
+    Formulas using defined names, INDIRECT, OFFSET or volatile functions such as NOW are evaluated on every call.
+    <p>
+    Not available for streaming Workbooks.
+  */
+  public void refreshDirty() throws Exception {
+    refreshDirty(1);
+  }
+
+  /**
+    Refresh the calculated values of the cells that depend on cells changed by {@link WriteExcel#zapCell zapCell}, see
+    {@link WriteExcel#refreshDirty() refreshDirty}.
+    <p>
+    The formulas to evaluate are split into chains that do not refer to each other and the chains are evaluated on
+    <code>nThreads</code> threads, each with its own FormulaEvaluator.
+    @param nThreads The number of threads, 1 evaluates on the calling thread.
+  */
+  public void refreshDirty(int nThreads) throws Exception {
+    checkJob("refreshDirty",null);
+    if (nThreads < 1) throw e("Thread count "+nThreads+" is not valid");
+    if (oWB instanceof SXSSFWorkbook) throw e("refreshDirty cannot be used with a streaming Workbook");
+    materializeRows(null);
+    oFG.refresh((XSSFWorkbook)oWB,oFE,nThreads);
+  }
+
+  /**
+    Set how {@link WriteExcel#close close} compresses and writes the Workbook.
+    @param oCP The profile, for example <code>new WriteExcel.CloseProfile().level(1).threads(4)</code>.
+    @return WriteExcel for chaining purposes.
+  */
+  public WriteExcel setCloseProfile(CloseProfile oCP) throws Exception {
+    checkJob("setCloseProfile",null);
+    if (oCP == null) throw e("CloseProfile is required");
+    this.oCP = oCP;
+    return this;
+  }
+
+  /**
+    Set whether the merged cells written by Areas are checked for overlaps.
+    <p>
+    The merges of an Area are added to the Sheet together each time it is written.  When checked (the default) each one is
+    looked up in an index of the merged columns of its rows, including merges already on the Sheet, and an overlap throws an
+    Exception as <code>Sheet.addMergedRegion</code> would.  Turning the check off saves the index when the layout is known
+    not to overlap; overlapping merges then produce a Workbook Excel will repair.
+    @param bCheck false to add merges without checking them.
+    @return WriteExcel for chaining purposes.
+  */
+  public WriteExcel setMergeCheck(boolean bCheck) throws Exception {
+    checkJob("setMergeCheck",null);
+    bMergeCheck = bCheck;
+    return this;
+  }
+
+  /**
+    Get the counters and timings since the Workbook was created or {@link WriteExcel#resetStats resetStats} was called.
+    <p>
+    Counts the cells written by type, the classification of cell texts, <code>chooseStyle</code> hits and misses,
+    the styles and fonts added to the Workbook and the merged regions, comments and links added, with the time spent in
+    <code>writeArea</code>, <code>calcDimensions</code> and <code>close</code>.  The counters cost an increment
+    where the work is done and are always kept.  The counts of the SheetJobs of {@link WriteExcel#parallelSheets parallelSheets}
+    are added when it returns.
+    @return A snapshot, later work does not change it.
+  */
+  public ExcelStats getStats() {
+    ExcelStats oS = oStats.copy();
+    if (oWB != null) {
+      oS.nStyles = oWB.getNumCellStyles() - nStyleBase;
+      oS.nFonts = oWB.getNumberOfFontsAsInt() - nFontBase;
+    }
+    return oS;
+  }
+
+  /**
+    Zero the counters and timings returned by {@link WriteExcel#getStats getStats}, for example between Areas.
+    @return WriteExcel for chaining purposes.
+  */
+  public WriteExcel resetStats() {
+    oStats = new ExcelStats();
+    if (oWB != null) {
+      nStyleBase = oWB.getNumCellStyles();
+      nFontBase = oWB.getNumberOfFontsAsInt();
+    }
+    return this;
+  }
+
+  /**
+    Set when a column of a {@link WriteExcel#createDirect createDirect} Workbook stops using the shared string table.
+    <p>
+    The direct engine keeps one copy of each distinct string, off the heap, and cells refer to it by number.  For columns
+    where nearly every value is different (ids, free text) the table only grows, so once the first <code>nSample</code> string
+    cells of a column have more than <code>dNewRatio</code> of them new, the rest of that column is written as inline strings.
+    <p>
+    Ignored by the other create methods.  Must be called before the Areas are written.
+    @param dNewRatio Fraction of new strings, 0.75 by default.  A value of 1 or more never switches.
+    @param nSample The number of string cells per column looked at, 1024 by default.
+    @return WriteExcel for chaining purposes.
+  */
+  public WriteExcel setInlineThreshold(double dNewRatio,int nSample) throws Exception {
+    checkJob("setInlineThreshold",null);
+    if (nSample < 1) throw e("Inline sample of "+nSample+" cells is not valid");
+    if (oDE != null) {
+      oDE.dInlineRatio = dNewRatio;
+      oDE.nInlineSample = nSample;
+    }
+    return this;
   }
 
   /**
@@ -1272,6 +2387,7 @@ public class WriteExcel {
     </ul>
   */
   public void setNegativeFormat(boolean bShowNegAsRed,String sNegFmt) throws Exception {
+    checkJob("setNegativeFormat",null);
     this.bShowNegAsRed = bShowNegAsRed;
     this.sNegFmt       = sNegFmt;
   }
@@ -1299,17 +2415,21 @@ public class WriteExcel {
     @return WriteExcel for chaining purposes.
   */
   public void zapCell(String sSheet,int nRow,int nCol,String sVal,boolean bKeepStyle) throws Exception {
+    checkJob("zapCell",sSheet);
     Sheet oS = oWB.getSheet(sSheet);
     if (oS == null) return;
-    Row oRow = oS.getRow(nRow);
+    checkLiveRow(oS,nRow,"zapCell");
+    Row oRow = getRow(oS,nRow);
     if (oRow== null) oRow = oS.createRow(nRow);
     CellStyle oSty = null;
+    Cell oCell = oRow.getCell(nCol);
+    if ((oCell != null) && (oCell.getCellType() == CellType.FORMULA)) oFG.invalidate();
     if (bKeepStyle) {
-      Cell oCell = oRow.getCell(nCol);
       if (oCell != null) oSty = oCell.getCellStyle();
     }
     setCellContent(null,oRow,nCol,""+sVal);
-    if (oSty != null) oRow.getCell(nCol).setCellStyle(oSty);
+    if (oSty != null) setCellStyle(oRow.getCell(nCol),oSty);
+    oFG.markDirty(oWB.getSheetIndex(oS),nRow,nCol);
   }
 
   // -------------- Style Management ----------------
@@ -1358,19 +2478,26 @@ public class WriteExcel {
     oSD.sName = sName;
     oSD.sStyStr = sStyStr;
     oSD.oSA = parseStyleAttrs(oSD);
-    oStyDefs.put(oSD.sName,oSD);
+    // the key chosen for a name depends on the defs, a name not defined before has no keys
+    if (oStyDefs.put(oSD.sName,oSD) != null) {
+      nStyleGen += 1;
+      oStyKeys.clear();
+    }
     return oSD;
   }
 
   private void createDataFormat(String sName,String sMatcher,String sDataFmt) throws Exception {
     DataFmt oDF = new DataFmt();
+    oDF.nId = oDataFmts.size() + 1;
     oDF.sName = sName;
     if (sMatcher != null) {
       oDF.oM = Pattern.compile(sMatcher).matcher("");
+      oDF.bShape = compileShape(oDF,sMatcher);
     }
     oDF.sDataFmt = sDataFmt;
     if (sDataFmt != null) {
       oDF.bInteger = !(sDataFmt.contains("."));
+      for(int i=sDataFmt.indexOf('.')+1; (i > 0) && (i < sDataFmt.length()) && ("0#?".indexOf(sDataFmt.charAt(i)) >= 0); i++) oDF.nDecs++;
       if ((!sDataFmt.contains(";")) && (bShowNegAsRed || (sNegFmt != null))) {
         if (sNegFmt != null) {
           switch(sNegFmt) {
@@ -1403,8 +2530,64 @@ public class WriteExcel {
    * end-if
    **/
   private CellStyle chooseStyle(SpecFmt oSF,String sRowFmt) throws Exception {
-    //log("chooseStyle "+sRowFmt+" /"+oSF.sName+"/ "+oSF.oDF.sDataFmt+" "+oSF.sData);
+    return chooseStyle(oSF,sRowFmt,null);
+  }
+
+  /* Fast path of chooseStyle.  The style is found by a packed key of DataFmt, style and row style ids and oMemo,
+   * the column of a data cell, remembers the last choice so a column repeating its format skips the lookup.
+   * A miss builds the string key as before.  Choices with an undefined style are not kept so the ignored
+   * message is still logged every time.
+   */
+  private CellStyle chooseStyle(SpecFmt oSF,String sRowFmt,HdrCol oMemo) throws Exception {
     if ((sRowFmt == null) && (oSF.oDF.oM == null) && (oSF.sName == null)) return null;
+    if ((oMemo != null) && (oMemo.nMemoGen == nStyleGen) && (oMemo.oMemoDF == oSF.oDF) && (oMemo.sMemoName == oSF.sName) && (oMemo.sMemoRowFmt == sRowFmt)) {
+      oStats.nStyleMemoHits++;
+      return oMemo.oMemoCS;
+    }
+    long nKey = ((long)oSF.oDF.nId << 48) | ((long)styleId(oSF.sName) << 24) | styleId(sRowFmt);
+    CellStyle oCS = oStyKeys.get(nKey);
+    if (oCS != null) {
+      oStats.nStyleKeyHits++;
+    } else {
+      oStats.nStyleMisses++;
+      if (oOwner != null) {
+        synchronized(oOwner) {
+          oCS = oOwner.chooseStyleByName(oSF,sRowFmt);
+          if (!oOwner.isStyleDefined(oSF.sName,sRowFmt)) return oCS;
+        }
+      } else {
+        oCS = chooseStyleByName(oSF,sRowFmt);
+        if (!isStyleDefined(oSF.sName,sRowFmt)) return oCS;
+      }
+      oStyKeys.put(nKey,oCS);
+    }
+    if (oMemo != null) {
+      oMemo.nMemoGen = nStyleGen;
+      oMemo.oMemoDF = oSF.oDF;
+      oMemo.sMemoName = oSF.sName;
+      oMemo.sMemoRowFmt = sRowFmt;
+      oMemo.oMemoCS = oCS;
+    }
+    return oCS;
+  }
+
+  private boolean isStyleDefined(String sName,String sRowFmt) {
+    return ((sName == null) || oStyDefs.containsKey(sName)) && ((sRowFmt == null) || oStyDefs.containsKey(sRowFmt));
+  }
+
+  private int styleId(String sName) {
+    if (sName == null) return 0;
+    Integer nId = oStyIds.get(sName);
+    if (nId == null) {
+      if (oStyIds.size() >= 0xFFFFFF) throw new IllegalStateException("Too many style names");
+      nId = oStyIds.size() + 1;
+      oStyIds.put(sName,nId);
+    }
+    return nId;
+  }
+
+  private CellStyle chooseStyleByName(SpecFmt oSF,String sRowFmt) throws Exception {
+    //log("chooseStyle "+sRowFmt+" /"+oSF.sName+"/ "+oSF.oDF.sDataFmt+" "+oSF.sData);
 
     String sStyKey = oSF.oDF.sName;
 
@@ -1420,7 +2603,7 @@ public class WriteExcel {
     if (oSF.sName != null) {
       oSD = oStyDefs.get(oSF.sName);
       if (oSD != null) {
-        sStyKey += "/"+oSF.sName;
+        sStyKey += "/"+oSD.sName;
       } else {
         log("StyleDef ref "+oSF.sName+" ignored");
       }
@@ -1455,30 +2638,9 @@ public class WriteExcel {
     Font oFont = null;
     if (oSD != null) {
       StyleAttrs oSA = oSD.oSA;
-      if (oSA.bNeedFont) {
-        oFont = oWB.createFont();
-        if (oSA.sFontFamily != null) oFont.setFontName(oSA.sFontFamily);
-        if (oSA.bBold) oFont.setBold(true);
-        if (oSA.bItalic) oFont.setItalic(true);
-        if (oSA.bStrike) oFont.setStrikeout(true);
-        if (oSA.dPoints != 0.00) oFont.setFontHeightInPoints(new Double(oSA.dPoints).shortValue());
-        if (oSA.bLink && (oSA.oForeRGB == null)) {
-          oFont.setUnderline(Font.U_SINGLE);
-          oFont.setColor(IndexedColors.BLUE.getIndex());
-        }
-        if (oSA.oForeRGB != null) {
-          if (oSA.nForeIX != -1) {
-            oFont.setColor(oSA.nForeIX);
-          } else {
-            // seemed only way to make this work with custom colors
-            XSSFColor oXC = new XSSFColor(oSA.oForeRGB,null);
-            ((XSSFFont)oFont).setColor(oXC);
-          }
-        }
-      }
+      if (oSA.bNeedFont) oFont = internFont(oSA);
       if (oSA.oBackRGB != null) {
-        IndexedColorMap oICM = ((XSSFWorkbook)oWB).getStylesSource().getIndexedColors();
-        XSSFColor oColBG = new XSSFColor(oSA.oBackRGB,oICM);
+        XSSFColor oColBG = getColor(oSA.oBackRGB,false);
         ((XSSFCellStyle)oCS).setFillForegroundColor(oColBG);
         ((XSSFCellStyle)oCS).setFillBackgroundColor(oColBG);
         ((XSSFCellStyle)oCS).setFillPattern(FillPatternType.FINE_DOTS);
@@ -1507,8 +2669,7 @@ public class WriteExcel {
     }
 
     if ((oRowSD != null) && (oRowSD.oSA.bBackOnly) && (oSD.oSA.oBackRGB == null)) {
-      IndexedColorMap oICM = ((XSSFWorkbook)oWB).getStylesSource().getIndexedColors();
-      XSSFColor oColBG = new XSSFColor(oRowSD.oSA.oBackRGB,oICM);
+      XSSFColor oColBG = getColor(oRowSD.oSA.oBackRGB,false);
       ((XSSFCellStyle)oCS).setFillForegroundColor(oColBG);
       ((XSSFCellStyle)oCS).setFillBackgroundColor(oColBG);
       ((XSSFCellStyle)oCS).setFillPattern(FillPatternType.FINE_DOTS);
@@ -1519,6 +2680,53 @@ public class WriteExcel {
     return oCS;
   }
 
+  /* Styles needing the same font attributes share one Font, so the combinations of data formats, styles and
+   * row formats do not each add a font to styles.xml.
+   */
+  private Font internFont(StyleAttrs oSA) {
+    boolean bLink = oSA.bLink && (oSA.oForeRGB == null);
+    short nPoints = (oSA.dPoints != 0.00)?new Double(oSA.dPoints).shortValue():0;
+    String sKey = oSA.sFontFamily+"|"+(oSA.bBold?"b":"")+(oSA.bItalic?"i":"")+(oSA.bStrike?"s":"")+(bLink?"l":"")+"|"+nPoints
+      +"|"+((oSA.oForeRGB == null)?"":(oSA.nForeIX != -1)?""+oSA.nForeIX:"#"+rgbKey(oSA.oForeRGB));
+    Font oFont = oFontKeys.get(sKey);
+    if (oFont != null) return oFont;
+    oFont = oWB.createFont();
+    if (oSA.sFontFamily != null) oFont.setFontName(oSA.sFontFamily);
+    if (oSA.bBold) oFont.setBold(true);
+    if (oSA.bItalic) oFont.setItalic(true);
+    if (oSA.bStrike) oFont.setStrikeout(true);
+    if (nPoints != 0) oFont.setFontHeightInPoints(nPoints);
+    if (bLink) {
+      oFont.setUnderline(Font.U_SINGLE);
+      oFont.setColor(IndexedColors.BLUE.getIndex());
+    }
+    if (oSA.oForeRGB != null) {
+      if (oSA.nForeIX != -1) {
+        oFont.setColor(oSA.nForeIX);
+      } else {
+        // seemed only way to make this work with custom colors
+        ((XSSFFont)oFont).setColor(getColor(oSA.oForeRGB,true));
+      }
+    }
+    oFontKeys.put(sKey,oFont);
+    return oFont;
+  }
+
+  // Colors by RGB, fore colors are made without the IndexedColorMap.  Styles and fonts copy the color they are given.
+  private XSSFColor getColor(byte[] oRGB,boolean bFore) {
+    Integer nKey = (bFore?0x1000000:0) | rgbKey(oRGB);
+    XSSFColor oXC = oColors.get(nKey);
+    if (oXC == null) {
+      oXC = new XSSFColor(oRGB,bFore?null:getXSSFWorkbook().getStylesSource().getIndexedColors());
+      oColors.put(nKey,oXC);
+    }
+    return oXC;
+  }
+
+  private static int rgbKey(byte[] oRGB) {
+    return ((oRGB[0] & 0xFF) << 16) | ((oRGB[1] & 0xFF) << 8) | (oRGB[2] & 0xFF);
+  }
+
   private CellStyle getLinkStyle(String sCellData,String sName) throws Exception {
     SpecFmt oSF = parseCellData(sCellData);
     oSF.oDF = getDefaultFmt();
@@ -1526,62 +2734,99 @@ public class WriteExcel {
     return oSty;
   }
 
-  static Matcher oM2f   = Pattern.compile("f").matcher("");
-  static Matcher oM2FF  = Pattern.compile("FF[(]([^)]+)[)]").matcher("");
-  static Matcher oM2b   = Pattern.compile("b").matcher("");
-  static Matcher oM2i   = Pattern.compile("i").matcher("");
-  static Matcher oM2s   = Pattern.compile("s").matcher("");
-  static Matcher oM2l   = Pattern.compile("l").matcher("");
-  static Matcher oM2pt  = Pattern.compile("[0-9]+([.][0-9]+)?").matcher("");
-  static Matcher oM2tot = Pattern.compile("=").matcher("");
-  static Matcher oM2sub = Pattern.compile("-").matcher("");
-  static Matcher oM2fin = Pattern.compile("~").matcher("");
-  static Matcher oM2FG  = Pattern.compile("FG[(](([a-zA-Z][a-zA-Z0-9-_]+)|([0-9]+,[0-9]+,[0-9]+))[)]").matcher("");
-  static Matcher oM2BG  = Pattern.compile("BG[(](([a-zA-Z][a-zA-Z0-9-_]+)|([0-9]+,[0-9]+,[0-9]+))[)]").matcher("");
-  static Matcher oM2C   = Pattern.compile("C").matcher("");
-  static Matcher oM2L   = Pattern.compile("L").matcher("");
-  static Matcher oM2R   = Pattern.compile("R").matcher("");
-  static Matcher oM2T   = Pattern.compile("T").matcher("");
-  static Matcher oM2B   = Pattern.compile("B").matcher("");
-  static Matcher oM2M   = Pattern.compile("M").matcher("");
-  static Matcher oM3rgb = Pattern.compile("([0-9]+),([0-9]+),([0-9]+)").matcher("");
-  static Matcher oM2CE  = Pattern.compile("CE[(]([a-zA-Z0-9-_]+)[)]").matcher("");
+  static final String sStyOrders = "fbislLCRTMB=-~";   // single character orders, the bit of each is its index
+  static final int    nOrdFF = 1 << 14;
+  static final int    nOrdFG = 1 << 15;
+  static final int    nOrdBG = 1 << 16;
+  static final int    nOrdCE = 1 << 17;
+  static final int    nOrdPt = 1 << 18;
 
   /**
     Internal method to parse style attributes into (@link StyleAttrs}.
+    <p>
+    The orders are read in one pass.  An order given a second time, or text that is not an order, has no effect and
+    is logged.  Conflicting orders are settled the same way whatever sequence they are written in: <code>f</code> wins
+    over <code>FF()</code>, <code>R</code> over <code>C</code> over <code>L</code>, <code>B</code> over <code>M</code>
+    over <code>T</code> and <code>~</code> over <code>-</code> over <code>=</code>.
   */
   private StyleAttrs parseStyleAttrs(StyleDef oSD) throws Exception {
     StyleAttrs oSA = new StyleAttrs();
-    String[] sStyStr = new String[]{oSD.sStyStr};
-    if (sStyStr[0].startsWith(":")) sStyStr[0] = sStyStr[0].substring(1);
-    String s = null;
-    // done early to avoid match ambiguity
-    if ((s = applyMatcher(sStyStr,oM2FG )) != null) {oSA.bNeedFont = true; setColorRGB(true,oSA,s);}
-    if ((s = applyMatcher(sStyStr,oM2BG )) != null) {setColorRGB(false,oSA,s);}
-    if ((s = applyMatcher(sStyStr,oM2CE )) != null) {oSA.sCustExit = s.substring(3,s.length()-1);}
-
-    if ((s = applyMatcher(sStyStr,oM2FF )) != null) {oSA.bNeedFont = true; oSA.sFontFamily = s;}
-    if ((s = applyMatcher(sStyStr,oM2f  )) != null) {oSA.bNeedFont = true; oSA.sFontFamily = sFntFix;}
-    if ((s = applyMatcher(sStyStr,oM2b  )) != null) {oSA.bNeedFont = true; oSA.bBold = true;}
-    if ((s = applyMatcher(sStyStr,oM2i  )) != null) {oSA.bNeedFont = true; oSA.bItalic = true;}
-    if ((s = applyMatcher(sStyStr,oM2s  )) != null) {oSA.bNeedFont = true; oSA.bStrike = true;}
-    if ((s = applyMatcher(sStyStr,oM2l  )) != null) {oSA.bNeedFont = true; oSA.bLink = true;}
-    if ((s = applyMatcher(sStyStr,oM2pt )) != null) {oSA.bNeedFont = true; oSA.dPoints = Double.parseDouble(s);}
-
-    if ((s = applyMatcher(sStyStr,oM2L  )) != null)  {oSA.cHorzAlign = s.charAt(0);}
-    if ((s = applyMatcher(sStyStr,oM2C  )) != null)  {oSA.cHorzAlign = s.charAt(0);}
-    if ((s = applyMatcher(sStyStr,oM2R  )) != null)  {oSA.cHorzAlign = s.charAt(0);}
-    if ((s = applyMatcher(sStyStr,oM2T  )) != null)  {oSA.cVertAlign = s.charAt(0);}
-    if ((s = applyMatcher(sStyStr,oM2M  )) != null)  {oSA.cVertAlign = s.charAt(0);}
-    if ((s = applyMatcher(sStyStr,oM2B  )) != null)  {oSA.cVertAlign = s.charAt(0);}
-
-    if ((s = applyMatcher(sStyStr,oM2tot)) != null)  {oSA.bNeedFont = true; oSA.cTot = s.charAt(0);}
-    if ((s = applyMatcher(sStyStr,oM2sub)) != null)  {oSA.bNeedFont = true; oSA.cTot = s.charAt(0);}
-    if ((s = applyMatcher(sStyStr,oM2fin)) != null)  {oSA.bNeedFont = true; oSA.cTot = s.charAt(0);}
-
-
-    if (sStyStr[0].trim().length() != 0) {
-      log("Style Attrs "+oSD.sStyStr+" remnants "+sStyStr[0]+" had no effect");
+    String sStr = oSD.sStyStr;
+    int nLen = sStr.length();
+    int nSeen = 0;                  // bits of the orders found
+    boolean bFixed = false;
+    StringBuilder oRest = null;     // text that had no effect
+    for(int i=sStr.startsWith(":")?1:0; i<nLen; ) {
+      char c = sStr.charAt(i);
+      if (Character.isWhitespace(c)) {
+        i++;
+        continue;
+      }
+      int nEnd = i + 1;             // end of the order, or of the text skipped
+      int nOrd = 0;
+      String sArg = null;
+      char c2 = ((i+2 < nLen) && (sStr.charAt(i+2) == '('))?sStr.charAt(i+1):0;
+      int nParen = ((c == 'F') && (c2 == 'F'))?nOrdFF:((c == 'F') && (c2 == 'G'))?nOrdFG:((c == 'B') && (c2 == 'G'))?nOrdBG:((c == 'C') && (c2 == 'E'))?nOrdCE:0;
+      if (nParen != 0) {
+        int nClose = sStr.indexOf(')',i+3);
+        nEnd = (nClose < 0)?nLen:nClose+1;
+        if (nClose > i+3) {
+          sArg = sStr.substring(i+3,nClose);
+          if ((nParen == nOrdFF) || ((nParen == nOrdCE)?isOrderName(sArg,false):(isOrderName(sArg,true) || isOrderRGB(sArg)))) nOrd = nParen;
+        }
+      } else if (isDigit(c)) {
+        while((nEnd < nLen) && isDigit(sStr.charAt(nEnd))) nEnd++;
+        if ((nEnd+1 < nLen) && (sStr.charAt(nEnd) == '.') && isDigit(sStr.charAt(nEnd+1))) {
+          for(nEnd+=2; (nEnd < nLen) && isDigit(sStr.charAt(nEnd)); nEnd++);
+        }
+        nOrd = nOrdPt;
+      } else if (sStyOrders.indexOf(c) >= 0) {
+        nOrd = 1 << sStyOrders.indexOf(c);
+      }
+      if ((nOrd == 0) || ((nSeen & nOrd) != 0)) {
+        if (oRest == null) oRest = new StringBuilder();
+        oRest.append(sStr,i,nEnd);
+        i = nEnd;
+        continue;
+      }
+      nSeen |= nOrd;
+      if (nOrd == nOrdFG) {
+        oSA.bNeedFont = true;
+        setColorRGB(true,oSA,sArg);
+      } else if (nOrd == nOrdBG) {
+        setColorRGB(false,oSA,sArg);
+      } else if (nOrd == nOrdCE) {
+        oSA.sCustExit = sArg;
+      } else if (nOrd == nOrdFF) {
+        oSA.bNeedFont = true;
+        if (!bFixed) oSA.sFontFamily = sArg;
+      } else if (nOrd == nOrdPt) {
+        oSA.bNeedFont = true;
+        oSA.dPoints = Double.parseDouble(sStr.substring(i,nEnd));
+      } else {
+        switch(c) {
+          case 'f': oSA.bNeedFont = true; oSA.sFontFamily = sFntFix; bFixed = true; break;
+          case 'b': oSA.bNeedFont = true; oSA.bBold = true;   break;
+          case 'i': oSA.bNeedFont = true; oSA.bItalic = true; break;
+          case 's': oSA.bNeedFont = true; oSA.bStrike = true; break;
+          case 'l': oSA.bNeedFont = true; oSA.bLink = true;   break;
+          case 'L': case 'C': case 'R':
+            if ("LCR".indexOf(c) > "LCR".indexOf(oSA.cHorzAlign)) oSA.cHorzAlign = c;
+            break;
+          case 'T': case 'M': case 'B':
+            if ("TMB".indexOf(c) > "TMB".indexOf(oSA.cVertAlign)) oSA.cVertAlign = c;
+            break;
+          case '=': case '-': case '~':
+            oSA.bNeedFont = true;
+            if ("=-~".indexOf(c) > "=-~".indexOf(oSA.cTot)) oSA.cTot = c;
+            break;
+        }
+      }
+      i = nEnd;
+    }
+
+    if (oRest != null) {
+      log("Style Attrs "+oSD.sStyStr+" remnants "+oRest+" had no effect");
     }
     if (!oSA.bNeedFont && (oSA.cVertAlign == 0) && (oSA.cHorzAlign == 0) && (oSA.oForeRGB == null) && (oSA.oBackRGB != null)) {
       oSA.bBackOnly = true;
@@ -1592,17 +2837,71 @@ public class WriteExcel {
     return oSA;
   }
 
+  private static boolean isDigit(char c) {
+    return (c >= '0') && (c <= '9');
+  }
+
+  // a color name starts with a letter and has 2 or more characters, a CE() name is any of [a-zA-Z0-9-_]+
+  private static boolean isOrderName(String s,boolean bColor) {
+    if (s.length() < (bColor?2:1)) return false;
+    for(int i=0; i<s.length(); i++) {
+      char c = s.charAt(i);
+      boolean bLetter = ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z'));
+      if (bLetter) continue;
+      if (bColor && (i == 0)) return false;
+      if (!isDigit(c) && (c != '-') && (c != '_')) return false;
+    }
+    return true;
+  }
+
+  // r,g,b as three unsigned integers
+  private static boolean isOrderRGB(String s) {
+    int nParts = 1;
+    boolean bDigit = false;
+    for(int i=0; i<s.length(); i++) {
+      char c = s.charAt(i);
+      if (isDigit(c)) {
+        bDigit = true;
+      } else if ((c == ',') && bDigit && (nParts < 3)) {
+        nParts++;
+        bDigit = false;
+      } else {
+        return false;
+      }
+    }
+    return bDigit && (nParts == 3);
+  }
+
+  /* The attributes that make the style as a string, equal for styles written with the same orders in another sequence.
+   */
+  private static String getAttrsKey(StyleAttrs oSA) {
+    StringBuilder oSB = new StringBuilder();
+    oSB.append(oSA.sFontFamily).append('|').append(oSA.sCustExit).append('|');
+    if (oSA.bBold) oSB.append('b');
+    if (oSA.bItalic) oSB.append('i');
+    if (oSA.bStrike) oSB.append('s');
+    if (oSA.bLink) oSB.append('l');
+    if (oSA.bNeedFont) oSB.append('+');
+    oSB.append('|').append(oSA.dPoints).append('|');
+    if (oSA.oForeRGB != null) oSB.append((oSA.nForeIX != -1)?""+oSA.nForeIX:"#"+rgbKey(oSA.oForeRGB));
+    oSB.append('|');
+    if (oSA.oBackRGB != null) oSB.append('#').append(rgbKey(oSA.oBackRGB));
+    oSB.append('|').append((int)oSA.cHorzAlign).append('|').append((int)oSA.cVertAlign).append('|').append((int)oSA.cTot);
+    return oSB.toString();
+  }
+
   private void setColorRGB(boolean bFG,StyleAttrs oSA,String sRGB) throws Exception {
     byte[] oRGB = null;
     short nIndex = -1;
-    if (oM3rgb.reset(sRGB).find()) {
-      oRGB = rgb(Integer.parseInt(oM3rgb.group(1)),Integer.parseInt(oM3rgb.group(2)),Integer.parseInt(oM3rgb.group(3)));
+    if (isOrderRGB(sRGB)) {
+      String[] sParts = sRGB.split(",");
+      oRGB = rgb(Integer.parseInt(sParts[0]),Integer.parseInt(sParts[1]),Integer.parseInt(sParts[2]));
     } else {
       String sStr = sRGB.toUpperCase().replace('-','_');
       IndexedColors oIC = IndexedColors.valueOf(sStr);
       if (oIC != null) {
         nIndex = oIC.getIndex();
-        IndexedColorMap oICM = ((XSSFWorkbook)oWB).getStylesSource().getIndexedColors();
+        IndexedColorMap oICM = getXSSFWorkbook().getStylesSource().getIndexedColors();
         oRGB = oICM.getRGB(oIC.getIndex());
       } else {
         log("No match for color "+sStr);
@@ -1619,33 +2918,24 @@ public class WriteExcel {
     }
   }
 
-  private String applyMatcher(String[] sStyStr,Matcher oM) throws Exception {
-    if (oM.reset(sStyStr[0]).find()) {
-      String sRet = oM.group();
-      if (oM.groupCount() > 1) sRet = oM.group(1);
-      sStyStr[0] = oM.reset(sStyStr[0]).replaceFirst("");
-      return sRet;
-    }
-    return null;
-  }
-
   private SpecFmt parseCellData(String sCellData) throws Exception {
-    SpecFmt oSF = new SpecFmt();
-    oSF.sData = sCellData;
-    if ((sCellData != null) && (oFmt.reset(sCellData).find())) {
-      oSF.sData = oFmt.group("rest");
-      if (oFmt.group("mrg") != null) {
-        if (oFmt.group("mrg").startsWith("0")) oSF.bPlain = true;
-        if (!oSF.bPlain) { // Leading 0 kills merge, keeps col-count
-          oSF.nMerge = Integer.parseInt(oFmt.group("mrg"));
-        }
-      }
-      if ((oFmt.group("fmt") != null) && (oFmt.group("fmt").length() > 0)) {
-        oSF.sName = oFmt.group("fmt");
+    return parseCellData(sCellData,new SpecFmt());
+  }
+
+  private SpecFmt parseCellData(String sCellData,SpecFmt oSF) throws Exception {
+    oSF.reset(sCellData);
+    Prefix oP = getPrefix(sCellData);
+    if (oP != null) {
+      oSF.sData = getPrefixRest(sCellData,oP);
+      oSF.nMerge = oP.nMerge;
+      oSF.bPlain = oP.bPlain;
+      if (oP.sName != null) {
+        oSF.sName = oP.sName;
         if (oSF.sName.startsWith(":")) {
           oSF.sAnonFmt = oSF.sName.substring(1);
-          if (!oStyDefs.containsKey(oSF.sName)) {
-            insertStyleDef(oSF.sName,oSF.sAnonFmt);
+          if (!oP.bAnonDone) {
+            checkAnonStyle(oSF.sName);
+            oP.bAnonDone = true;
           }
         }
       }
@@ -1653,24 +2943,155 @@ public class WriteExcel {
     return oSF;
   }
 
+  // -------------- Prefix cache ----------------
+
+  static final int nPrefixSlots = 256;                          // power of 2
+  Prefix[] oPrefixes = new Prefix[nPrefixSlots];                // open addressing, no removal
+  int      nPrefixes = 0;
+
+  /* Returns the parsed {mm.xxx} prefix of sData or null when it has none.  The lookup hashes the prefix
+   * in place so a hit allocates nothing.  A miss is parsed by the oFmt regex so the parts are the same as
+   * before, and is only cached while the table is less than 3/4 full.
+   */
+  private Prefix getPrefix(String sData) throws Exception {
+    if ((sData == null) || (sData.length() < 2) || (sData.charAt(0) != '{')) return null;
+    int nClose = sData.indexOf('}',1);
+    if (nClose < 0) return null;
+    int nHash = 0;
+    for(int i=0; i<=nClose; i++) nHash = 31*nHash + sData.charAt(i);
+    int nMask = nPrefixSlots - 1;
+    int ix = (nHash ^ (nHash >>> 16)) & nMask;
+    for(Prefix oP; (oP = oPrefixes[ix]) != null; ix = (ix + 1) & nMask) {
+      if ((oP.nHash == nHash) && (oP.sKey.length() == nClose+1) && sData.startsWith(oP.sKey)) return oP;
+    }
+    if (!oFmt.reset(sData).find()) return null;
+    Prefix oP = new Prefix();
+    oP.sKey = sData.substring(0,nClose+1);
+    oP.nHash = nHash;
+    if (oFmt.group("mrg") != null) {
+      if (oFmt.group("mrg").startsWith("0")) oP.bPlain = true;
+      if (!oP.bPlain) { // Leading 0 kills merge, keeps col-count
+        oP.nMerge = Integer.parseInt(oFmt.group("mrg"));
+      }
+    }
+    if ((oFmt.group("fmt") != null) && (oFmt.group("fmt").length() > 0)) {
+      oP.sName = oFmt.group("fmt");
+    }
+    if (nPrefixes < nPrefixSlots*3/4) {
+      oPrefixes[ix] = oP;
+      nPrefixes += 1;
+    }
+    return oP;
+  }
+
+  // the data after the prefix, which like the regex "(?<rest>.*)" stops at a line terminator
+  private static String getPrefixRest(String sData,Prefix oP) {
+    int nStart = oP.sKey.length();
+    int nEnd = nStart;
+    for(int nLen=sData.length(); nEnd<nLen; nEnd++) {
+      char c = sData.charAt(nEnd);
+      if ((c == '\n') || (c == '\r') || (c == '\u0085') || (c == '\u2028') || (c == '\u2029')) break;
+    }
+    return sData.substring(nStart,nEnd);
+  }
+
+  // anonymous styles are defined on first use, one with the same attributes as an earlier one shares its StyleDef
+  private void checkAnonStyle(String sName) throws Exception {
+    if (oOwner != null) {
+      synchronized(oOwner) {
+        oOwner.checkAnonStyle(sName);
+      }
+      return;
+    }
+    if (sName.startsWith(":") && !oStyDefs.containsKey(sName)) {
+      StyleDef oSD = insertStyleDef(sName,sName.substring(1));
+      StyleDef oSame = oAnonDefs.putIfAbsent(getAttrsKey(oSD.oSA),oSD);
+      if (oSame != null) oStyDefs.put(sName,oSame);
+    }
+  }
+
+  private DataFmt getDataFmt(String sName) throws Exception {
+    for(DataFmt oDF:oDataFmts) {
+      if (oDF.sName.equals(sName)) return oDF;
+    }
+    throw e("DataFormat "+sName+" not defined");
+  }
+
   private SpecFmt setCellContent(String sColFmt,Row oRow,int col,String sData) throws Exception {
+    return setCellContent(sColFmt,oRow,col,sData,null);
+  }
+
+  /* The SpecFmt returned is reused by the next call.  oMemo is the column of a data cell, see chooseStyle.
+   */
+  private SpecFmt setCellContent(String sColFmt,Row oRow,int col,String sData,HdrCol oMemo) throws Exception {
     Cell oC = oRow.createCell(col);
-    SpecFmt oSF = parseCellData(sData);
+    SpecFmt oSF = classifyCell(sData);
+    countCell(oSF);
+    if (oSF.oDF.oM == null) {
+      setCellString(oC,oSF.sData);
+    } else {
+      oC.setCellValue(oSF.dValue);
+    }
+    CellStyle oSty = chooseStyle(oSF,sColFmt,oMemo);
+    if (oSty != null) setCellStyle(oC,oSty);
+    return oSF;
+  }
+
+  /* Same as above for a row buffered by the direct engine.
+   */
+  private SpecFmt setCellContent(String sColFmt,DirectEngine.DRow oDR,int col,String sData,HdrCol oMemo) throws Exception {
+    SpecFmt oSF = classifyCell(sData);
+    countCell(oSF);
+    CellStyle oSty = chooseStyle(oSF,sColFmt,oMemo);
+    if (oSF.oDF.oM == null) {
+      oDR.putString(col,oSF.sData,oSty);
+    } else {
+      oDR.putNumber(col,oSF.dValue,oSty);
+    }
+    return oSF;
+  }
+
+  private void countCell(SpecFmt oSF) {
+    if (oSF.oDF.oM != null) {
+      oStats.nCellsNumeric++;
+    } else if ((oSF.sData == null) || oSF.sData.isEmpty()) {
+      oStats.nCellsBlank++;
+    } else {
+      oStats.nCellsString++;
+    }
+  }
+
+  // Area cells go to the direct engine row when there is one
+  private SpecFmt setAreaCell(String sColFmt,Row oRow,DirectEngine.DRow oDR,int col,String sData,HdrCol oMemo) throws Exception {
+    if (oDR != null) return setCellContent(sColFmt,oDR,col,sData,oMemo);
+    return setCellContent(sColFmt,oRow,col,sData,oMemo);
+  }
+
+  /* Parses the {mm.xxx} prefix and finds the DataFmt of the remaining data, setting dValue when it is numeric.
+   */
+  private SpecFmt classifyCell(String sData) throws Exception {
+    SpecFmt oSF = parseCellData(sData,oCellSF);
+    boolean bNum = scanValue(oSF.sData);
+    oStats.nClassified++;
     for(DataFmt oDF:oDataFmts) {
       if (oDF.oM == null) {// catch all
-        oC.setCellValue(oSF.sData);
         oSF.oDF = oDF;
         break;
-      } else {
-        if ((oSF.sData != null) && (oDF.oM.reset(oSF.sData).find())) {
+      } else if (oDF.bShape) {
+        if (bNum && matchShape(oDF,oSF.sData)) {
+          oSF.dValue = scannedValue(oDF,oSF.sData);
+          oSF.oDF = oDF;
+          break;
+        }
+      } else if (oSF.sData != null) {
+        oStats.nRegexTests++;
+        if (oDF.oM.reset(oSF.sData).find()) {
           String sPureStr = oSF.sData.replaceAll("[^0-9.-]","");
           //log("Insert "+oSF.sData+" "+sData+" "+sPureStr+" as "+oDF.sDataFmt+" "+oDF.oM);
           if (oDF.bInteger) {
-            long m = Long.decode(sPureStr);
-            oC.setCellValue(m);
+            oSF.dValue = Long.decode(sPureStr);
           } else {
-            double d = Double.parseDouble(sPureStr);
-            oC.setCellValue(d);
+            oSF.dValue = Double.parseDouble(sPureStr);
           }
           oSF.oDF = oDF;
           break;
@@ -1678,14 +3099,183 @@ public class WriteExcel {
       }
     }
     if (oSF.oDF == null) throw e("cannot happen "+sData);
-
-    CellStyle oSty = chooseStyle(oSF,sColFmt);
-    if (oSty != null) oC.setCellStyle(oSty);
-
-
     return oSF;
   }
 
+  // -------------- Compiled DataFmt matching ----------------
+
+  static final double[] dPow10 = {1e0,1e1,1e2,1e3,1e4,1e5,1e6,1e7,1e8,1e9,1e10,1e11,1e12,1e13,1e14,1e15,1e16,1e17,1e18,1e19,1e20,1e21,1e22};
+
+  // set by scanValue, the parts of the last value scanned
+  SpecFmt oCellSF = new SpecFmt();  // reused by setCellContent
+  int     nValPfx;     // end of the prefix
+  int     nValInt;     // end of the integer digits
+  int     nValEnd;     // end of the value excluding a final line terminator
+  int     nValDecs;    // number of decimals
+  boolean bValNeg;
+  boolean bValDot;
+
+  /* Compiles a matcher of the form ^prefix-?[0-9]+([.]|\.)[0-9]{n}$ so it can be tested against the parts
+   * found by scanValue.  The prefix can only hold letters and escaped punctuation other than '-' and '.',
+   * the digit runs can be made of [0-9] or \d with ?, *, +, {n}, {n,} or {n,m} quantifiers.  Returns false
+   * for anything else so the regex is used.
+   */
+  private static boolean compileShape(DataFmt oDF,String sMatcher) {
+    if (!sMatcher.startsWith("^") || !sMatcher.endsWith("$") || sMatcher.endsWith("\\$")) return false;
+    int nEnd = sMatcher.length() - 1;
+    int i = 1;
+    StringBuilder oSB = new StringBuilder();
+    while(i < nEnd) {
+      char c = sMatcher.charAt(i);
+      if ((c == '\\') && (i+1 < nEnd) && !Character.isLetterOrDigit(sMatcher.charAt(i+1))) {
+        c = sMatcher.charAt(i+1);
+        i += 2;
+      } else if (Character.isLetter(c)) {
+        i += 1;
+      } else {
+        break;
+      }
+      if ((c == '-') || (c == '.') || ((c >= '0') && (c <= '9'))) return false;
+      oSB.append(c);
+    }
+    oDF.sPrefix = ""+oSB;
+    oDF.bSign = sMatcher.startsWith("-?",i);
+    if (oDF.bSign) i += 2;
+    int[] nRange = new int[2];
+    i = compileDigits(sMatcher,i,nEnd,nRange);
+    if (i < 0) return false;
+    oDF.nMinInt = nRange[0];
+    oDF.nMaxInt = nRange[1];
+    oDF.nMinDecs = -1;
+    if (i < nEnd) {
+      if (sMatcher.startsWith("[.]",i)) {
+        i += 3;
+      } else if (sMatcher.startsWith("\\.",i)) {
+        i += 2;
+      } else {
+        return false;
+      }
+      i = compileDigits(sMatcher,i,nEnd,nRange);
+      if (i != nEnd) return false;
+      oDF.nMinDecs = nRange[0];
+      oDF.nMaxDecs = nRange[1];
+    }
+    return true;
+  }
+
+  // Parses a run of digit classes and returns the index after it, or -1 if there is none
+  private static int compileDigits(String sMatcher,int i,int nEnd,int[] nRange) {
+    int nMin = 0;
+    int nMax = 0;
+    boolean bAny = false;
+    while(i < nEnd) {
+      if (sMatcher.startsWith("[0-9]",i)) {
+        i += 5;
+      } else if (sMatcher.startsWith("\\d",i)) {
+        i += 2;
+      } else {
+        break;
+      }
+      bAny = true;
+      int nLo = 1;
+      int nHi = 1;
+      char c = (i < nEnd)?sMatcher.charAt(i):0;
+      if (c == '+') {
+        nHi = Integer.MAX_VALUE;
+        i += 1;
+      } else if (c == '*') {
+        nLo = 0;
+        nHi = Integer.MAX_VALUE;
+        i += 1;
+      } else if (c == '?') {
+        nLo = 0;
+        i += 1;
+      } else if (c == '{') {
+        int nClose = sMatcher.indexOf('}',i);
+        if ((nClose < 0) || (nClose >= nEnd)) return -1;
+        String[] sParts = sMatcher.substring(i+1,nClose).split(",",-1);
+        try {
+          nLo = Integer.parseInt(sParts[0]);
+          nHi = (sParts.length == 1)?nLo:((sParts[1].length() == 0)?Integer.MAX_VALUE:Integer.parseInt(sParts[1]));
+        } catch(NumberFormatException oEx) {
+          return -1;
+        }
+        if ((sParts.length > 2) || (nHi < nLo)) return -1;
+        i = nClose + 1;
+      }
+      nMin += nLo;
+      nMax = ((nMax == Integer.MAX_VALUE) || (nHi == Integer.MAX_VALUE))?Integer.MAX_VALUE:nMax+nHi;
+    }
+    if (!bAny) return -1;
+    nRange[0] = nMin;
+    nRange[1] = nMax;
+    return i;
+  }
+
+  /* Splits a value into prefix, sign, integer digits and decimals in one pass.  Returns false when the
+   * value cannot match any compiled DataFmt.  As with the regex $ a final line terminator is ignored.
+   */
+  private boolean scanValue(String sData) {
+    if (sData == null) return false;
+    int nEnd = sData.length();
+    if (nEnd > 0) {
+      char c = sData.charAt(nEnd-1);
+      if ((c == '\n') || (c == '\r') || (c == '\u0085') || (c == '\u2028') || (c == '\u2029')) {
+        nEnd -= 1;
+        if ((c == '\n') && (nEnd > 0) && (sData.charAt(nEnd-1) == '\r')) nEnd -= 1;
+      }
+    }
+    int i = 0;
+    char c = 0;
+    for(; i<nEnd; i++) {
+      c = sData.charAt(i);
+      if ((c == '-') || (c == '.') || ((c >= '0') && (c <= '9'))) break;
+    }
+    nValPfx = i;
+    bValNeg = (i < nEnd) && (c == '-');
+    if (bValNeg) i++;
+    while((i < nEnd) && ((c = sData.charAt(i)) >= '0') && (c <= '9')) i++;
+    nValInt = i;
+    bValDot = (i < nEnd) && (sData.charAt(i) == '.');
+    if (bValDot) i++;
+    while((i < nEnd) && ((c = sData.charAt(i)) >= '0') && (c <= '9')) i++;
+    nValDecs = bValDot?i - nValInt - 1:0;
+    nValEnd = nEnd;
+    return i == nEnd;
+  }
+
+  private boolean matchShape(DataFmt oDF,String sData) {
+    if (nValPfx != oDF.sPrefix.length() || !sData.startsWith(oDF.sPrefix)) return false;
+    if (bValNeg && !oDF.bSign) return false;
+    int nInt = nValInt - nValPfx - (bValNeg?1:0);
+    if ((nInt < oDF.nMinInt) || (nInt > oDF.nMaxInt)) return false;
+    if (oDF.nMinDecs < 0) return !bValDot;
+    return bValDot && (nValDecs >= oDF.nMinDecs) && (nValDecs <= oDF.nMaxDecs);
+  }
+
+  /* Gets the value of the last scanned data.  Values that are exact as a long or as a long over a power of 10
+   * are converted directly, the rest (including leading zeros which Long.decode treats as octal) use the
+   * same conversion as the regex path.
+   */
+  private double scannedValue(DataFmt oDF,String sData) {
+    int nStart = nValPfx + (bValNeg?1:0);
+    int nInt = nValInt - nStart;
+    int nDigits = nInt + nValDecs;
+    boolean bDirect = (nDigits > 0) && (nDigits <= 15) && (nValDecs <= 22);
+    if (oDF.bInteger) bDirect = bDirect && !bValDot && ((nInt == 1) || (sData.charAt(nStart) != '0'));
+    if (!bDirect) {
+      String sPureStr = sData.substring(nValPfx,nValEnd);
+      if (oDF.bInteger) return Long.decode(sPureStr);
+      return Double.parseDouble(sPureStr);
+    }
+    long m = 0;
+    for(int i=nStart; i<nValInt; i++) m = m*10 + (sData.charAt(i) - '0');
+    for(int i=nValInt+1,iMax=nValInt+1+nValDecs; i<iMax; i++) m = m*10 + (sData.charAt(i) - '0');
+    if (oDF.bInteger) return bValNeg?-m:m;
+    double d = m / dPow10[nValDecs];  // exact operands so the quotient is correctly rounded
+    return bValNeg?-d:d;
+  }
+
   private DataFmt getDefaultFmt() {
     for(DataFmt oDF:oDataFmts) {
       if (oDF.oM == null) {// catch all
@@ -1763,6 +3353,7 @@ public class WriteExcel {
   }
 
   private CellStyle useLinkStyle(String sData,String sLinkSty) throws Exception {
+    checkJob("Links",null);
     if (sLinkSty == null) sLinkSty = "#lkc";
     return getLinkStyle(sData,sLinkSty);
   }
@@ -1823,14 +3414,8 @@ public class WriteExcel {
     Cell oNewCell = oRow.createCell(nCol);
     CellStyle oSty = oCell.getCellStyle();
     if (oSty != null) {
-      int nHash = oSty.hashCode();
-      CellStyle oNewSty = oStyMap.get(""+nHash);
-      if (oNewSty == null) {
-        oNewSty = oWB.createCellStyle();
-        oNewSty.cloneStyleFrom(oSty);
-        oStyMap.put(""+nHash,oNewSty);
-      }
-      oNewCell.setCellStyle(oNewSty);
+      if (oStyMap == null) oStyMap = new StyleTranslator(oWB,getXSSFWorkbook());
+      oNewCell.setCellStyle(oStyMap.translate(oCell.getSheet().getWorkbook(),oSty));
     }
     return copyCellValue(oNewCell,oCell);
   }
@@ -1840,28 +3425,89 @@ public class WriteExcel {
     switch (oType) {
     case BLANK:
         oNewCell.setCellType(CellType.BLANK);
+        oStats.nCellsBlank++;
         break;
       case STRING:
-        oNewCell.setCellValue(oC.getStringCellValue());
+        String sVal = oC.getStringCellValue();
+        oNewCell.setCellValue(sVal);
+        if (sVal.isEmpty()) oStats.nCellsBlank++; else oStats.nCellsString++;
         break;
       case NUMERIC:
         oNewCell.setCellValue(oC.getNumericCellValue());
+        oStats.nCellsNumeric++;
         break;
       case FORMULA:
         oNewCell.setCellFormula(oC.getCellFormula());
+        oFG.invalidate();
+        oStats.nCellsFormula++;
         break;
       case BOOLEAN:
         oNewCell.setCellValue(oC.getBooleanCellValue());
+        oStats.nCellsOther++;
         break;
       case _NONE:
         break;
       case ERROR:
         oNewCell.setCellErrorValue(oC.getErrorCellValue());
+        oStats.nCellsOther++;
         break;
     }
     return oNewCell;
   }
 
+  /** The XSSF Workbook holding the styles.  When streaming it is the one wrapped by the SXSSF Workbook.
+  */
+  private XSSFWorkbook getXSSFWorkbook() {
+    if (oWB instanceof SXSSFWorkbook) return ((SXSSFWorkbook)oWB).getXSSFWorkbook();
+    return (XSSFWorkbook)oWB;
+  }
+
+  /* Gets a Row for the methods that work on POI Cells.  A row buffered by the direct engine is handed to POI first.
+   */
+  Row getRow(Sheet oS,int nRow) {
+    if (oDE != null) {
+      DirectEngine.DRow oDR = oDE.takeRow(oS,nRow);
+      if (oDR != null) return materializeRow(oS,oDR);
+    }
+    return oS.getRow(nRow);
+  }
+
+  private Row materializeRow(Sheet oS,DirectEngine.DRow oDR) {
+    Row oRow = oS.createRow(oDR.nRow);
+    for(int i=0; i<oDR.nCells; i++) {
+      Cell oC = oRow.createCell(oDR.nCols[i]);
+      if (oDR.nTypes[i] == DirectEngine.T_NUM) {
+        oC.setCellValue(oDR.dNums[i]);
+      } else if ((oDR.nTypes[i] == DirectEngine.T_STR) || (oDR.nTypes[i] == DirectEngine.T_INLINE)) {
+        setCellString(oC,oDR.getString(i));
+      }
+      if (oDR.nStyles[i] >= 0) setCellStyle(oC,oWB.getCellStyleAt(oDR.nStyles[i]));
+    }
+    return oRow;
+  }
+
+  // hands the buffered rows of oS, or of all Sheets when null, to POI
+  private void materializeRows(Sheet oS) {
+    if (oDE == null) return;
+    for(Sheet oDS:oDE.getSheets()) {
+      if ((oS != null) && (oDS != oS)) continue;
+      for(int i=0,iMax=oDE.getLastRowNum(oDS); i<=iMax; i++) getRow(oDS,i);
+    }
+  }
+
+  /** When streaming, rows at or below the last flushed row are gone.  Fail with a clear message rather than
+    letting POI report an out of sequence row or return null.  The exception is unchecked so public methods that did
+    not declare one, such as {@link WriteExcel#refreshCell refreshCell}, keep their signatures.
+  */
+  void checkLiveRow(Sheet oS,int nRow,String sWhat) {
+    if (!(oS instanceof SXSSFSheet)) return;
+    int nFlushed = ((SXSSFSheet)oS).getLastFlushedRowNum();
+    if (nRow <= nFlushed) {
+      throw new IllegalStateException(sWhat+" cannot access row "+nRow+" of sheet "+oS.getSheetName()+", rows 0-"+nFlushed
+        +" have been flushed (streaming window "+nWindowRows+" rows)");
+    }
+  }
+
   private byte[] rgb(int r,int g,int b) {
     return new byte[]{(byte)r,(byte)g,(byte)b};
   }
@@ -1878,6 +3524,7 @@ public class WriteExcel {
     oA.setRow1(oRow.getRowNum());
     oA.setRow2(oRow.getRowNum()+6);
     Comment oComm = oD.createCellComment(oA);
+    oStats.nComments++;
     RichTextString oStr = oCH.createRichTextString(sText);
     if (oFont != null) oStr.applyFont(oFont);
     oComm.setString(oStr);
@@ -1887,7 +3534,7 @@ public class WriteExcel {
   /*private*/ void addCellComment(String sSheet,int nRow,int nCol,Cell oCell,Comment oNote) throws Exception {
     Sheet oS = oWB.getSheet(sSheet);
     if (oS == null) return;
-    Row oRow = oS.getRow(nRow);
+    Row oRow = getRow(oS,nRow);
     if (oRow == null) oS.createRow(nRow);
     String sStr = getCellAsStr(oCell);
     Cell oC = null;
@@ -1906,6 +3553,7 @@ public class WriteExcel {
       oA.setRow1(oRow.getRowNum());
       oA.setRow2(oRow.getRowNum()+6);
       Comment oComm = oD.createCellComment(oA);
+      oStats.nComments++;
       oComm.setString(oNote.getString());
       oComm.setAuthor(oNote.getAuthor());
       oC.setCellComment(oComm);
@@ -1925,17 +3573,12 @@ public class WriteExcel {
       oHC.sText = sCol;
       //oHC.sRawText = sCol;
       oHC.sHdrFmt = sHdrFmt;
-      if (oFmt.reset(sCol).find()) {
-        oHC.sText = oFmt.group("rest");
-        if (oFmt.group("mrg") != null) {
-          if (oFmt.group("mrg").startsWith("0")) oHC.bPlain = true;
-          if (!oHC.bPlain) { // Leading 0 kills merge, keeps col-count
-            oHC.nMerge = Integer.parseInt(oFmt.group("mrg"));
-          }
-        }
-        if ((oFmt.group("fmt") != null) && (oFmt.group("fmt").length() > 0)) {
-          oHC.sHdrFmt = oFmt.group("fmt");
-        }
+      Prefix oP = getPrefix(sCol);
+      if (oP != null) {
+        oHC.sText = getPrefixRest(sCol,oP);
+        oHC.bPlain = oP.bPlain;
+        oHC.nMerge = oP.nMerge;
+        if (oP.sName != null) oHC.sHdrFmt = oP.sName;
       }
     }
     return oHdrs;
@@ -1943,11 +3586,20 @@ public class WriteExcel {
 
   private void calcDimensions(Area oA) {
     if (oA.oHdrs.size() == 0) return;
+    long nStart = System.nanoTime();
+    boolean bFirst = !oA.bHdrsWritten; // flushed Areas keep widening the widths of earlier chunks
     HdrCol[] oHCs = oA.oHdrs.get(oA.oHdrs.size() - 1); // last takes and is assumed to have most cols
     for(int col=0,colMax=oHCs.length; col<colMax; col++) {
       HdrCol oHC = oHCs[col];
-      oHC.nMaxStr = Math.min(10,oHC.sText.length());
-      oHC.nWidthMult = 320;
+      if (bFirst) {
+        oHC.nMaxStr = Math.min(10,oHC.sText.length());
+        oHC.nWidthMult = 320;
+      }
+      if (oA.oSpill != null) continue;
+      if (oA.oCols != null) {
+        calcDimensions(oA.oCols,col,oHC);
+        continue;
+      }
       for(int row=0,rowMax=oA.oRows.size(); row<rowMax; row++) {
         String[] sRow = oA.oRows.get(row);
         if (col < sRow.length) {
@@ -1962,90 +3614,297 @@ public class WriteExcel {
         }
       }
     }
+    if (oA.oSpill != null) calcDimensions(oA.oSpill,oHCs);
+    oStats.nCalcDimensionsNanos += System.nanoTime() - nStart;
+  }
+
+  // the same for the rows of a spilled Area, in one pass over the file
+  private void calcDimensions(RowSpill oRS,HdrCol[] oHCs) {
+    RowSpill.Cursor oCur = oRS.cursor();
+    while(oCur.next()) {
+      for(int col=0,colMax=Math.min(oHCs.length,oCur.getLength()); col<colMax; col++) {
+        HdrCol oHC = oHCs[col];
+        int nLen = oCur.getTextLength(col);
+        if ((nLen > 0) && (oCur.getDataLength(col) > oHC.nMaxStr)) {
+          oHC.nWidthMult = 280;
+          oHC.nMaxStr = nLen;
+        }
+      }
+    }
+  }
+
+  // the same for a column of a columnar Area, read from the codes without making the strings
+  private void calcDimensions(ColumnStore oCS,int col,HdrCol oHC) {
+    for(int row=0,rowMax=oCS.size(); row<rowMax; row++) {
+      if (col >= oCS.getLength(row)) continue;
+      long nCode = oCS.getCode(row,col);
+      int nLen = oCS.getTextLength(nCode);
+      if ((nLen > 0) && (oCS.getDataLength(nCode) > oHC.nMaxStr)) {
+        oHC.nWidthMult = 280;
+        oHC.nMaxStr = nLen;
+      }
+    }
   }
 
   private Area writeArea(Area oA,String sSheet) throws Exception {
+    long nStart = System.nanoTime();
+    try {
+      flushArea(oA,true);
+    } finally {
+      if (oA.oSpill != null) oA.closeSpill();  // written or failed, the file is not needed
+      oStats.nWriteAreaNanos += System.nanoTime() - nStart;
+    }
+    return oA;
+  }
+
+  RowSpill openSpill() throws Exception {
+    RowSpill oRS = new RowSpill();
+    oSpills.add(oRS);
+    return oRS;
+  }
+
+  void closeSpill(RowSpill oRS) throws Exception {
+    oSpills.remove(oRS);
+    oRS.close();
+  }
+
+  private void closeSpills() throws Exception {
+    for(RowSpill oRS:oSpills.toArray(new RowSpill[0])) closeSpill(oRS);
+  }
+
+  /* Converts the buffered rows of the Area to cells.  The headers are written on the first call
+   * (every call unless the Area is flushing), the buffered rows are dropped when the Area is flushing
+   * and the column widths are set by the final call from writeArea.
+   */
+  void flushArea(Area oA,boolean bFinal) throws Exception {
     calcDimensions(oA);
-    Sheet oS = oWB.getSheet(sSheet);
-    if (oS == null) oS = oWB.createSheet(sSheet);
+    Sheet oS = oWB.getSheet(oA.sCurSheet);
+    if (oS == null) {
+      checkJob("Sheet creation",null);
+      oS = oWB.createSheet(oA.sCurSheet);
+    }
+    if (!oA.bHdrsWritten) writeHeaders(oA,oS);
+    writeRows(oA,oS,oA.getDataRow()+oA.nRowsWritten);
+    getMerges(oS).commit(bMergeCheck);
+    if (oA.isFlushing()) {
+      oA.bHdrsWritten = true;
+      oA.nRowsWritten += oA.getBuffered();
+      oA.clearBuffered();
+      if (oA.sColFmts != null) oA.sColFmts.clear();
+    }
+    if (bFinal) setColumnWidths(oA,oS);
+  }
+
+  private void writeHeaders(Area oA,Sheet oS) throws Exception {
     int nRow = oA.nBaseRow;
-    HdrCol[] oHCs = null;
     for(int i=0,iMax=oA.oHdrs.size(); i<iMax; i++) {
-      oHCs = oA.oHdrs.get(i); // last takes and is assumed to have most cols
-      Row oHdr = oS.getRow(nRow);
-      if (oHdr == null) oHdr = oS.createRow(nRow);
+      HdrCol[] oHCs = oA.oHdrs.get(i);
+      checkLiveRow(oS,nRow,"writeArea");
+      DirectEngine.DRow oDR = (oDE == null)?null:oDE.getAreaRow(oS,nRow);
+      Row oHdr = null;
+      if (oDR == null) {
+        oHdr = oS.getRow(nRow);
+        if (oHdr == null) oHdr = oS.createRow(nRow);
+      }
+      int nHdrRow = nRow;
       nRow += 1;
       boolean bMerge = false;
-      boolean bLast = (i == oA.oHdrs.size() - 1);
       int nBias = 0;
       for(HdrCol oHC:oHCs) {
         int nCol = oHC.nHdrIX+oA.nBaseCol+nBias;
-        setCellContent(oHC.sHdrFmt,oHdr,nCol,oHC.sText);
+        setAreaCell(oHC.sHdrFmt,oHdr,oDR,nCol,oHC.sText,null);
         if (oHC.nMerge != 0) {
           bMerge = true;
           nBias += oHC.nMerge - 1;
         }
       }
       nBias = 0;
-      for(HdrCol oHC:oHCs) {
-        int nCol = oHC.nHdrIX+oA.nBaseCol;
-        if (bMerge) {
+      if (bMerge) {
+        MergeIndex oMI = getMerges(oS);
+        for(HdrCol oHC:oHCs) {
+          int nCol = oHC.nHdrIX+oA.nBaseCol;
           if (oHC.nMerge > 0) {
-            oS.addMergedRegion(new CellRangeAddress(oHdr.getRowNum(),oHdr.getRowNum(),nCol+nBias,nCol+nBias+oHC.nMerge-1));
+            oMI.add(nHdrRow,nHdrRow,nCol+nBias,nCol+nBias+oHC.nMerge-1);
+            oStats.nMerges++;
             nBias += oHC.nMerge - 1;
           }
-        } else {
-          if (bLast) oS.setColumnWidth(nCol,oHC.nMaxStr*oHC.nWidthMult);
         }
       }
-      if (oHdr.getLastCellNum() > oA.nMaxCol) oA.nMaxCol = oHdr.getLastCellNum();
+      int nLast = (oDR != null)?oDR.getLastCellNum():oHdr.getLastCellNum();
+      if (nLast > oA.nMaxCol) oA.nMaxCol = nLast;
     }
     if (oA.oHdrs.size() > 0) {
       oS.createFreezePane(0,oA.oHdrs.size()+oA.getBaseRow());
     }
+  }
+
+  private MergeIndex getMerges(Sheet oS) {
+    return oMerges.computeIfAbsent(oS,k -> new MergeIndex(k));
+  }
+
+  // adds the merges still queued by RowBuilders on oS, or on all Sheets when null
+  private void commitMerges(Sheet oS) throws Exception {
+    for(Map.Entry<Sheet,MergeIndex> oE:oMerges.entrySet()) {
+      if ((oS == null) || (oE.getKey() == oS)) oE.getValue().commit(bMergeCheck);
+    }
+  }
 
-    int nMaxRows = oA.oRows.size();
+  // widths come from the last header row unless it has merged cells
+  private void setColumnWidths(Area oA,Sheet oS) {
+    if (oA.oHdrs.size() == 0) return;
+    HdrCol[] oHCs = oA.oHdrs.get(oA.oHdrs.size() - 1);
+    for(HdrCol oHC:oHCs) {
+      if (oHC.nMerge != 0) return;
+    }
+    for(HdrCol oHC:oHCs) {
+      oS.setColumnWidth(oHC.nHdrIX+oA.nBaseCol,oHC.nMaxStr*oHC.nWidthMult);
+    }
+  }
+
+  private void writeRows(Area oA,Sheet oS,int nRow) throws Exception {
+    HdrCol[] oHCs = (oA.oHdrs.size() > 0)?oA.oHdrs.get(oA.oHdrs.size() - 1):null; // last takes and is assumed to have most cols
+    int nMaxRows = oA.getBuffered();
+    RowSpill.Cursor oCur = (oA.oSpill != null)?oA.oSpill.cursor():null;
+    ColumnStore oCS = (oCur == null)?oA.oCols:null;
+    MergeIndex oMI = getMerges(oS);
+    int[] nMergeCols = new int[8];  // merges of the row, added right to left
+    int[] nMergeLens = new int[8];
 
     for(int row=0,rowMax=nMaxRows; row<rowMax; row++) {
-      Row oRow = oS.getRow(nRow);
-      if (oRow == null) oRow = oS.createRow(nRow);
+      checkLiveRow(oS,nRow,"writeArea");
+      DirectEngine.DRow oDR = (oDE == null)?null:oDE.getAreaRow(oS,nRow);
+      Row oRow = null;
+      if (oDR == null) {
+        oRow = oS.getRow(nRow);
+        if (oRow == null) oRow = oS.createRow(nRow);
+      }
+      int nThisRow = nRow;
       nRow += 1;
       int nBias = 0;
-      String[] sRows = oA.oRows.get(row);
+      if (oCur != null) oCur.next();
+      String[] sRows = ((oCur == null) && (oCS == null))?oA.oRows.get(row):null;
+      int nLen = (oCur != null)?oCur.getLength():(oCS != null)?oCS.getLength(row):sRows.length;
       //int nStripe = ((oA.nStripes != null) && (row < oA.nStripes.size()))?oA.nStripes.get(row).intValue():0;
-      String sColFmt = ((oA.sColFmts != null) && (row < oA.sColFmts.size()))?oA.sColFmts.get(row):null;
-      ArrayList<String> sMerges = new ArrayList<>();
+      String sColFmt = (oCur != null)?oCur.getRowFmt():((oA.sColFmts != null) && (row < oA.sColFmts.size()))?oA.sColFmts.get(row):null;
+      int nMerges = 0;
       for(int col=0,colMax=oHCs.length; col<colMax; col++) {
-        if (col >= sRows.length) break;
+        if (col >= nLen) break;
         HdrCol oHC = oHCs[col];
-        String sData = sRows[col];
+        String sData = (oCur != null)?oCur.get(col):(oCS != null)?oCS.get(row,col):sRows[col];
         if (sData == null) sData = "";
         int nCol = oA.nBaseCol+oHC.nHdrIX+nBias;
-        SpecFmt oSF = setCellContent(sColFmt,oRow,nCol,sData);
+        SpecFmt oSF = setAreaCell(sColFmt,oRow,oDR,nCol,sData,oHC);
         if (oSF.nMerge > 0) {
           int nMerge = oSF.nMerge;
           for(int j=1,jMax=nMerge; j<jMax; j++) {
-            setCellContent(null,oRow,nCol+j,"");
+            setAreaCell(null,oRow,oDR,nCol+j,"",null);
+          }
+          if (nMerges == nMergeCols.length) {
+            nMergeCols = Arrays.copyOf(nMergeCols,nMerges*2);
+            nMergeLens = Arrays.copyOf(nMergeLens,nMerges*2);
           }
-          sMerges.add(0,""+(nCol)+","+nMerge);
-          //log("Merge store "+""+(col+nBias)+","+sMerge);
+          nMergeCols[nMerges] = nCol;
+          nMergeLens[nMerges++] = nMerge;
           nBias += nMerge - 1;
           //oS.addMergedRegion(new CellRangeAddress(oRow.getRowNum(),oRow.getRowNum(),col,col+nMerge));
         }
-        if (oRow.getLastCellNum() > oA.nMaxCol) oA.nMaxCol = oRow.getLastCellNum();
+        int nLast = (oDR != null)?oDR.getLastCellNum():oRow.getLastCellNum();
+        if (nLast > oA.nMaxCol) oA.nMaxCol = nLast;
+      }
+
+      for(int i=nMerges-1; i>=0; i--) {
+        oMI.add(nThisRow,nThisRow,nMergeCols[i],nMergeCols[i]+nMergeLens[i]-1);
+        oStats.nMerges++;
       }
+    }
+  }
 
-      if (sMerges.size() > 0) {
-        for(String sMerge:sMerges) {
-          String[] sParts = sMerge.split(",");
-          int nCol = Integer.parseInt(sParts[0]);
-          int nCols = Integer.parseInt(sParts[1]);
-          //log("Merge "+nCol+" "+nCols);
-          oS.addMergedRegion(new CellRangeAddress(oRow.getRowNum(),oRow.getRowNum(),nCol,nCol+nCols-1));
+  /* Writes the current row of the RowBuilder below the rows already written.  The buffered string rows are
+   * flushed first so the rows stay in the order they were added.
+   */
+  private void writeBuiltRow(Area oA,Area.RowBuilder oRB) throws Exception {
+    if (!oA.bHdrsWritten || (oA.getBuffered() > 0)) flushArea(oA,false);
+    Sheet oS = oWB.getSheet(oA.sCurSheet);
+    HdrCol[] oHCs = oA.oHdrs.get(oA.oHdrs.size() - 1); // last takes and is assumed to have most cols
+    int nRow = oA.getDataRow()+oA.nRowsWritten;
+    checkLiveRow(oS,nRow,"endRow");
+    DirectEngine.DRow oDR = (oDE == null)?null:oDE.getAreaRow(oS,nRow);
+    Row oRow = null;
+    if (oDR == null) {
+      oRow = oS.getRow(nRow);
+      if (oRow == null) oRow = oS.createRow(nRow);
+    }
+    SpecFmt oSF = oRB.oSF;
+    int nBias = 0;
+    for(int col=0,colMax=Math.min(oHCs.length,oRB.nCols); col<colMax; col++) {
+      HdrCol oHC = oHCs[col];
+      int nCol = oA.nBaseCol+oHC.nHdrIX+nBias;
+      oSF.sName = oRB.sStyles[col];
+      oSF.oDF = oRB.oDFs[col];
+      CellStyle oSty = chooseStyle(oSF,oRB.sRowFmt,oHC);
+      int nLen;
+      if (oRB.nKinds[col] == Area.RowBuilder.KIND_NUM) {
+        double d = oRB.dVals[col];
+        if (oDR != null) {
+          oDR.putNumber(nCol,d,oSty);
+        } else {
+          Cell oC = oRow.createCell(nCol);
+          oC.setCellValue(d);
+          if (oSty != null) setCellStyle(oC,oSty);
         }
+        nLen = numLength(d,oRB.oDFs[col]);
+        oStats.nCellsNumeric++;
+      } else {
+        CharSequence s = oRB.oStrs[col];
+        String sVal = (s == null)?"":s.toString();
+        if (oDR != null) {
+          oDR.putString(nCol,sVal,oSty);
+        } else {
+          Cell oC = oRow.createCell(nCol);
+          setCellString(oC,sVal);
+          if (oSty != null) setCellStyle(oC,oSty);
+        }
+        nLen = (s == null)?0:s.length();
+        if (nLen == 0) oStats.nCellsBlank++; else oStats.nCellsString++;
+      }
+      if (nLen > oHC.nMaxStr) {
+        oHC.nWidthMult = 280;
+        oHC.nMaxStr = nLen;
+      }
+      int nMerge = oRB.nMerges[col];
+      if (nMerge > 0) {
+        for(int j=1; j<nMerge; j++) {
+          if (oDR != null) {
+            oDR.putString(nCol+j,"",null);
+          } else {
+            setCellString(oRow.createCell(nCol+j),"");
+          }
+        }
+        oStats.nCellsBlank += nMerge - 1;
+        nBias += nMerge - 1;
+      }
+      int nLast = (oDR != null)?oDR.getLastCellNum():oRow.getLastCellNum();
+      if (nLast > oA.nMaxCol) oA.nMaxCol = nLast;
+    }
+    // merges are added right to left as in writeRows
+    MergeIndex oMI = getMerges(oS);
+    for(int col=Math.min(oHCs.length,oRB.nCols)-1; col>=0; col--) {
+      int nMerge = oRB.nMerges[col];
+      if (nMerge > 0) {
+        nBias -= nMerge - 1;
+        int nCol = oA.nBaseCol+oHCs[col].nHdrIX+nBias;
+        oStats.nMerges++;
+        if (oMI.add(nRow,nRow,nCol,nCol+nMerge-1) >= MergeIndex.COMMIT_AT) oMI.commit(bMergeCheck);
       }
     }
-    return oA;
+    oA.nRowsWritten += 1;
+  }
+
+  // length of the value as displayed with the DataFmt, used for the column width
+  private static int numLength(double d,DataFmt oDF) {
+    int nLen = (d < 0)?2:1;
+    for(double dAbs=Math.abs(d); dAbs >= 10 && nLen < 20; dAbs /= 10) nLen++;
+    return (oDF.bInteger)?nLen:nLen+1+oDF.nDecs;
   }
 
   private String cellAsString(Cell oC) throws Exception {
@@ -2094,5 +3953,27 @@ public class WriteExcel {
     }
   }
 
+  // -------------- Benchmark entry points ----------------
+  // The private steps of writing a cell, for the JMH benchmarks in bench/.  createArea must have been called first.
+
+  /*bench*/ void benchSetCell(Row oRow,int nCol,String sData,String sColFmt) throws Exception {
+    setCellContent(sColFmt,oRow,nCol,sData);
+  }
+
+  // the SpecFmt is reused by the next call
+  /*bench*/ Object benchClassify(String sData) throws Exception {
+    return classifyCell(sData);
+  }
+
+  /*bench*/ CellStyle benchChooseStyle(Object oSF,String sRowFmt) throws Exception {
+    return chooseStyle((SpecFmt)oSF,sRowFmt);
+  }
+
+  /*bench*/ Object benchParseStyle(String sStyStr) throws Exception {
+    StyleDef oSD = new StyleDef();
+    oSD.sName = "bench";
+    oSD.sStyStr = sStyStr;
+    return parseStyleAttrs(oSD);
+  }
 
 }
\ No newline at end of file
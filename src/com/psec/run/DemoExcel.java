@@ -17,13 +17,23 @@
 package com.psec.run;
 import  com.psec.util.Parm;
 import  com.psec.excel.WriteExcel;
+import  com.psec.excel.ExcelStats;
 import  com.psec.excel.ReadExcelFile;
 import  com.psec.excel.ReadExcelRecord;
 import  com.psec.util.OptionalFlag;
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
-import java.util.regex.Matcher;
 
 import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.ss.usermodel.Sheet;
@@ -46,8 +56,25 @@ import org.apache.poi.ss.usermodel.BorderStyle;
   <li><code>reader</code> - demonstrate the clone functions of WriteExcel</li>
   <li><code>chart</code> - demonstrate how to create a Workbook with a chart</li>
   <li><code>regress</code>- run a full regression test</li>
+  <li><code>stress</code> - build the regression Workbook on many threads at once and check each against the single-threaded result.
+  <code>-def workbooks=n</code> (default 32) and <code>-def threads=n</code> (default the number of processors) control the run.</li>
+  <li><code>perf</code> - write a generated Workbook of production size, read it back with
+  {@link com.psec.excel.ReadExcelFile#readExcelSmart readExcelSmart} and record rows/sec, peak heap, GC time and file size in the Brief.
+  The peak heap of each phase is measured above the heap in use after a GC at its start, which for the write is mostly the
+  generated data, and is the sum of the peaks of the heap pools so it can overstate the heap in use at any one time.
+  <code>-def rows=n</code> (per Sheet, default 100000), <code>cols=n</code> (default 8), <code>card=n</code> (distinct strings, default 1000),
+  <code>styles=n</code> (percent of cells with a style, default 10), <code>merges=n</code> (percent of rows with a merged cell, default 1),
+  <code>sheets=n</code> (default 1) and <code>flush=n</code> (rows an Area buffers, default 0 for all) shape the load.
+  <code>store=columns</code> makes the Areas {@link com.psec.excel.WriteExcel.Area#columnar columnar} and <code>spill=n</code>
+  {@link com.psec.excel.WriteExcel.Area#spillAbove spills} their rows to disk above n MB (default 0 for never).</li>
   </ul>
   <p>
+  <code>-def engine=direct</code> writes the Workbooks with {@link com.psec.excel.WriteExcel#createDirect WriteExcel.createDirect},
+  <code>-def engine=stream</code> with {@link com.psec.excel.WriteExcel#createStreaming WriteExcel.createStreaming} keeping
+  <code>-def window=n</code> rows (default 1000).
+  <code>-def level=n</code> (deflate level, 0 to store) and <code>-def zipthreads=n</code> set the
+  {@link com.psec.excel.WriteExcel.CloseProfile CloseProfile} used to close them.
+  <p>
   While this class is designed to also be used by the PSEC Powershell utility, it can also be run with command line interface commands provided in
   this package as batch files of the same name as the <code>-what</code> parameter.
 
@@ -63,10 +90,39 @@ public class DemoExcel implements Parm.MainRun {
     String  sWhat;
     @OptionalFlag
     String[] sMsgs;
+    @OptionalFlag
+    Perf     oPerf;
+  }
+
+  /** Results of the perf test. */
+  private static class Perf {
+    String  sEngine;
+    String  sStore;           // rows or columns, see Area.columnar
+    int     nSpillMB;         // see Area.spillAbove, 0 for none
+    int     nRows;            // per Sheet
+    int     nCols;
+    int     nCard;
+    int     nStylePct;
+    int     nMergePct;
+    int     nSheets;
+    int     nFlush;
+    long    nCells;
+    long    nWriteMs;         // Areas written and the Workbook closed
+    long    nCloseMs;
+    double  dWriteRowsPerSec;
+    long    nWriteBaseHeapMB; // heap in use after a GC before writing, mostly the generated data
+    long    nWritePeakHeapMB; // sum of the peaks of the heap pools less the base, so an upper bound of the growth
+    long    nReadMs;          // openFile and readExcelSmart of every Sheet
+    long    nRowsRead;
+    double  dReadRowsPerSec;
+    long    nReadBaseHeapMB;
+    long    nReadPeakHeapMB;  // as for nWritePeakHeapMB
+    long    nGcMs;
+    long    nGcCount;
+    long    nFileBytes;
   }
 
   // ----------------------- Globals ----------------------
-  static DemoExcel oSelf;
   Opt              oOpt;
   Brief            oBrief = new Brief();
   WriteExcelReport oWER;
@@ -74,7 +130,6 @@ public class DemoExcel implements Parm.MainRun {
 
   // ---------------------- Mainline ----------------------
   public void run(Parm.Opt oBaseOpt) throws Exception {
-    oSelf = this;
     this.oOpt = (Opt)oBaseOpt;
     log("DemoExcel v1.0 starting,"
       +"\r\n   what= "+oOpt.sWhat
@@ -93,6 +148,8 @@ public class DemoExcel implements Parm.MainRun {
       case "chart":  writeClonedChart();  bGood = true; break;
       case "reader": demoReader();        bGood = true; break;
       case "regress":runRegressTest();    bGood = true; break;
+      case "stress": runStressTest();     bGood = true; break;
+      case "perf":   runPerfTest();       bGood = true; break;
       //default: throw e("What request"+oOpt.sWhat+" not implemented");
     }
 
@@ -111,8 +168,15 @@ public class DemoExcel implements Parm.MainRun {
   }
 
   private void runRegressTest() throws Exception {
-    oWER = new WriteExcelReport();
-    oWER.begin(oOpt.sOut);
+    writeRegressWorkbook(oOpt.sOut);
+    for(String sLine:readBackValues(oOpt.sOut)) {
+      log(sLine);
+    }
+  }
+
+  private void writeRegressWorkbook(String sOut) throws Exception {
+    oWER = new WriteExcelReport(oOpt);
+    oWER.begin(sOut);
     oWER.addDataFormat("numx","^@@[-]?[0-9]+[.][0-9]+$","00.000;[Blue]-00.000");
 
     oWER.bookSheet("index");
@@ -129,8 +193,249 @@ public class DemoExcel implements Parm.MainRun {
     writeIndexSheet(); // must be done last as links are bi-directional
 
     oWER.end();
+  }
 
-    readBackAndLogValues();
+  /* Builds the regression Workbook once on this thread and then nBooks more times on a pool of nThreads.
+   * Each DemoExcel task has its own WriteExcel and ReadExcelFile so only oOpt, which is only read, is shared.
+   * The read back values of every Workbook must match the single-threaded ones.
+   */
+  private void runStressTest() throws Exception {
+    int nBooks   = Integer.parseInt(oOpt.getProp("workbooks","32"));
+    int nThreads = Integer.parseInt(oOpt.getProp("threads",""+Runtime.getRuntime().availableProcessors()));
+    writeRegressWorkbook(oOpt.sOut);
+    ArrayList<String> sGold = readBackValues(oOpt.sOut);
+
+    long nStart = System.currentTimeMillis();
+    ExecutorService oES = Executors.newFixedThreadPool(nThreads);
+    ArrayList<Future<ArrayList<String>>> oFutures = new ArrayList<>();
+    try {
+      for(int i=0; i<nBooks; i++) {
+        final String sOut = getStressName(i);
+        oFutures.add(oES.submit(() -> {
+          DemoExcel oTask = new DemoExcel();
+          oTask.oOpt = oOpt;
+          oTask.writeRegressWorkbook(sOut);
+          return oTask.readBackValues(sOut);
+        }));
+      }
+      int nBad = 0;
+      for(int i=0; i<nBooks; i++) {
+        if (oFutures.get(i).get().equals(sGold)) {
+          new File(getStressName(i)).delete();
+        } else {
+          log("stress workbook "+getStressName(i)+" differs from the single-threaded result");
+          nBad += 1;
+        }
+      }
+      log(String.format("stress workbooks=%d threads=%d differing=%d elapsed=%dms",nBooks,nThreads,nBad,System.currentTimeMillis()-nStart));
+      if (nBad != 0) throw new Exception("stress test failed, "+nBad+" of "+nBooks+" workbooks differ");
+    } finally {
+      oES.shutdownNow();
+    }
+    checkRejectedJob(getStressName(nBooks),getStressName(nBooks+1));
+  }
+
+  /* A SheetJob that calls each link method on another Sheet must be refused before the Workbook is changed, so its
+   * Workbook must read back as one built by a job that does not try.
+   */
+  private void checkRejectedJob(String sGoldOut,String sOut) throws Exception {
+    writeJobWorkbook(sGoldOut,false);
+    int nRefused = writeJobWorkbook(sOut,true);
+    boolean bSame = readBackValues(sOut).equals(readBackValues(sGoldOut));
+    log(String.format("stress rejected job links=%d refused=%d unchanged=%s",JOB_LINKS.length,nRefused,bSame));
+    if (!bSame || (nRefused != JOB_LINKS.length)) throw new Exception("stress test failed, a refused SheetJob changed "+sOut);
+    new File(sGoldOut).delete();
+    new File(sOut).delete();
+  }
+
+  private static final WriteExcel.SheetJob[] JOB_LINKS = {
+    (oWE,sSheet) -> oWE.makeUrlLink(null,"other",5,3,"LEAK","http://example.com"),
+    (oWE,sSheet) -> oWE.makeFileLink(null,"other",5,3,"LEAK","leak.txt"),
+    (oWE,sSheet) -> oWE.makeIndexLink(null,"other","LEAK",5,3,null),
+    (oWE,sSheet) -> oWE.makeIndexLink(null,"other","LEAK",5,3,null,6,3),
+    (oWE,sSheet) -> oWE.makeStdLink(null,"other",5,3,null,sSheet,6,3),
+    (oWE,sSheet) -> oWE.makeUniLink(null,sSheet,1,1,"other",5,3,"LEAK"),
+    (oWE,sSheet) -> oWE.makeUniLink(null,sSheet,1,1,"other",5,3,"LEAK",2),
+  };
+
+  // returns the link calls refused
+  private int writeJobWorkbook(String sOut,boolean bLinks) throws Exception {
+    int[] nRefused = new int[1];
+    oWER = new WriteExcelReport(oOpt);
+    oWER.begin(sOut);
+    oWER.bookSheet("index");
+    oWER.createArea("index",0,0).header("Sheet").writeArea();
+    oWER.createArea("other",0,0).header("Name/Value").addRow("a/1".split("/")).addRow("b/2".split("/")).writeArea();
+    LinkedHashMap<String,WriteExcel.SheetJob> oJobs = new LinkedHashMap<>();
+    oJobs.put("job",(oWE,sSheet) -> {
+      oWE.createArea(sSheet,0,0).header("Name/Value").addRow("c/3".split("/")).writeArea();
+      if (!bLinks) return;
+      for(WriteExcel.SheetJob oLink:JOB_LINKS) {
+        try {
+          oLink.build(oWE,sSheet);
+        } catch(Exception e) {
+          if (!"Links cannot be used by a SheetJob".equals(e.getMessage())) throw e;
+          nRefused[0] += 1;
+        }
+      }
+    });
+    oWER.parallelSheets(oJobs,1);
+    oWER.end();
+    return nRefused[0];
+  }
+
+  /* Writes a generated Workbook shaped by the -def properties, reads it back and records the rates in the Brief.
+   * The data is made up front from a seeded Random so each run with the same properties writes the same Workbook,
+   * and the time to make it is not counted.
+   */
+  private void runPerfTest() throws Exception {
+    Perf oP = oBrief.oPerf = new Perf();
+    oP.sEngine   = oOpt.getProp("engine","poi");
+    oP.sStore    = oOpt.getProp("store","rows");
+    oP.nRows     = getIntProp("rows",100000,1);
+    oP.nCols     = getIntProp("cols",8,3);
+    oP.nCard     = getIntProp("card",1000,1);
+    oP.nStylePct = getIntProp("styles",10,0);
+    oP.nMergePct = getIntProp("merges",1,0);
+    oP.nSheets   = getIntProp("sheets",1,1);
+    oP.nFlush    = getIntProp("flush",0,0);
+    oP.nSpillMB  = getIntProp("spill",0,0);
+    if (oP.nStylePct > 100 || oP.nMergePct > 100) throw new Exception("styles and merges are percentages");
+    if (!oP.sStore.equals("rows") && !oP.sStore.equals("columns")) throw new Exception("-def store="+oP.sStore+" is not rows or columns");
+
+    String[] sStrs = new String[oP.nCard];
+    for(int i=0; i<sStrs.length; i++) sStrs[i] = String.format("Item %07d",i);
+    String[] sStys = "{:b}/{:i}/{:R}/{:C}/{:bC}/{:FG(red)}/{:BG(lavender)}/{:BG(0,248,0)}".split("/");
+    Random oRnd = new Random(42);
+    String[][] sData = new String[oP.nRows][];
+    for(int i=0; i<oP.nRows; i++) {
+      boolean bMerge = oRnd.nextInt(100) < oP.nMergePct;
+      String[] sRow = sData[i] = new String[bMerge?oP.nCols-1:oP.nCols];
+      for(int j=0; j<sRow.length; j++) {
+        String sVal;
+        switch (j % 3) {
+          case 0:  sVal = sStrs[oRnd.nextInt(sStrs.length)]; break;
+          case 1:  sVal = ""+(oRnd.nextInt(200000) - 1000); break;
+          default: sVal = String.format("%.2f",oRnd.nextInt(10000000) / 100.0); break;
+        }
+        if (oRnd.nextInt(100) < oP.nStylePct) sVal = sStys[oRnd.nextInt(sStys.length)]+sVal;
+        sRow[j] = sVal;
+      }
+      if (bMerge) sRow[0] = "{2}"+sRow[0];
+    }
+    StringBuilder oHdr = new StringBuilder();
+    for(int j=0; j<oP.nCols; j++) oHdr.append((j == 0)?"":"/").append("Col ").append(j);
+
+    ArrayList<MemoryPoolMXBean> oPools = new ArrayList<>();
+    for(MemoryPoolMXBean oMP:ManagementFactory.getMemoryPoolMXBeans()) {
+      if (oMP.getType() == MemoryType.HEAP) oPools.add(oMP);
+    }
+    long nGcMs = gcMillis(), nGcCount = gcCount();
+    System.gc();
+    long nBase = heapUsed(oPools);   // sData is still live, the peak is measured above it
+    for(MemoryPoolMXBean oMP:oPools) oMP.resetPeakUsage();
+
+    long nStart = System.nanoTime();
+    oWER = new WriteExcelReport(oOpt);
+    oWER.begin(oOpt.sOut);
+    for(int k=0; k<oP.nSheets; k++) {
+      WriteExcel.Area oA = oWER.createArea("perf"+(k+1),0,0).flushEvery(oP.nFlush).header(oHdr.toString(),"#hdrBlue");
+      if (oP.sStore.equals("columns")) oA.columnar();
+      oA.spillAbove(oP.nSpillMB * (1L << 20));
+      for(int i=0; i<oP.nRows; i++) oA.addRow(sData[i],i % 2);
+      oA.writeArea();
+    }
+    long nClose = System.nanoTime();
+    oWER.end();
+    long nEnd = System.nanoTime();
+    oP.nWriteBaseHeapMB = nBase >> 20;
+    oP.nWritePeakHeapMB = Math.max(0,peakHeap(oPools) - nBase) >> 20;
+    ExcelStats oWS = oWER.getStats();
+    log("Write stats\r\n"+oWS);
+    sData = null;
+    oWER = null;    // still holds the Workbook it wrote
+
+    System.gc();
+    nBase = heapUsed(oPools);
+    for(MemoryPoolMXBean oMP:oPools) oMP.resetPeakUsage();
+    long nRead = System.nanoTime();
+    oREF = new ReadExcelFile();
+    oREF.openFile(oOpt.sOut);
+    for(int k=0; k<oP.nSheets; k++) {
+      oP.nRowsRead += oREF.readExcelSmart("perf"+(k+1),PerfRec.class,1,true).length;
+    }
+    oREF.closeFile();
+    long nReadEnd = System.nanoTime();
+    oP.nReadBaseHeapMB = nBase >> 20;
+    oP.nReadPeakHeapMB = Math.max(0,peakHeap(oPools) - nBase) >> 20;
+    log("Read stats\r\n"+oREF.getStats());
+
+    long nTotRows = (long)oP.nRows * oP.nSheets;
+    oP.nCells = oWS.nCellsNumeric + oWS.nCellsString + oWS.nCellsBlank;
+    oP.nWriteMs = (nEnd - nStart) / 1000000;
+    oP.nCloseMs = (nEnd - nClose) / 1000000;
+    oP.dWriteRowsPerSec = Math.round(nTotRows * 1e9 / (nEnd - nStart));
+    oP.nReadMs = (nReadEnd - nRead) / 1000000;
+    oP.dReadRowsPerSec = Math.round(nTotRows * 1e9 / (nReadEnd - nRead));
+    oP.nGcMs = gcMillis() - nGcMs;
+    oP.nGcCount = gcCount() - nGcCount;
+    oP.nFileBytes = new File(oOpt.sOut).length();
+    log(String.format("perf engine=%s store=%s spill=%dMB sheets=%d rows=%d cols=%d write=%dms (%.0f rows/s, close %dms, peak +%dMB over %dMB) read=%dms (%.0f rows/s, peak +%dMB over %dMB) gc=%dms/%d file=%d",
+      oP.sEngine,oP.sStore,oP.nSpillMB,oP.nSheets,oP.nRows,oP.nCols,oP.nWriteMs,oP.dWriteRowsPerSec,oP.nCloseMs,oP.nWritePeakHeapMB,oP.nWriteBaseHeapMB,
+      oP.nReadMs,oP.dReadRowsPerSec,oP.nReadPeakHeapMB,oP.nReadBaseHeapMB,oP.nGcMs,oP.nGcCount,oP.nFileBytes));
+  }
+
+  private int getIntProp(String sKey,int nDef,int nMin) throws Exception {
+    int n = Integer.parseInt(oOpt.getProp(sKey,""+nDef));
+    if (n < nMin) throw new Exception("-def "+sKey+"="+n+" is below "+nMin);
+    return n;
+  }
+
+  // the pools peak at different times so the sum can be above the heap ever in use at once
+  private static long peakHeap(ArrayList<MemoryPoolMXBean> oPools) {
+    long nPeak = 0;
+    for(MemoryPoolMXBean oMP:oPools) nPeak += oMP.getPeakUsage().getUsed();
+    return nPeak;
+  }
+
+  private static long heapUsed(ArrayList<MemoryPoolMXBean> oPools) {
+    long nUsed = 0;
+    for(MemoryPoolMXBean oMP:oPools) nUsed += oMP.getUsage().getUsed();
+    return nUsed;
+  }
+
+  private static long gcMillis() {
+    long n = 0;
+    for(GarbageCollectorMXBean oGC:ManagementFactory.getGarbageCollectorMXBeans()) n += Math.max(0,oGC.getCollectionTime());
+    return n;
+  }
+
+  private static long gcCount() {
+    long n = 0;
+    for(GarbageCollectorMXBean oGC:ManagementFactory.getGarbageCollectorMXBeans()) n += Math.max(0,oGC.getCollectionCount());
+    return n;
+  }
+
+  /**
+    Used to read back the perf Workbook. Use of Reflection requires this be made public.
+  */
+  public static class PerfRec extends ReadExcelRecord {
+    public String[] getColMap() {
+      return new String[]{"0=sKey;1=nInt;2=dNum"};
+    }
+    public String sKey;
+    public int    nInt;
+    public double dNum;
+    @Override
+    public boolean canAccept() throws Exception {
+      return this.sKey != null;
+    }
+  }
+
+  private String getStressName(int nBook) {
+    int nIX = oOpt.sOut.lastIndexOf(".");
+    if (nIX < 0) nIX = oOpt.sOut.length();
+    return oOpt.sOut.substring(0,nIX)+String.format(".stress%02d",nBook)+oOpt.sOut.substring(nIX);
   }
 
 
@@ -163,7 +468,7 @@ public class DemoExcel implements Parm.MainRun {
   */
 
   private void writeClonedChart() throws Exception {
-    oWER = new WriteExcelReport();
+    oWER = new WriteExcelReport(oOpt);
     oWER.chartCopy(oOpt.sOut,oOpt.sInp);
     Workbook oWB = oWER.getWorkbook();
     oWB.removeSheetAt(oWB.getSheetIndex("formats"));
@@ -210,18 +515,41 @@ public class DemoExcel implements Parm.MainRun {
   // ----------------- Writer routines --------------------
   private static class WriteExcelReport extends WriteExcel {
     WriteExcel oEW;
+    Opt        oOpt;
+    WriteExcelReport(Opt oOpt) {this.oOpt = oOpt;}
     public void begin(String sFileName) throws Exception {
-      oEW = WriteExcel.create(this,sFileName);
-      if ((oSelf.oOpt.bRed || oSelf.oOpt.sNegFmt != null)) {
+      if ("stream".equals(oOpt.getProp("engine","poi"))) {
+        oEW = WriteExcel.createStreaming(this,sFileName,Integer.parseInt(oOpt.getProp("window","1000")));
+      } else if (isDirect()) {
+        oEW = WriteExcel.createDirect(this,sFileName);
+      } else {
+        oEW = WriteExcel.create(this,sFileName);
+      }
+      setProfile();
+      if ((oOpt.bRed || oOpt.sNegFmt != null)) {
         String sFmt = null;
-        if ("paren".equals(oSelf.oOpt.sNegFmt))  sFmt = "()";
-        if ("sign".equals(oSelf.oOpt.sNegFmt))   sFmt = "-";
-        if ("color".equals(oSelf.oOpt.sNegFmt))  sFmt = "";
-        oEW.setNegativeFormat(oSelf.oOpt.bRed,sFmt);
+        if ("paren".equals(oOpt.sNegFmt))  sFmt = "()";
+        if ("sign".equals(oOpt.sNegFmt))   sFmt = "-";
+        if ("color".equals(oOpt.sNegFmt))  sFmt = "";
+        oEW.setNegativeFormat(oOpt.bRed,sFmt);
       }
     }
     public void chartCopy(String sFileName,String sTemplate) throws Exception {
-      oEW = WriteExcel.create(this,sFileName,sTemplate);
+      if (isDirect()) {
+        oEW = WriteExcel.createDirect(this,sFileName,sTemplate);
+      } else {
+        oEW = WriteExcel.create(this,sFileName,sTemplate);
+      }
+      setProfile();
+    }
+    private void setProfile() throws Exception {
+      WriteExcel.CloseProfile oCP = new WriteExcel.CloseProfile();
+      oCP.level(Integer.parseInt(oOpt.getProp("level","-1")));
+      oCP.threads(Integer.parseInt(oOpt.getProp("zipthreads","1")));
+      oEW.setCloseProfile(oCP);
+    }
+    private boolean isDirect() {
+      return "direct".equals(oOpt.getProp("engine","poi"));
     }
     public void end() throws Exception {
       oEW.close();
@@ -346,7 +674,7 @@ public class DemoExcel implements Parm.MainRun {
   }
 
   private void writeBasicSheets() throws Exception {
-    oWER = new WriteExcelReport();
+    oWER = new WriteExcelReport(oOpt);
     oWER.begin(oOpt.sOut);
 
     oWER.addDataFormat("numx","^@@[-]?[0-9]+[.][0-9]+$","00.000;[Blue]-00.000");
@@ -533,7 +861,7 @@ public class DemoExcel implements Parm.MainRun {
   private void writeClonerOutput() throws Exception {
     oREF = new ReadExcelFile();
     oREF.openFile(oOpt.sInp);
-    oWER = new WriteExcelReport();
+    oWER = new WriteExcelReport(oOpt);
     oWER.begin(oOpt.sOut);
     oWER.addExternalSheet("cloned",oREF.getSheet("sample-sales"),null);
 
@@ -550,7 +878,7 @@ public class DemoExcel implements Parm.MainRun {
     Used to process selected records. Use of Reflection requires this be made public.
   */
   public static class OpenBalRec extends ReadExcelRecord {
-    static Matcher oM = Pattern.compile("^[ALS][0-9]{3}$").matcher("");
+    static final Pattern oPat = Pattern.compile("^[ALS][0-9]{3}$");
     public String[] getColMap() {
       return "3=sLab;2=sName;4=dVal".split("/");
     }
@@ -561,7 +889,7 @@ public class DemoExcel implements Parm.MainRun {
     @Override
     public boolean canAccept() throws Exception {
       if (this.sLab == null) return false;
-      if (oM.reset(this.sLab).find()) return true;
+      if (oPat.matcher(this.sLab).find()) return true;
       return false;
     }
   }
@@ -577,40 +905,43 @@ public class DemoExcel implements Parm.MainRun {
     oREF.closeFile();
   }
 
-  private void readBackAndLogValues() throws Exception {
+  private ArrayList<String> readBackValues(String sFile) throws Exception {
+    ArrayList<String> sLines = new ArrayList<>();
     oREF = new ReadExcelFile();
-    oREF.openFile(oOpt.sOut);
+    oREF.openFile(sFile);
     Workbook oWB =  oREF.getWorkbook();
     WriteExcel oWE = WriteExcel.create(oWB);
 
     for(Iterator<Sheet> oI = oWB.sheetIterator(); oI.hasNext();) {
       Sheet oS = oI.next();
-      log(String.format("----- sheet:%-14s index:%2d NumRows:%3d FirstRow:%2d LastRow:%3d",
+      sLines.add(String.format("----- sheet:%-14s index:%2d NumRows:%3d FirstRow:%2d LastRow:%3d",
         oS.getSheetName(),oWB.getSheetIndex(oS.getSheetName()),oS.getPhysicalNumberOfRows(),oS.getFirstRowNum(),oS.getLastRowNum()));
       for(int i=oS.getFirstRowNum(),iMax=oS.getLastRowNum(); i<=iMax; i++) {
         Row oRow = oS.getRow(i);
         if (oRow != null) {
-          log(String.format("  row:%3d NumCell:%3d FirstCell:%2d LastCell:%3d",
+          sLines.add(String.format("  row:%3d NumCell:%3d FirstCell:%2d LastCell:%3d",
             i,oRow.getPhysicalNumberOfCells(),oRow.getFirstCellNum(),oRow.getLastCellNum()));
           if (oRow.getPhysicalNumberOfCells() > 0) {
             for(int j=oRow.getFirstCellNum(),jMax=oRow.getLastCellNum(); j<=jMax; j++) {
               Cell oC = oRow.getCell(j);
               if (oC != null) {
-                log("    "+oWE.cellSummary(oC));
+                sLines.add("    "+oWE.cellSummary(oC));
               }
             }
           }
         }
       }
     }
-    log("----------- CellStyle Cache --------------");
+    sLines.add("----------- CellStyle Cache --------------");
     for(String s:oWE.dumpCellStyleCache()) {
-      log("  "+s);
+      sLines.add("  "+s);
     }
-    log("----------- Font Cache --------------");
+    sLines.add("----------- Font Cache --------------");
     for(String s:oWE.dumpCellFontCache()) {
-      log("  "+s);
+      sLines.add("  "+s);
     }
+    oREF.closeFile();
+    return sLines;
   }
 
 